@@ -5,6 +5,15 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+/**
+ * Declares a public field of a {@link Command} as a command line option.
+ * boolean fields are flags, String fields take a value, and List&lt;String&gt;
+ * fields take a value and can be given several times. Fields must not be
+ * initialized, because the options are parsed by the {@link Command}
+ * constructor; options that weren't given are null. The option tables are
+ * generated by {@link ArgumentProcessor}, or read from the annotations when the
+ * processor didn't run.
+ */
 @Target(ElementType.FIELD)
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Argument {
@@ -0,0 +1,179 @@
+package xsynth;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedSourceVersion;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic.Kind;
+
+/**
+ * Generates {@code xsynth.CommandTables}, which holds a {@link CommandTable}
+ * for every {@link CommandName} class, from its {@link Argument} fields. Runs
+ * as part of the build (see pom.xml), so that none of that has to be done by
+ * reflection every time xsynth starts.
+ *
+ * Options are listed in the order {@link Class#getFields()} returns them: the
+ * class's own fields first, then those inherited from its superclasses.
+ */
+@SupportedAnnotationTypes("xsynth.CommandName")
+@SupportedSourceVersion(SourceVersion.RELEASE_17)
+public class ArgumentProcessor extends AbstractProcessor {
+	private static final String TABLES = "xsynth.CommandTables";
+
+	private final List<TypeElement> commands = new ArrayList<>();
+
+	@Override
+	public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment round) {
+		for (final Element element : round.getElementsAnnotatedWith(CommandName.class))
+			commands.add((TypeElement) element);
+		if (round.processingOver() || commands.isEmpty())
+			return true;
+
+		commands.sort(Comparator.comparing(type -> type.getQualifiedName().toString()));
+		try (final PrintWriter out = new PrintWriter(
+				processingEnv.getFiler().createSourceFile(TABLES, commands.toArray(new Element[0])).openWriter())) {
+			writeTables(out);
+		} catch (final IOException e) {
+			processingEnv.getMessager().printMessage(Kind.ERROR, "cannot write " + TABLES + ": " + e);
+		}
+		commands.clear();
+		return true;
+	}
+
+	private void writeTables(final PrintWriter out) {
+		out.println("package xsynth;");
+		out.println();
+		out.println("import java.util.List;");
+		out.println();
+		out.println("import xsynth.Diagnostics.AbortedException;");
+		out.println();
+		out.println("/** generated by {@link ArgumentProcessor}. do not edit. */");
+		out.println("final class CommandTables {");
+		out.println("\tprivate CommandTables() {");
+		out.println("\t}");
+		out.println();
+		out.println("\tstatic CommandTable forClass(final Class<?> clazz) {");
+		for (final TypeElement command : commands) {
+			out.println("\t\tif (clazz == " + command.getQualifiedName() + ".class)");
+			out.println("\t\t\treturn new " + getTableName(command) + "();");
+		}
+		out.println("\t\treturn null;");
+		out.println("\t}");
+		for (final TypeElement command : commands)
+			writeTable(out, command);
+		out.println("}");
+	}
+
+	private void writeTable(final PrintWriter out, final TypeElement command) {
+		final Elements elements = processingEnv.getElementUtils();
+		final String type = command.getQualifiedName().toString();
+		final List<VariableElement> fields = getArgumentFields(command);
+
+		out.println();
+		out.println("\tprivate static final class " + getTableName(command) + " extends CommandTable {");
+		out.println("\t\t" + getTableName(command) + "() {");
+		out.println("\t\t\tsuper(" + elements.getConstantExpression(command.getAnnotation(CommandName.class).value())
+				+ ", List.of(");
+		for (int i = 0; i < fields.size(); i++) {
+			final Argument arg = fields.get(i).getAnnotation(Argument.class);
+			final StringBuilder longOptions = new StringBuilder();
+			for (final String longOption : arg.longOptions())
+				longOptions.append(longOptions.length() > 0 ? ", " : "").append(elements.getConstantExpression(longOption));
+			out.println("\t\t\t\t\tnew Option(" + i + ", " + elements.getConstantExpression(arg.shortOption())
+					+ ", new String[] { " + longOptions + " }, " + elements.getConstantExpression(arg.help()) + ", "
+					+ elements.getConstantExpression(arg.metavar()) + ", " + arg.required() + ", "
+					+ hasArg(fields.get(i)) + ")" + (i < fields.size() - 1 ? "," : "));"));
+		}
+		if (fields.isEmpty())
+			out.println("\t\t\t\t\t));");
+		out.println("\t\t}");
+		out.println();
+		out.println("\t\t@Override");
+		out.println("\t\tCommand newInstance(final Diagnostics diag, final List<String> cmdline) throws AbortedException {");
+		out.println("\t\t\treturn new " + type + "(diag, cmdline);");
+		out.println("\t\t}");
+		out.println();
+		out.println("\t\t@Override");
+		out.println("\t\tvoid set(final Command command, final int option, final String value) {");
+		out.println("\t\t\tfinal " + type + " cmd = (" + type + ") command;");
+		out.println("\t\t\tswitch (option) {");
+		for (int i = 0; i < fields.size(); i++)
+			if (isList(fields.get(i)))
+				out.println("\t\t\tcase " + i + " -> cmd." + fields.get(i).getSimpleName() + " = append(cmd."
+						+ fields.get(i).getSimpleName() + ", value);");
+			else
+				out.println("\t\t\tcase " + i + " -> cmd." + fields.get(i).getSimpleName() + " = "
+						+ (hasArg(fields.get(i)) ? "value" : "true") + ";");
+		out.println("\t\t\tdefault -> throw new IllegalArgumentException(\"no option \" + option);");
+		out.println("\t\t\t}");
+		out.println("\t\t}");
+		out.println();
+		out.println("\t\t@Override");
+		out.println("\t\tboolean isNull(final Command command, final int option) {");
+		out.println("\t\t\tfinal " + type + " cmd = (" + type + ") command;");
+		out.println("\t\t\treturn switch (option) {");
+		for (int i = 0; i < fields.size(); i++)
+			if (hasArg(fields.get(i)))
+				out.println("\t\t\tcase " + i + " -> cmd." + fields.get(i).getSimpleName() + " == null;");
+		out.println("\t\t\tdefault -> false;");
+		out.println("\t\t\t};");
+		out.println("\t\t}");
+		out.println("\t}");
+	}
+
+	private List<VariableElement> getArgumentFields(final TypeElement command) {
+		final List<VariableElement> fields = new ArrayList<>();
+		for (TypeElement type = command; type != null; type = getSuperclass(type))
+			for (final Element member : type.getEnclosedElements())
+				if (member.getKind() == ElementKind.FIELD && member.getAnnotation(Argument.class) != null) {
+					final VariableElement field = (VariableElement) member;
+					if (!field.getModifiers().contains(Modifier.PUBLIC) || field.getModifiers().contains(Modifier.FINAL)
+							|| field.getModifiers().contains(Modifier.STATIC))
+						processingEnv.getMessager().printMessage(Kind.ERROR,
+								"@Argument fields must be public, non-final instance fields", field);
+					else if (field.asType().getKind() != TypeKind.BOOLEAN
+							&& !field.asType().toString().equals(String.class.getName()) && !isList(field))
+						processingEnv.getMessager().printMessage(Kind.ERROR,
+								"@Argument fields must be boolean, String or List<String>", field);
+					fields.add(field);
+				}
+		return fields;
+	}
+
+	private static TypeElement getSuperclass(final TypeElement type) {
+		final TypeMirror superclass = type.getSuperclass();
+		if (superclass.getKind() != TypeKind.DECLARED)
+			return null;
+		return (TypeElement) ((DeclaredType) superclass).asElement();
+	}
+
+	private static boolean hasArg(final VariableElement field) {
+		return field.asType().getKind() != TypeKind.BOOLEAN;
+	}
+
+	/** options collected in a list can be given several times */
+	private static boolean isList(final VariableElement field) {
+		return field.asType().toString().equals("java.util.List<java.lang.String>");
+	}
+
+	private static String getTableName(final TypeElement command) {
+		return command.getSimpleName() + "Table";
+	}
+}
@@ -0,0 +1,38 @@
+package xsynth;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import xsynth.Message.Level;
+
+/**
+ * Collects messages instead of printing them, so that the messages of a task
+ * running in parallel with others can be printed in one piece once it's done.
+ */
+public class BufferedDiagnostics extends Diagnostics {
+	private final List<Message> messages = new ArrayList<>();
+
+	@Override
+	protected synchronized void print(final String level, final SourceLocation sloc, final List<String> line,
+			final String message) {
+		messages.add(new Message(Level.valueOf(level), sloc, line != null ? List.copyOf(line) : null, message));
+	}
+
+	/** @return all messages collected so far, in the order they were reported */
+	public synchronized List<Message> getMessages() {
+		return List.copyOf(messages);
+	}
+
+	/**
+	 * Reports all collected messages to another {@link Diagnostics}, without
+	 * interleaving them with messages reported by other threads. INFO messages
+	 * are suppressed if that is quiet.
+	 */
+	public void replayTo(final Diagnostics target) {
+		final List<Message> copy = getMessages();
+		synchronized (target) {
+			for (final Message msg : copy)
+				msg.replayTo(target);
+		}
+	}
+}
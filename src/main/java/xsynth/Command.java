@@ -1,7 +1,6 @@
 package xsynth;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -16,19 +15,18 @@ public abstract class Command {
 
 	protected final String name;
 	protected final List<String> cmdline;
-	private final List<Option> options = new ArrayList<>();
+	private final CommandTable table;
+	private final List<Option> options;
 	private final List<String> infiles = new ArrayList<>();
 	protected final Diagnostics diag;
+	private Path directory = Path.of("");
 
 	public Command(final Diagnostics diag, final List<String> cmdline) throws AbortedException {
 		this.diag = diag;
 		name = cmdline.get(0);
 		this.cmdline = cmdline;
-		for (final Field field : getClass().getFields()) {
-			final Argument opt = field.getAnnotation(Argument.class);
-			if (opt != null)
-				options.add(new Option(opt, field));
-		}
+		table = CommandTable.forClass(getClass());
+		options = table.options;
 
 		nextOption: for (int cmdPos = 1; cmdPos < cmdline.size(); cmdPos++) {
 			final String arg = cmdline.get(cmdPos);
@@ -43,9 +41,9 @@ public abstract class Command {
 				final int pos = arg.indexOf('=');
 				final String argName = arg.substring(2, pos < 0 ? arg.length() : pos);
 				for (final Option opt : options)
-					for (final String n : opt.arg.longOptions())
+					for (final String n : opt.longOptions)
 						if (n.startsWith(argName)) {
-							if (opt.set(this, cmdline, cmdPos, pos + 1) == ConsumedArgument.SEPARATE)
+							if (opt.set(table, this, cmdline, cmdPos, pos + 1) == ConsumedArgument.SEPARATE)
 								cmdPos++; // if value was in a separate argument, skip it
 							continue nextOption;
 						}
@@ -55,8 +53,8 @@ public abstract class Command {
 				int charPos = 1;
 				nextChar: for (; charPos < arg.length(); charPos++) {
 					for (final Option opt : options)
-						if (opt.arg.shortOption() == arg.charAt(charPos)) {
-							final ConsumedArgument consumedArgument = opt.set(this, cmdline, cmdPos, charPos + 1);
+						if (opt.shortOption == arg.charAt(charPos)) {
+							final ConsumedArgument consumedArgument = opt.set(table, this, cmdline, cmdPos, charPos + 1);
 							if (consumedArgument == ConsumedArgument.NONE)
 								// if single-character no-argument option, the rest of the arg is additional
 								// option switches
@@ -75,7 +73,7 @@ public abstract class Command {
 		}
 
 		for (final Option opt : options)
-			if (opt.arg.required() && opt.hasArg() && opt.isNull(this))
+			if (opt.required && opt.hasArg() && opt.isNull(table, this))
 				throw usage("--" + opt + ": missing required option");
 	}
 
@@ -86,12 +84,43 @@ public abstract class Command {
 
 	public abstract void execute(final List<String> infiles) throws AbortedException;
 
+	/**
+	 * @return the exit status, once {@link #execute()} has returned normally. only
+	 *         commands that can fail without reporting an error themselves, like
+	 *         ones run elsewhere, return anything but 0.
+	 */
+	public int getStatus() {
+		return 0;
+	}
+
+	/**
+	 * Checks that the command will finish on its own, for running it on behalf of
+	 * someone who waits for it to finish.
+	 */
+	public void checkFinishes() throws AbortedException {
+	}
+
+	/**
+	 * Sets the directory that relative file names on the command line are relative
+	 * to. Defaults to the current directory.
+	 */
+	public void setDirectory(final Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @return the named file, resolved against the command's directory
+	 */
+	protected Path getFile(final String filename) {
+		return directory.resolve(filename);
+	}
+
 	protected AbortedException usage(final String msg) {
 		diag.setQuiet(false);
 		final AbortedException err = msg != null ? diag.error(null, msg)
 				: new AbortedException(null, "invalid commandline syntax");
 
-		diag.info(null, "usage: xsynth " + getName(getClass()) + " [options...] [input files...]");
+		diag.info(null, "usage: xsynth " + table.name + " [options...] [input files...]");
 		int maxoptlen = 0;
 		for (final Option opt : options) {
 			final int optlen = opt.getDescription().length();
@@ -104,7 +133,7 @@ public abstract class Command {
 			line.setLength(0);
 			line.append("  ");
 			line.append(opt.getDescription());
-			final String[] words = opt.arg.help().split(" ");
+			final String[] words = opt.help.split(" ");
 			int i = 0;
 			while (i < words.length) {
 				while (line.length() < maxoptlen + 3)
@@ -119,20 +148,11 @@ public abstract class Command {
 	}
 
 	public static String getName(final Class<? extends Command> clazz) {
-		return clazz.getAnnotation(CommandName.class).value();
+		return CommandTable.forClass(clazz).name;
 	}
 
 	public static <T extends Command> T newInstance(final Class<T> clazz, final Diagnostics diag,
 			final List<String> cmdline) throws AbortedException {
-		try {
-			return clazz.getConstructor(Diagnostics.class, List.class).newInstance(diag, cmdline);
-		} catch (final InvocationTargetException e) {
-			if (e.getTargetException() instanceof AbortedException)
-				throw (AbortedException) e.getTargetException();
-			else
-				throw new RuntimeException(e);
-		} catch (ReflectiveOperationException | IllegalArgumentException | SecurityException e) {
-			throw new RuntimeException(e);
-		}
+		return clazz.cast(CommandTable.forClass(clazz).newInstance(diag, cmdline));
 	}
 }
@@ -0,0 +1,157 @@
+package xsynth;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import xsynth.Diagnostics.AbortedException;
+
+/**
+ * The name and options of a command, as declared by its {@link CommandName} and
+ * {@link Argument} annotations. Subclasses are generated at build time by
+ * {@link ArgumentProcessor}, so that starting a command doesn't have to
+ * reflect over its fields and annotations. Builds that don't run the processor
+ * fall back to reflection.
+ */
+abstract class CommandTable {
+	/**
+	 * {@code CommandTables.forClass()}, or null if the tables haven't been
+	 * generated. that happens when the annotation processor didn't run, eg. when
+	 * compiling with plain javac or in an IDE, and the tables are then read from
+	 * the annotations instead.
+	 */
+	private static final Method GENERATED = findGenerated();
+
+	final String name;
+	final List<Option> options;
+
+	protected CommandTable(final String name, final List<Option> options) {
+		this.name = name;
+		this.options = options;
+	}
+
+	abstract Command newInstance(final Diagnostics diag, final List<String> cmdline) throws AbortedException;
+
+	/**
+	 * sets the field of an option. flags are set to {@code true}, ignoring the
+	 * value.
+	 */
+	abstract void set(final Command command, final int option, final String value);
+
+	/** @return whether the option has a value, ie. whether its field is null */
+	abstract boolean isNull(final Command command, final int option);
+
+	/**
+	 * @return the list with the value added. the list is created on demand,
+	 *         because options are parsed before the command's own fields are
+	 *         initialized.
+	 */
+	protected static List<String> append(final List<String> list, final String value) {
+		final List<String> values = list != null ? list : new ArrayList<>();
+		values.add(value);
+		return values;
+	}
+
+	static CommandTable forClass(final Class<? extends Command> clazz) {
+		CommandTable table = null;
+		if (GENERATED != null)
+			try {
+				table = (CommandTable) GENERATED.invoke(null, clazz);
+			} catch (final ReflectiveOperationException e) {
+				throw new RuntimeException(e);
+			}
+		if (table == null && clazz.isAnnotationPresent(CommandName.class))
+			table = new Reflective(clazz);
+		if (table == null)
+			throw new IllegalArgumentException(clazz + " isn't annotated with @CommandName");
+		return table;
+	}
+
+	private static Method findGenerated() {
+		try {
+			return Class.forName(CommandTable.class.getPackageName() + ".CommandTables")
+					.getDeclaredMethod("forClass", Class.class);
+		} catch (final ClassNotFoundException e) {
+			return null;
+		} catch (final NoSuchMethodException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * reads the options from the annotations of the command's fields, in the
+	 * order {@link ArgumentProcessor} lists them
+	 */
+	static class Reflective extends CommandTable {
+		private final Class<? extends Command> clazz;
+		private final List<Field> fields;
+
+		Reflective(final Class<? extends Command> clazz) {
+			this(clazz, getArgumentFields(clazz));
+		}
+
+		private Reflective(final Class<? extends Command> clazz, final List<Field> fields) {
+			super(clazz.getAnnotation(CommandName.class).value(), getOptions(fields));
+			this.clazz = clazz;
+			this.fields = fields;
+		}
+
+		private static List<Field> getArgumentFields(final Class<? extends Command> clazz) {
+			final List<Field> fields = new ArrayList<>();
+			for (final Field field : clazz.getFields())
+				if (field.isAnnotationPresent(Argument.class))
+					fields.add(field);
+			return fields;
+		}
+
+		private static List<Option> getOptions(final List<Field> fields) {
+			final List<Option> options = new ArrayList<>();
+			for (final Field field : fields) {
+				final Argument arg = field.getAnnotation(Argument.class);
+				options.add(new Option(options.size(), arg.shortOption(), arg.longOptions(), arg.help(), arg.metavar(),
+						arg.required(), field.getType() != Boolean.TYPE));
+			}
+			return options;
+		}
+
+		@Override
+		Command newInstance(final Diagnostics diag, final List<String> cmdline) throws AbortedException {
+			try {
+				return clazz.getConstructor(Diagnostics.class, List.class).newInstance(diag, cmdline);
+			} catch (final InvocationTargetException e) {
+				if (e.getTargetException() instanceof AbortedException)
+					throw (AbortedException) e.getTargetException();
+				throw new RuntimeException(e);
+			} catch (final ReflectiveOperationException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		void set(final Command command, final int option, final String value) {
+			final Field field = fields.get(option);
+			try {
+				if (field.getType() == Boolean.TYPE)
+					field.setBoolean(command, true);
+				else if (field.getType() == List.class)
+					field.set(command, append((List<String>) field.get(command), value));
+				else
+					field.set(command, value);
+			} catch (final IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		boolean isNull(final Command command, final int option) {
+			try {
+				return fields.get(option).get(command) == null;
+			} catch (final IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+}
@@ -14,9 +14,16 @@ public class Diagnostics {
 	}
 
 	protected void print(final String level, final SourceLocation sloc, final List<String> line, final String message) {
-		System.err.println((sloc != null ? sloc + ": " : "") + level + " " + message);
+		println((sloc != null ? sloc + ": " : "") + level + " " + message);
 		if (line != null)
-			System.err.println("\t" + String.join(" ", line));
+			println("\t" + String.join(" ", line));
+	}
+
+	/**
+	 * Outputs a single line of a message. Goes to stderr unless overridden.
+	 */
+	protected void println(final String text) {
+		System.err.println(text);
 	}
 
 	/**
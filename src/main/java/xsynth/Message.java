@@ -0,0 +1,40 @@
+package xsynth;
+
+import java.util.List;
+
+/**
+ * A message reported to {@link Diagnostics}, for code that wants to look at the
+ * messages instead of just printing them.
+ *
+ * @param sloc    where the message refers to, or null if it isn't about any
+ *                particular place in the input
+ * @param line    the offending line, or null if it isn't about a particular
+ *                line
+ * @param message the message text, without location and level
+ */
+public record Message(Level level, SourceLocation sloc, List<String> line, String message) {
+	public enum Level {
+		INFO, WARNING, ERROR
+	}
+
+	/**
+	 * Reports the message to a {@link Diagnostics}. INFO messages are suppressed
+	 * if that is quiet.
+	 */
+	public void replayTo(final Diagnostics diag) {
+		switch (level) {
+		case INFO -> diag.info(sloc, line, message);
+		case WARNING -> diag.warn(sloc, line, message);
+		case ERROR -> diag.error(sloc, line, message);
+		}
+	}
+
+	/**
+	 * @return the message formatted the way {@link Diagnostics} prints it, but
+	 *         without the offending line
+	 */
+	@Override
+	public String toString() {
+		return (sloc != null ? sloc + ": " : "") + level + " " + message;
+	}
+}
@@ -1,77 +1,84 @@
 package xsynth;
 
-import java.lang.reflect.Field;
 import java.util.List;
 
 import xsynth.Diagnostics.AbortedException;
 
 class Option {
-	final Argument arg;
-	private final Field field;
+	private final int index;
+	final char shortOption;
+	final String[] longOptions;
+	final String help;
+	final String metavar;
+	final boolean required;
+	private final boolean hasArg;
 
-	public Option(final Argument arg, final Field field) {
-		this.arg = arg;
-		this.field = field;
+	/**
+	 * @param index  the option's index in its {@link CommandTable}, which is used
+	 *               to set the field it was declared on
+	 * @param hasArg whether the option takes a value, ie. isn't a boolean flag
+	 */
+	Option(final int index, final char shortOption, final String[] longOptions, final String help,
+			final String metavar, final boolean required, final boolean hasArg) {
+		this.index = index;
+		this.shortOption = shortOption;
+		this.longOptions = longOptions;
+		this.help = help;
+		this.metavar = metavar;
+		this.required = required;
+		this.hasArg = hasArg;
 	}
 
 	boolean hasArg() {
-		return !field.getType().equals(Boolean.TYPE);
+		return hasArg;
 	}
 
 	String getDescription() {
 		final StringBuilder buffer = new StringBuilder();
-		if (arg.shortOption() > 0)
-			buffer.append('-').append(arg.shortOption());
-		for (final String longopt : arg.longOptions()) {
+		if (shortOption > 0)
+			buffer.append('-').append(shortOption);
+		for (final String longopt : longOptions) {
 			if (buffer.length() > 0)
 				buffer.append(',');
 			buffer.append("--").append(longopt);
 		}
 		if (hasArg())
-			buffer.append('=').append(arg.metavar());
+			buffer.append('=').append(metavar);
 		return buffer.toString();
 	}
 
-	Option.ConsumedArgument set(final Command command, final List<String> cmdline, final int cmdPos,
-			final int valueStart) throws AbortedException {
+	Option.ConsumedArgument set(final CommandTable table, final Command command, final List<String> cmdline,
+			final int cmdPos, final int valueStart) throws AbortedException {
 		final String arg = cmdline.get(cmdPos);
-		try {
-			final boolean hasInlineArg = valueStart > 0 && valueStart < arg.length();
-			if (!hasArg()) {
-				if (hasInlineArg && arg.startsWith("--"))
-					throw command.usage("--" + this + ": does not take an argument");
-				field.set(command, true);
-				return ConsumedArgument.NONE;
-			}
-
-			String value;
-			if (!hasInlineArg) {
-				if (cmdPos >= cmdline.size())
-					throw command.usage("--" + this + ": missing argument");
-				value = cmdline.get(cmdPos + 1);
-			} else
-				value = arg.substring(valueStart);
-			field.set(command, value);
-			return hasInlineArg ? ConsumedArgument.INLINE : ConsumedArgument.SEPARATE;
-		} catch (IllegalArgumentException | IllegalAccessException e) {
-			throw new RuntimeException(e);
+		final boolean hasInlineArg = valueStart > 0 && valueStart < arg.length();
+		if (!hasArg()) {
+			if (hasInlineArg && arg.startsWith("--"))
+				throw command.usage("--" + this + ": does not take an argument");
+			table.set(command, index, null);
+			return ConsumedArgument.NONE;
 		}
+
+		String value;
+		if (!hasInlineArg) {
+			if (cmdPos >= cmdline.size())
+				throw command.usage("--" + this + ": missing argument");
+			value = cmdline.get(cmdPos + 1);
+		} else
+			value = arg.substring(valueStart);
+		table.set(command, index, value);
+		return hasInlineArg ? ConsumedArgument.INLINE : ConsumedArgument.SEPARATE;
 	}
 
-	boolean isNull(final Command command) {
-		try {
-			return field.get(command) == null;
-		} catch (IllegalArgumentException | IllegalAccessException e) {
-			throw new RuntimeException(e);
-		}
+	boolean isNull(final CommandTable table, final Command command) {
+		return table.isNull(command, index);
 	}
 
 	@Override
 	public String toString() {
-		return arg.longOptions()[0];
+		return longOptions[0];
 	}
 
 	enum ConsumedArgument {
 		NONE, INLINE, SEPARATE
 	}
-}
\ No newline at end of file
+}
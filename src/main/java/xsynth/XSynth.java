@@ -1,45 +1,78 @@
 package xsynth;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Properties;
 
 import xsynth.Diagnostics.AbortedException;
+import xsynth.convert.BatchCommand;
 import xsynth.convert.ConvertCommand;
+import xsynth.serve.ClientCommand;
+import xsynth.serve.ServeCommand;
 
 public class XSynth {
 	@SuppressWarnings("unchecked")
-	private static Class<? extends Command>[] COMMANDS = new Class[] { ConvertCommand.class };
+	private static Class<? extends Command>[] COMMANDS = new Class[] { ConvertCommand.class, BatchCommand.class,
+			ServeCommand.class, ClientCommand.class };
 	private static String version;
 
 	public static void main(final String... args) {
-		final Diagnostics diag = new Diagnostics();
-		if (args.length == 0) {
+		System.exit(run(new Diagnostics(), Path.of(""), List.of(args)));
+	}
+
+	/**
+	 * Runs a command given as on the command line, ie. starting with the command
+	 * name. Relative file names are resolved against the given directory.
+	 *
+	 * @return the exit status
+	 */
+	public static int run(final Diagnostics diag, final Path directory, final List<String> cmdline) {
+		return run(diag, directory, cmdline, false);
+	}
+
+	/**
+	 * Runs a command like {@link #run(Diagnostics, Path, List)}.
+	 *
+	 * @param waitedFor whether someone waits for the command to finish, so that
+	 *                  commands which would keep running must be refused
+	 */
+	public static int run(final Diagnostics diag, final Path directory, final List<String> cmdline,
+			final boolean waitedFor) {
+		if (cmdline.isEmpty()) {
 			usage(diag);
-			System.exit(1);
+			return 1;
+		}
+
+		final String name = cmdline.get(0);
+		final Class<? extends Command> cmd = findCommand(name);
+		if (cmd == null) {
+			if (name.equals("--version") || name.equals("version")) {
+				diag.info(null, "XSynth version " + getVersion());
+				return 0;
+			}
+			if (!name.equals("--help") && !name.equals("help"))
+				diag.error(null, "invalid commandline syntax");
+			usage(diag);
+			return 1;
 		}
 
 		try {
-			final List<String> cmdline = List.of(args);
-			final Class<? extends Command> cmd = findCommand(diag, args[0]);
-			Command.newInstance(cmd, diag, cmdline).execute();
+			final Command command = Command.newInstance(cmd, diag, cmdline);
+			command.setDirectory(directory);
+			if (waitedFor)
+				command.checkFinishes();
+			command.execute();
+			return command.getStatus();
 		} catch (final AbortedException e) {
-			System.exit(1);
+			return 1;
 		}
 	}
 
-	private static Class<? extends Command> findCommand(final Diagnostics diag, final String name) {
+	private static Class<? extends Command> findCommand(final String name) {
 		for (final Class<? extends Command> cmd : COMMANDS)
 			if (Command.getName(cmd).equals(name))
 				return cmd;
-		if (name.equals("--version") || name.equals("version")) {
-			diag.info(null, "XSynth version " + getVersion());
-			System.exit(0);
-		}
-		if (!name.equals("--help") && !name.equals("help"))
-			diag.error(null, "invalid commandline syntax");
-		usage(diag);
-		System.exit(1);
 		return null;
 	}
 
@@ -0,0 +1,137 @@
+package xsynth.blif;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Finds ripple-carry adders and counters in a model, as they are produced by
+ * lowering +, - and comparisons to gates: a chain of sum (XOR) and carry (AND
+ * or majority) covers sharing the same inputs, where each carry is an input of
+ * the next bit.
+ *
+ * A chain has to start with a half adder (a + b without carry input), which is
+ * what bit 0 of an adder or bit 1 of a counter looks like. Bits without a second
+ * operand (a + carry) are counter bits. The last bit may lack the carry output.
+ */
+public class ArithmeticRecognizer {
+	private static final int XOR2 = 0b0110;
+	private static final int AND2 = 0b1000;
+	private static final int XOR3 = 0b10010110;
+	private static final int MAJ3 = 0b11101000;
+
+	private final List<Bit> bits = new ArrayList<>();
+	private final Map<String, Bit> carries = new HashMap<>();
+
+	public ArithmeticRecognizer(final BlifModel model) {
+		final Map<Set<String>, List<SumOfProducts>> carryGates = new HashMap<>();
+		for (final BlifGate gate : model.getGates())
+			if (gate instanceof final SumOfProducts sop) {
+				final long function = getFunction(sop);
+				if (function == AND2 || function == MAJ3)
+					carryGates.computeIfAbsent(new TreeSet<>(sop.getInputs()), k -> new ArrayList<>()).add(sop);
+			}
+		for (final BlifGate gate : model.getGates())
+			if (gate instanceof final SumOfProducts sop) {
+				final long function = getFunction(sop);
+				if (function != XOR2 && function != XOR3)
+					continue;
+				// the matching carry has the same inputs, and the same number of them
+				final List<SumOfProducts> candidates = carryGates.getOrDefault(new TreeSet<>(sop.getInputs()),
+						List.of());
+				SumOfProducts carry = null;
+				if (!candidates.isEmpty())
+					carry = candidates.remove(0);
+				final Bit bit = new Bit(sop, carry);
+				bits.add(bit);
+				if (carry != null)
+					carries.put(carry.getOutput(), bit);
+			}
+	}
+
+	/**
+	 * @return the truth table of a cover with 2 or 3 inputs, or -1 for anything
+	 *         else
+	 */
+	private static long getFunction(final SumOfProducts sop) {
+		if (sop.getInputs().size() < 2 || sop.getInputs().size() > 3)
+			return -1;
+		return sop.getTruthTable();
+	}
+
+	/**
+	 * @param minBits chains shorter than that aren't reported
+	 * @return all chains in the model, in model order. each gate belongs to at
+	 *         most one chain.
+	 */
+	public List<AdderChain> findChains(final int minBits) {
+		// link each bit to the bit whose carry it consumes. bits consuming more than
+		// one carry are part of something more complex, like a multiplier array.
+		final Map<Bit, String> carryIn = new HashMap<>();
+		final Map<String, Bit> next = new HashMap<>();
+		final Set<Bit> invalid = new HashSet<>();
+		for (final Bit bit : bits) {
+			final List<String> preds = new ArrayList<>();
+			for (final String input : bit.sum.getInputs())
+				if (carries.containsKey(input) && carries.get(input) != bit)
+					preds.add(input);
+			if (preds.size() > 1)
+				invalid.add(bit);
+			else if (preds.size() == 1) {
+				carryIn.put(bit, preds.get(0));
+				next.putIfAbsent(preds.get(0), bit);
+			}
+		}
+
+		final List<AdderChain> chains = new ArrayList<>();
+		for (final Bit start : bits) {
+			if (invalid.contains(start) || carryIn.containsKey(start) || start.carry == null
+					|| start.sum.getInputs().size() != 2)
+				continue;
+			final List<AdderBit> chain = new ArrayList<>();
+			final List<BlifGate> gates = new ArrayList<>();
+			final List<String> operands = start.sum.getInputs();
+			chain.add(new AdderBit(operands.get(0), operands.get(1), null, start.sum.getOutput(),
+					start.carry.getOutput()));
+			gates.add(start.sum);
+			gates.add(start.carry);
+			Bit bit = next.get(start.carry.getOutput());
+			while (bit != null && !invalid.contains(bit)) {
+				final String cin = carryIn.get(bit);
+				final List<String> rest = new ArrayList<>(bit.sum.getInputs());
+				rest.remove(cin);
+				chain.add(new AdderBit(rest.get(0), rest.size() > 1 ? rest.get(1) : null, cin,
+						bit.sum.getOutput(), bit.carry != null ? bit.carry.getOutput() : null));
+				gates.add(bit.sum);
+				if (bit.carry == null)
+					break;
+				gates.add(bit.carry);
+				bit = next.get(bit.carry.getOutput());
+			}
+			if (chain.size() >= minBits)
+				chains.add(new AdderChain(chain, gates));
+		}
+		return chains;
+	}
+
+	private static record Bit(SumOfProducts sum, SumOfProducts carry) {
+	}
+
+	/**
+	 * a single bit: sum = a ^ b ^ carryIn, carryOut = majority(a, b, carryIn).
+	 * {@code b} is null in counters, {@code carryIn} is null for the first bit
+	 * and {@code carryOut} may be null for the last one.
+	 */
+	public static record AdderBit(String a, String b, String carryIn, String sum, String carryOut) {
+	}
+
+	/**
+	 * a chain of bits, least significant first, and the gates it replaces.
+	 */
+	public static record AdderChain(List<AdderBit> bits, List<BlifGate> gates) {
+	}
+}
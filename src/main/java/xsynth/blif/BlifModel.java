@@ -9,6 +9,7 @@ import java.util.Set;
 
 import xsynth.Diagnostics;
 import xsynth.Diagnostics.AbortedException;
+import xsynth.Message;
 import xsynth.SourceLocation;
 
 public class BlifModel {
@@ -21,13 +22,29 @@ public class BlifModel {
 	private Set<String> outputs;
 	private final String name;
 	private final SourceLocation sloc;
+	private final List<Message> declared;
 
 	BlifModel(final String name, final SourceLocation sloc) {
+		this(name, sloc, null);
+	}
+
+	/**
+	 * @param declared for a model that is only declared, the messages to report
+	 *                 when checking it again; else null
+	 */
+	BlifModel(final String name, final SourceLocation sloc, final List<Message> declared) {
 		this.name = name;
 		this.sloc = sloc;
+		this.declared = declared;
 	}
 
 	void inferIO(final Diagnostics diag) throws AbortedException {
+		if (declared != null) {
+			for (final Message msg : declared)
+				msg.replayTo(diag);
+			return;
+		}
+
 		// if unspecified, inputs are the toplevel nets that aren't driven by anything.
 		// because every net does need to have a driver, all inferred inputs must have
 		// been declared as inputs, else they are undriven. if there are inferred inputs
@@ -99,6 +116,48 @@ public class BlifModel {
 		}
 	}
 
+	/**
+	 * replaces a group of gates by gates implementing all of them, which take the
+	 * place of the one that comes first in the model. the new gates must drive all
+	 * outputs of the old ones that are still needed.
+	 */
+	public void replaceGates(final List<? extends BlifGate> old, final List<? extends BlifGate> replacement) {
+		int pos = gates.size();
+		for (final BlifGate gate : old)
+			pos = Math.min(pos, gates.indexOf(gate));
+		for (final BlifGate gate : old) {
+			gates.remove(gate);
+			for (final String out : gate.getOutputs())
+				driver.remove(out);
+			for (final String in : gate.getInputs())
+				consumers.get(in).remove(gate);
+		}
+		for (final BlifGate gate : replacement)
+			addGate(gate);
+		gates.removeAll(replacement);
+		gates.addAll(pos, replacement);
+	}
+
+	public BlifGate getDriver(final String signal) {
+		return driver.get(signal);
+	}
+
+	public List<BlifGate> getConsumers(final String signal) {
+		return consumers.getOrDefault(signal, List.of());
+	}
+
+	/**
+	 * @return a signal name starting with the given one that the model doesn't use
+	 *         yet, for gates that passes add
+	 */
+	public String getUniqueName(final String base) {
+		String name = base;
+		for (int i = 1; driver.containsKey(name) || consumers.containsKey(name) || inputs.contains(name)
+				|| outputs.contains(name); i++)
+			name = base + "_" + i;
+		return name;
+	}
+
 	public List<BlifGate> getGates() {
 		return gates;
 	}
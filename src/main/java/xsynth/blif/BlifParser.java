@@ -11,6 +11,7 @@ import java.util.Set;
 
 import xsynth.Diagnostics;
 import xsynth.Diagnostics.AbortedException;
+import xsynth.Message;
 import xsynth.SourceLocation;
 
 public class BlifParser {
@@ -39,7 +40,23 @@ public class BlifParser {
 	}
 
 	public BlifModel parse(final BlifReader reader) throws IOException, AbortedException {
+		return parse(reader, known -> checkModels(known, diag));
+	}
+
+	/**
+	 * parses a file like {@link #parse(InputStream, String)}, but leaves checking
+	 * the models of earlier files again to the caller. {@code recheck} is called at
+	 * the point where parsing would check them, so messages still come out in the
+	 * same order.
+	 */
+	public BlifModel parse(final InputStream in, final String filename, final Recheck recheck)
+			throws IOException, AbortedException {
+		return parse(new BlifReader(diag, in, filename), recheck);
+	}
+
+	private BlifModel parse(final BlifReader reader, final Recheck recheck) throws IOException, AbortedException {
 		nModels = 0;
+		final List<BlifModel> known = List.copyOf(models.values());
 		try {
 			AbortedException err = null;
 			while (true) {
@@ -54,8 +71,10 @@ public class BlifParser {
 			}
 			if (primaryModel == null && err == null) // don't put that after syntax errors
 				err = diag.error(reader.getCurrentLocation(), "file doesn't contain any models");
+			recheck.run(known);
 			for (final BlifModel model : models.values())
-				model.inferIO(diag);
+				if (!known.contains(model))
+					model.inferIO(diag);
 			if (err != null)
 				throw err;
 			return primaryModel;
@@ -277,7 +296,34 @@ public class BlifParser {
 		return factory.newInstance(diag, sloc, name, flags, outputs, inputs);
 	}
 
+	/**
+	 * checks models again, as parsing another file does for all models read
+	 * before it. this only repeats the informational messages and warnings of the
+	 * first check.
+	 */
+	public void checkModels(final List<BlifModel> models, final Diagnostics diag) throws AbortedException {
+		for (final BlifModel model : models)
+			model.inferIO(diag);
+	}
+
+	/**
+	 * declares a model that has been defined without parsing it, so that defining
+	 * it again is still an error
+	 *
+	 * @param messages what {@link #checkModels(List, Diagnostics)} reports for the
+	 *                 model
+	 */
+	public void declareModel(final String name, final SourceLocation sloc, final List<Message> messages) {
+		models.put(name, new BlifModel(name, sloc, messages));
+	}
+
 	public Map<String, BlifModel> getModels() {
 		return models;
 	}
+
+	/** see {@link BlifParser#parse(InputStream, String, Recheck)} */
+	@FunctionalInterface
+	public interface Recheck {
+		void run(List<BlifModel> known) throws AbortedException;
+	}
 }
@@ -0,0 +1,363 @@
+package xsynth.blif;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Finds state machines in a model and re-encodes them. A state machine is a
+ * group of flipflops whose next-state covers all depend on each other, ie. a
+ * strongly connected component of the flipflops' dependency graph, plus any
+ * number of other signals which are treated as inputs. Its states are the
+ * codes reachable from the initial state for any combination of inputs, where
+ * an unknown or don't-care initial value is zero because that is what the
+ * flipflops are initialized to.
+ *
+ * Re-encoding synthesizes the next-state covers and all covers using the state
+ * bits again, as a sum over the states of the (new) state code and the inputs
+ * relevant in that state. The old state bits are decoded from the new ones for
+ * whatever else still uses them.
+ */
+public class FsmRecognizer {
+	public enum Encoding {
+		/** one flipflop per state */
+		ONE_HOT,
+		/**
+		 * as few flipflops as possible, with codes assigned in breadth-first order so
+		 * that the initial state is zero and successors tend to be adjacent
+		 */
+		GRAY
+	}
+
+	private final BlifModel model;
+
+	public FsmRecognizer(final BlifModel model) {
+		this.model = model;
+	}
+
+	/**
+	 * @param minStates state machines with fewer states aren't reported
+	 * @param maxStates state machines with more states aren't reported
+	 * @param maxBits   maximum number of state bits
+	 * @param maxInputs maximum number of inputs to the next-state logic
+	 * @return all state machines in the model, in model order
+	 */
+	public List<StateMachine> findStateMachines(final int minStates, final int maxStates, final int maxBits,
+			final int maxInputs) {
+		final Map<String, Latch> candidates = new LinkedHashMap<>();
+		for (final BlifGate gate : model.getGates())
+			if (gate instanceof final Latch latch && latch.getClockInput() != null && latch.getEnableInput() == null
+					&& (latch.getType() == LatchType.re || latch.getType() == LatchType.fe)
+					&& model.getDriver(latch.getDataInput()) instanceof SumOfProducts)
+				candidates.put(latch.getDataOutput(), latch);
+
+		final List<StateMachine> fsms = new ArrayList<>();
+		for (final List<Latch> group : getComponents(candidates)) {
+			if (group.size() < 2 || group.size() > maxBits)
+				continue;
+			final Latch first = group.get(0);
+			if (group.stream().anyMatch(latch -> latch.getType() != first.getType()
+					|| !latch.getClockInput().equals(first.getClockInput())))
+				continue;
+			final StateMachine fsm = getStateMachine(group, maxStates, maxInputs);
+			if (fsm != null && fsm.states().size() >= minStates)
+				fsms.add(fsm);
+		}
+		return fsms;
+	}
+
+	private SumOfProducts getNext(final Latch latch) {
+		return (SumOfProducts) model.getDriver(latch.getDataInput());
+	}
+
+	/**
+	 * Tarjan's algorithm, where each flipflop depends on the flipflops used by its
+	 * next-state cover.
+	 */
+	private List<List<Latch>> getComponents(final Map<String, Latch> candidates) {
+		final Map<Latch, Integer> index = new HashMap<>();
+		final Map<Latch, Integer> lowlink = new HashMap<>();
+		final List<Latch> stack = new ArrayList<>();
+		final List<List<Latch>> components = new ArrayList<>();
+		for (final Latch latch : candidates.values())
+			if (!index.containsKey(latch))
+				visit(latch, candidates, index, lowlink, stack, components);
+		// report them in model order
+		final List<Latch> order = new ArrayList<>(candidates.values());
+		for (final List<Latch> component : components)
+			component.sort((a, b) -> order.indexOf(a) - order.indexOf(b));
+		components.sort((a, b) -> order.indexOf(a.get(0)) - order.indexOf(b.get(0)));
+		return components;
+	}
+
+	private void visit(final Latch latch, final Map<String, Latch> candidates, final Map<Latch, Integer> index,
+			final Map<Latch, Integer> lowlink, final List<Latch> stack, final List<List<Latch>> components) {
+		index.put(latch, index.size());
+		lowlink.put(latch, index.get(latch));
+		stack.add(latch);
+		for (final String input : getNext(latch).getInputs()) {
+			final Latch pred = candidates.get(input);
+			if (pred == null)
+				continue;
+			if (!index.containsKey(pred)) {
+				visit(pred, candidates, index, lowlink, stack, components);
+				lowlink.put(latch, Math.min(lowlink.get(latch), lowlink.get(pred)));
+			} else if (stack.contains(pred))
+				lowlink.put(latch, Math.min(lowlink.get(latch), index.get(pred)));
+		}
+		if (lowlink.get(latch).equals(index.get(latch))) {
+			final List<Latch> component = new ArrayList<>();
+			Latch member;
+			do {
+				member = stack.remove(stack.size() - 1);
+				component.add(member);
+			} while (member != latch);
+			components.add(component);
+		}
+	}
+
+	private StateMachine getStateMachine(final List<Latch> group, final int maxStates, final int maxInputs) {
+		final List<String> bits = group.stream().map(Latch::getDataOutput).toList();
+		final Set<String> inputs = new LinkedHashSet<>();
+		for (final Latch latch : group)
+			inputs.addAll(getNext(latch).getInputs());
+		inputs.removeAll(bits);
+		if (inputs.size() > maxInputs)
+			return null;
+		final List<String> variables = new ArrayList<>(bits);
+		variables.addAll(inputs);
+
+		int initial = 0;
+		for (int i = 0; i < group.size(); i++)
+			if (group.get(i).getInitialValue() == LatchInitialValue.PRESET)
+				initial |= 1 << i;
+		final List<Integer> states = new ArrayList<>();
+		final Queue<Integer> queue = new ArrayDeque<>();
+		states.add(initial);
+		queue.add(initial);
+		while (!queue.isEmpty()) {
+			final int state = queue.remove();
+			for (int in = 0; in < 1 << inputs.size(); in++) {
+				int next = 0;
+				for (int i = 0; i < group.size(); i++)
+					if (getNext(group.get(i)).evaluate(variables, state | in << bits.size()))
+						next |= 1 << i;
+				if (!states.contains(next)) {
+					if (states.size() >= maxStates)
+						return null;
+					states.add(next);
+					queue.add(next);
+				}
+			}
+		}
+		return new StateMachine(group, states, new ArrayList<>(inputs));
+	}
+
+	/**
+	 * re-encodes a state machine. every cover using the state bits is
+	 * re-synthesized, unless it has too many other inputs.
+	 *
+	 * @param maxInputs maximum number of inputs, other than state bits, for
+	 *                  re-synthesizing a cover
+	 * @return the replacement, to be passed to
+	 *         {@link BlifModel#replaceGates(List, List)}
+	 */
+	public Reencoding reencode(final StateMachine fsm, final Encoding encoding, final int maxInputs) {
+		final List<String> oldBits = fsm.state().stream().map(Latch::getDataOutput).toList();
+		final int numStates = fsm.states().size();
+		final int width = encoding == Encoding.ONE_HOT ? numStates
+				: 32 - Integer.numberOfLeadingZeros(numStates - 1);
+		final String suffix = encoding == Encoding.ONE_HOT ? "_onehot" : "_gray";
+		final List<String> newBits = new ArrayList<>();
+		for (int i = 0; i < width; i++)
+			newBits.add(model.getUniqueName(oldBits.get(0) + suffix + i));
+		final Encoder encoder = new Encoder(fsm, encoding, newBits);
+
+		final Set<BlifGate> removed = new LinkedHashSet<>(fsm.state());
+		final List<BlifGate> added = new ArrayList<>();
+		// next-state logic, always computed from the old next-state covers
+		final Latch first = fsm.state().get(0);
+		for (int bit = 0; bit < width; bit++) {
+			final int b = bit;
+			final String next = model.getUniqueName(newBits.get(bit) + "_next");
+			added.add(encoder.synthesize(next, fsm.inputs(), (state, in) -> {
+				int code = 0;
+				for (int i = 0; i < oldBits.size(); i++)
+					if (getNext(fsm.state().get(i)).evaluate(encoder.variables(fsm.inputs()),
+							fsm.states().get(state) | in << oldBits.size()))
+						code |= 1 << i;
+				return (encoder.getCode(fsm.states().indexOf(code)) >> b & 1) != 0;
+			}));
+			final boolean set = (encoder.getCode(0) >> bit & 1) != 0;
+			added.add(new Latch(newBits.get(bit), next, first.getType(), first.getClockInput(),
+					set ? LatchInitialValue.PRESET : LatchInitialValue.RESET));
+		}
+		for (final Latch latch : fsm.state()) {
+			final SumOfProducts next = getNext(latch);
+			if (model.getConsumers(next.getOutput()).size() == 1 && !model.getOutputs().contains(next.getOutput()))
+				removed.add(next);
+		}
+
+		// everything else that uses the state bits
+		final Set<BlifGate> consumers = new LinkedHashSet<>();
+		for (final String bit : oldBits)
+			consumers.addAll(model.getConsumers(bit));
+		consumers.removeAll(removed);
+		for (final BlifGate gate : consumers) {
+			if (!(gate instanceof final SumOfProducts sop))
+				continue;
+			final List<String> others = new ArrayList<>(new LinkedHashSet<>(sop.getInputs()));
+			others.removeAll(oldBits);
+			if (others.size() > maxInputs)
+				continue;
+			added.add(encoder.synthesize(sop.getOutput(), others, (state, in) -> {
+				final List<String> variables = new ArrayList<>(oldBits);
+				variables.addAll(others);
+				return sop.evaluate(variables, fsm.states().get(state) | in << oldBits.size());
+			}));
+			removed.add(sop);
+		}
+
+		// decode the old state bits for anything that still needs them
+		for (int i = 0; i < oldBits.size(); i++) {
+			final String bit = oldBits.get(i);
+			boolean used = model.getOutputs().contains(bit);
+			for (final BlifGate consumer : model.getConsumers(bit))
+				used |= !removed.contains(consumer);
+			if (!used)
+				continue;
+			final int b = i;
+			added.add(encoder.synthesize(bit, List.of(), (state, in) -> (fsm.states().get(state) >> b & 1) != 0));
+		}
+		return new Reencoding(new ArrayList<>(removed), added, newBits);
+	}
+
+	@FunctionalInterface
+	private interface StateFunction {
+		/**
+		 * @param state index of the state
+		 * @param in    values of the inputs, input i as bit i
+		 */
+		boolean evaluate(int state, int in);
+	}
+
+	private static class Encoder {
+		private final Encoding encoding;
+		private final List<String> bits;
+		private final int numStates;
+		private final StateMachine fsm;
+
+		private Encoder(final StateMachine fsm, final Encoding encoding, final List<String> bits) {
+			this.fsm = fsm;
+			this.encoding = encoding;
+			this.bits = bits;
+			numStates = fsm.states().size();
+		}
+
+		private List<String> variables(final List<String> inputs) {
+			final List<String> variables = new ArrayList<>(fsm.state().stream().map(Latch::getDataOutput).toList());
+			variables.addAll(inputs);
+			return variables;
+		}
+
+		private int getCode(final int state) {
+			return encoding == Encoding.ONE_HOT ? 1 << state : state ^ state >> 1;
+		}
+
+		/**
+		 * builds a cover over the new state bits and the given inputs: a product of
+		 * the state code and the relevant inputs for each state and input combination
+		 * where the function is true. in each state, inputs which don't matter in that
+		 * state are left out.
+		 */
+		private SumOfProducts synthesize(final String output, final List<String> inputs, final StateFunction f) {
+			final List<String> names = new ArrayList<>(bits);
+			names.addAll(inputs);
+			final SumOfProducts sop = new SumOfProducts(output, names);
+			for (int state = 0; state < numStates; state++) {
+				final List<Integer> relevant = new ArrayList<>();
+				for (int i = 0; i < inputs.size(); i++)
+					for (int in = 0; in < 1 << inputs.size(); in++)
+						if (f.evaluate(state, in) != f.evaluate(state, in ^ 1 << i)) {
+							relevant.add(i);
+							break;
+						}
+				for (final int[] cube : getPrimes(state, relevant, f)) {
+					final char[] row = new char[names.size()];
+					Arrays.fill(row, '-');
+					final int code = getCode(state);
+					for (int b = 0; b < bits.size(); b++)
+						// a one-hot state is identified by its own bit alone
+						if (encoding == Encoding.GRAY)
+							row[b] = (code >> b & 1) != 0 ? '1' : '0';
+						else if ((code >> b & 1) != 0)
+							row[b] = '1';
+					for (int j = 0; j < relevant.size(); j++)
+						if ((cube[1] >> j & 1) != 0)
+							row[bits.size() + relevant.get(j)] = (cube[0] >> j & 1) != 0 ? '1' : '0';
+					sop.addProductTerm('1', row);
+				}
+			}
+			return sop;
+		}
+
+		/**
+		 * @return the prime implicants of the function in one state, over the relevant
+		 *         inputs, as {value, care} pairs with relevant input j as bit j. they
+		 *         are found by merging minterms in the Quine-McCluskey way, without
+		 *         then picking a minimum cover.
+		 */
+		private static List<int[]> getPrimes(final int state, final List<Integer> relevant, final StateFunction f) {
+			final int all = (1 << relevant.size()) - 1;
+			Set<List<Integer>> cubes = new LinkedHashSet<>();
+			for (int m = 0; m <= all; m++) {
+				int in = 0;
+				for (int j = 0; j < relevant.size(); j++)
+					if ((m >> j & 1) != 0)
+						in |= 1 << relevant.get(j);
+				if (f.evaluate(state, in))
+					cubes.add(List.of(m, all));
+			}
+			final List<int[]> primes = new ArrayList<>();
+			while (!cubes.isEmpty()) {
+				final Set<List<Integer>> merged = new LinkedHashSet<>();
+				final Set<List<Integer>> used = new HashSet<>();
+				for (final List<Integer> a : cubes)
+					for (final List<Integer> b : cubes) {
+						final int diff = a.get(0) ^ b.get(0);
+						if (a.get(1).equals(b.get(1)) && Integer.bitCount(diff) == 1 && a.get(0) < b.get(0)) {
+							merged.add(List.of(a.get(0) & ~diff, a.get(1) & ~diff));
+							used.add(a);
+							used.add(b);
+						}
+					}
+				for (final List<Integer> cube : cubes)
+					if (!used.contains(cube))
+						primes.add(new int[] { cube.get(0), cube.get(1) });
+				cubes = merged;
+			}
+			return primes;
+		}
+	}
+
+	/**
+	 * a state machine: its state bits, the codes of its reachable states in
+	 * breadth-first order starting with the initial state, and its inputs
+	 */
+	public static record StateMachine(List<Latch> state, List<Integer> states, List<String> inputs) {
+	}
+
+	/**
+	 * the gates to remove and the gates replacing them, and the new state bits
+	 */
+	public static record Reencoding(List<BlifGate> removed, List<BlifGate> added, List<String> bits) {
+	}
+}
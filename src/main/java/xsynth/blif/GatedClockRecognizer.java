@@ -0,0 +1,170 @@
+package xsynth.blif;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import xsynth.blif.SumOfProducts.Product;
+import xsynth.blif.SumOfProducts.ProductTerm;
+
+/**
+ * Finds flipflops clocked by logic instead of a clock, as they are produced for
+ * {@code always @(posedge (clk & en))}: the clock net is driven by a single
+ * product of a clock and one or more enables. A clock is something which is
+ * declared as one, buffered, used to clock other flipflops directly, or driven
+ * by a special gate like an oscillator.
+ *
+ * Converting such a flipflop clocks it by the clock itself, and moves the
+ * enables to a clock enable, or to a multiplexer in front of its data input that
+ * feeds its output back while it isn't enabled.
+ */
+public class GatedClockRecognizer {
+	private final BlifModel model;
+
+	public GatedClockRecognizer(final BlifModel model) {
+		this.model = model;
+	}
+
+	/**
+	 * @return all nets driven by logic combining a clock with something else which
+	 *         clock flipflops, in model order, whether they can be converted or
+	 *         not. clocks that are merely buffered or inverted, like ripple clocks
+	 *         or the outputs of clock dividers, aren't gated clocks.
+	 */
+	public List<GatedClock> findGatedClocks() {
+		final Map<String, List<Latch>> nets = new LinkedHashMap<>();
+		for (final BlifGate gate : model.getGates())
+			if (gate instanceof final Latch latch && latch.getClockInput() != null
+					&& (latch.getType() == LatchType.re || latch.getType() == LatchType.fe)
+					&& latch.getEnableInput() == null
+					&& model.getDriver(latch.getClockInput()) instanceof SumOfProducts)
+				nets.computeIfAbsent(latch.getClockInput(), k -> new ArrayList<>()).add(latch);
+
+		final List<GatedClock> clocks = new ArrayList<>();
+		for (final Map.Entry<String, List<Latch>> e : nets.entrySet()) {
+			final SumOfProducts sop = (SumOfProducts) model.getDriver(e.getKey());
+			if (isDeclaredClock(e.getKey()) || sop.getInputs().size() < 2
+					|| sop.getInputs().stream().noneMatch(this::isClock))
+				continue;
+			clocks.add(new GatedClock(e.getKey(), sop, e.getValue(), getClockTerm(sop)));
+		}
+		return clocks;
+	}
+
+	/**
+	 * @return the one literal of a single-product cover which is a clock, or null
+	 *         if the cover doesn't look like a gated clock
+	 */
+	private ProductTerm getClockTerm(final SumOfProducts sop) {
+		if (sop.getTerms().size() != 1 || sop.getTerms().get(0).isInvertOutput())
+			return null;
+		final Product product = sop.getTerms().get(0);
+		if (product.getTerms().size() < 2)
+			return null;
+		ProductTerm clock = null;
+		for (final ProductTerm term : product.getTerms())
+			if (isClock(term.getInput())) {
+				if (clock != null)
+					return null;
+				clock = term;
+			}
+		return clock;
+	}
+
+	private boolean isDeclaredClock(final String signal) {
+		return model.getClocks().contains(signal) || model.getBuffer(signal) != null;
+	}
+
+	private boolean isClock(final String signal) {
+		if (isDeclaredClock(signal))
+			return true;
+		final BlifGate driver = model.getDriver(signal);
+		if (driver != null && !(driver instanceof SumOfProducts) && !(driver instanceof Latch))
+			return true;
+		for (final BlifGate consumer : model.getConsumers(signal))
+			if (consumer instanceof final Latch latch && signal.equals(latch.getClockInput()))
+				return true;
+		return false;
+	}
+
+	/**
+	 * converts a gated clock, which must be convertible.
+	 *
+	 * @param hasClockEnable whether the flipflops can use a clock enable. if not,
+	 *                       the enable is implemented by a feedback multiplexer.
+	 * @return the gates to remove and the gates replacing them, to be passed to
+	 *         {@link BlifModel#replaceGates(List, List)}
+	 */
+	public Conversion convert(final GatedClock gated, final boolean hasClockEnable) {
+		final ProductTerm clock = gated.clock();
+		final List<ProductTerm> enables = new ArrayList<>(gated.gate().getTerms().get(0).getTerms());
+		enables.remove(clock);
+		// an inverted clock inverts the active edge
+		final LatchType type = clock.isInvertInput() ? LatchType.fe : LatchType.re;
+
+		final List<BlifGate> removed = new ArrayList<>();
+		final List<BlifGate> added = new ArrayList<>();
+		final String enable;
+		final boolean invertEnable;
+		if (enables.size() == 1) {
+			enable = enables.get(0).getInput();
+			invertEnable = enables.get(0).isInvertInput();
+		} else {
+			// several enables have to be combined into one
+			enable = model.getUniqueName(gated.net() + "_en");
+			invertEnable = false;
+			added.add(getProduct(enable, enables));
+		}
+		for (final Latch latch : gated.latches()) {
+			removed.add(latch);
+			final LatchType latchType = latch.getType() == LatchType.re ? type
+					: type == LatchType.re ? LatchType.fe : LatchType.re;
+			if (hasClockEnable) {
+				added.add(new Latch(latch.getDataOutput(), latch.getDataInput(), latchType, clock.getInput(), enable,
+						invertEnable, latch.getInitialValue()));
+				continue;
+			}
+			// q' = en ? d : q
+			final String mux = model.getUniqueName(latch.getDataOutput() + "_ce");
+			final SumOfProducts sop = new SumOfProducts(mux,
+					List.of(enable, latch.getDataInput(), latch.getDataOutput()));
+			final char active = invertEnable ? '0' : '1', inactive = invertEnable ? '1' : '0';
+			sop.addProductTerm('1', active, '1', '-');
+			sop.addProductTerm('1', inactive, '-', '1');
+			added.add(sop);
+			added.add(new Latch(latch.getDataOutput(), mux, latchType, clock.getInput(), latch.getInitialValue()));
+		}
+		// the gated clock can go if nothing else uses it
+		if (model.getConsumers(gated.net()).size() == gated.latches().size()
+				&& !model.getOutputs().contains(gated.net()))
+			removed.add(gated.gate());
+		return new Conversion(removed, added);
+	}
+
+	private static SumOfProducts getProduct(final String output, final List<ProductTerm> terms) {
+		final SumOfProducts sop = new SumOfProducts(output, terms.stream().map(ProductTerm::getInput).toList());
+		final char[] row = new char[terms.size()];
+		for (int i = 0; i < terms.size(); i++)
+			row[i] = terms.get(i).isInvertInput() ? '0' : '1';
+		sop.addProductTerm('1', row);
+		return sop;
+	}
+
+	/**
+	 * a net driven by logic which clocks flipflops, the gate driving it, and the
+	 * flipflops it clocks. {@code clock} is the literal of the gate which is the
+	 * actual clock, or null if the net cannot be converted.
+	 */
+	public static record GatedClock(String net, SumOfProducts gate, List<Latch> latches, ProductTerm clock) {
+		public boolean isConvertible() {
+			return clock != null;
+		}
+	}
+
+	/**
+	 * the gates to remove and the gates replacing them
+	 */
+	public static record Conversion(List<BlifGate> removed, List<BlifGate> added) {
+	}
+}
@@ -13,15 +13,28 @@ public class Latch implements BlifGate {
 	private final String inputName;
 	private final LatchType type;
 	private final String clockName;
+	private final String enableName;
+	private final boolean invertEnable;
 	private final LatchInitialValue initialValue;
 	private final String outputName;
 
 	public Latch(final String outputName, final String inputName, final LatchType type, final String clockName,
 			final LatchInitialValue initialValue) {
+		this(outputName, inputName, type, clockName, null, false, initialValue);
+	}
+
+	/**
+	 * a flipflop which only stores its input on clock edges where its clock enable
+	 * is active. BLIF cannot express that, but the chips can.
+	 */
+	public Latch(final String outputName, final String inputName, final LatchType type, final String clockName,
+			final String enableName, final boolean invertEnable, final LatchInitialValue initialValue) {
 		this.outputName = outputName;
 		this.inputName = inputName;
 		this.type = type;
 		this.clockName = clockName;
+		this.enableName = enableName;
+		this.invertEnable = invertEnable;
 		this.initialValue = initialValue;
 	}
 
@@ -42,6 +55,8 @@ public class Latch implements BlifGate {
 		else
 			this.type = LatchType.re;
 		this.clockName = clockName;
+		enableName = null;
+		invertEnable = false;
 
 		if (initialValue != null)
 			try {
@@ -62,6 +77,8 @@ public class Latch implements BlifGate {
 	public List<String> getInputs() {
 		if (clockName == null)
 			return List.of(inputName);
+		if (enableName != null)
+			return List.of(inputName, clockName, enableName);
 		return List.of(inputName, clockName);
 	}
 
@@ -77,6 +94,17 @@ public class Latch implements BlifGate {
 		return clockName;
 	}
 
+	/**
+	 * @return the clock enable, or null if the flipflop is always enabled
+	 */
+	public String getEnableInput() {
+		return enableName;
+	}
+
+	public boolean isInvertEnable() {
+		return invertEnable;
+	}
+
 	public LatchType getType() {
 		return type;
 	}
@@ -87,6 +115,7 @@ public class Latch implements BlifGate {
 
 	@Override
 	public String toString() {
-		return "Latch[" + inputName + ", " + outputName + ", " + type + ", " + clockName + ", " + initialValue + "]";
+		return "Latch[" + inputName + ", " + outputName + ", " + type + ", " + clockName
+				+ (enableName != null ? ", " + (invertEnable ? "!" : "") + enableName : "") + ", " + initialValue + "]";
 	}
 }
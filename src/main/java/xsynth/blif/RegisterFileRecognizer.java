@@ -0,0 +1,293 @@
+package xsynth.blif;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import xsynth.blif.SumOfProducts.Product;
+import xsynth.blif.SumOfProducts.ProductTerm;
+
+/**
+ * Finds register files in a model, as they are produced by lowering an array
+ * that is written synchronously and read through a multiplexer: an array of
+ * flipflops where every word holds its value unless its row of a fully decoded
+ * write address decoder is active, and where each bit column is read through a
+ * fully decoded multiplexer.
+ *
+ * Each storage bit has to look like {@code q' = en ? d : q}, where the enable
+ * {@code en} is a single product of all write address bits and a write enable.
+ * All words share the same data inputs, clock and write enable. The read
+ * multiplexers are the ones produced for {@code case} statements: one product
+ * per word, each with all read address bits and the word's output. If the read
+ * address is the write address, the register file is single-ported.
+ */
+public class RegisterFileRecognizer {
+	private final BlifModel model;
+
+	public RegisterFileRecognizer(final BlifModel model) {
+		this.model = model;
+	}
+
+	/**
+	 * @param minWords    register files with fewer words aren't reported
+	 * @param maxAddress  maximum number of address bits for single-ported register
+	 *                    files
+	 * @param maxDualPort maximum number of address bits for dual-ported ones
+	 * @return all register files in the model, in model order. each gate belongs to
+	 *         at most one register file.
+	 */
+	public List<RegisterFile> findRegisterFiles(final int minWords, final int maxAddress, final int maxDualPort) {
+		// group the storage bits by everything their words have to share
+		final Map<String, Map<String, Word>> groups = new LinkedHashMap<>();
+		for (final BlifGate gate : model.getGates()) {
+			if (!(gate instanceof final Latch latch) || latch.getType() != LatchType.re
+					|| latch.getEnableInput() != null || latch.getInitialValue() == LatchInitialValue.PRESET)
+				continue;
+			final Bit bit = getBit(latch);
+			if (bit == null)
+				continue;
+			final SumOfProducts enable = (SumOfProducts) model.getDriver(bit.enable);
+			final String key = latch.getClockInput() + " " + new TreeSet<>(enable.getInputs());
+			groups.computeIfAbsent(key, k -> new LinkedHashMap<>())
+					.computeIfAbsent(bit.enable, k -> new Word(enable, new ArrayList<>())).bits.add(bit);
+		}
+
+		final List<RegisterFile> files = new ArrayList<>();
+		for (final Map<String, Word> words : groups.values()) {
+			final RegisterFile file = getRegisterFile(new ArrayList<>(words.values()), maxAddress, maxDualPort);
+			if (file != null && file.outputs().size() > 0 && 1 << file.writeAddress().size() >= minWords)
+				files.add(file);
+		}
+		return files;
+	}
+
+	/**
+	 * @return the storage bit, if the latch holds its value unless enabled. its
+	 *         input must be {@code en ? d : q}, and not be used anywhere else.
+	 */
+	private Bit getBit(final Latch latch) {
+		if (!(model.getDriver(latch.getDataInput()) instanceof final SumOfProducts next)
+				|| model.getConsumers(next.getOutput()).size() != 1 || next.getInputs().size() != 3)
+			return null;
+		final List<String> in = next.getInputs();
+		final int q = in.indexOf(latch.getDataOutput());
+		final long table = next.getTruthTable();
+		if (q < 0 || table < 0)
+			return null;
+		for (int e = 0; e < 3; e++) {
+			final int d = 3 - q - e;
+			if (e == q || getMuxTable(e, d, q) != table)
+				continue;
+			if (model.getDriver(in.get(e)) instanceof final SumOfProducts enable && enable.getTerms().size() == 1
+					&& !enable.getTerms().get(0).isInvertOutput())
+				return new Bit(latch, next, in.get(e), in.get(d));
+		}
+		return null;
+	}
+
+	private static long getMuxTable(final int e, final int d, final int q) {
+		long table = 0;
+		for (int row = 0; row < 8; row++)
+			if ((row >> e & 1) == 1 ? (row >> d & 1) == 1 : (row >> q & 1) == 1)
+				table |= 1L << row;
+		return table;
+	}
+
+	private RegisterFile getRegisterFile(final List<Word> words, final int maxAddress, final int maxDualPort) {
+		// address bits appear with both polarities. the remaining input is the write
+		// enable, which is always active-high.
+		final Product first = words.get(0).enable.getTerms().get(0);
+		final Set<String> inverted = new HashSet<>();
+		for (final Word word : words)
+			for (final ProductTerm term : word.enable.getTerms().get(0).getTerms())
+				if (term.isInvertInput())
+					inverted.add(term.getInput());
+		final List<String> address = new ArrayList<>();
+		String writeEnable = null;
+		for (final ProductTerm term : first.getTerms())
+			if (inverted.contains(term.getInput()))
+				address.add(term.getInput());
+			else if (writeEnable == null)
+				writeEnable = term.getInput();
+			else
+				return null;
+		if (writeEnable == null || address.isEmpty() || address.size() > maxAddress
+				|| words.size() != 1 << address.size())
+			return null;
+
+		// each word must be selected by a different address
+		final Set<Integer> seen = new HashSet<>();
+		for (final Word word : words) {
+			word.address = getPattern(word.enable.getTerms().get(0), address);
+			if (word.address < 0 || !seen.add(word.address))
+				return null;
+		}
+		// and all words must store the same data
+		final List<String> data = new ArrayList<>();
+		for (final Bit bit : words.get(0).bits)
+			if (!data.contains(bit.data))
+				data.add(bit.data);
+		for (final Word word : words) {
+			final List<String> wordData = new ArrayList<>();
+			for (final Bit bit : word.bits)
+				wordData.add(bit.data);
+			if (wordData.size() != data.size() || !wordData.containsAll(data))
+				return null;
+		}
+
+		// then find the read multiplexer for each bit column
+		final Set<BlifGate> gates = new LinkedHashSet<>();
+		final List<String> outputs = new ArrayList<>();
+		List<String> readAddress = null;
+		for (final String column : data) {
+			final Map<String, Integer> addressOf = new HashMap<>();
+			final Set<BlifGate> columnGates = new LinkedHashSet<>();
+			for (final Word word : words)
+				for (final Bit bit : word.bits)
+					if (bit.data.equals(column)) {
+						addressOf.put(bit.latch.getDataOutput(), word.address);
+						columnGates.add(bit.latch);
+						columnGates.add(bit.next);
+					}
+			final SumOfProducts mux = getReadMux(addressOf, columnGates);
+			if (mux == null)
+				return null;
+			final List<String> read = getReadAddress(mux, addressOf, address);
+			if (read == null || readAddress != null && !read.equals(readAddress))
+				return null;
+			readAddress = read;
+			columnGates.add(mux);
+			gates.addAll(columnGates);
+			outputs.add(mux.getOutput());
+		}
+		if (!readAddress.equals(address) && address.size() > maxDualPort)
+			return null;
+
+		// the decoder can go if it isn't used for anything else
+		for (final Word word : words)
+			if (gates.containsAll(model.getConsumers(word.enable.getOutput())))
+				gates.add(word.enable);
+		return new RegisterFile(words.get(0).bits.get(0).latch.getClockInput(), writeEnable, address, readAddress,
+				data, outputs, new ArrayList<>(gates));
+	}
+
+	/**
+	 * @return the address which selects a product term, with address bit i as bit
+	 *         i, or -1 if it doesn't contain exactly the address bits
+	 */
+	private static int getPattern(final Product product, final List<String> address) {
+		int pattern = 0, found = 0;
+		for (final ProductTerm term : product.getTerms()) {
+			final int i = address.indexOf(term.getInput());
+			if (i < 0)
+				continue;
+			found++;
+			if (!term.isInvertInput())
+				pattern |= 1 << i;
+		}
+		return found == address.size() ? pattern : -1;
+	}
+
+	/**
+	 * @return the multiplexer reading a bit column, ie. the one gate other than the
+	 *         storage logic which uses all bits of the column, and nothing else uses
+	 *         them
+	 */
+	private SumOfProducts getReadMux(final Map<String, Integer> column, final Set<BlifGate> storage) {
+		SumOfProducts mux = null;
+		for (final String q : column.keySet()) {
+			if (model.getOutputs().contains(q))
+				return null;
+			for (final BlifGate consumer : model.getConsumers(q))
+				if (!storage.contains(consumer)) {
+					if (!(consumer instanceof final SumOfProducts sop) || mux != null && mux != sop)
+						return null;
+					mux = sop;
+				}
+		}
+		if (mux == null || mux.getTerms().size() != column.size())
+			return null;
+		return mux;
+	}
+
+	/**
+	 * @return the read address signals, ordered so that read address bit i selects
+	 *         the same words as write address bit i, or null if the multiplexer
+	 *         isn't a fully decoded read of the column
+	 */
+	private static List<String> getReadAddress(final SumOfProducts mux, final Map<String, Integer> column,
+			final List<String> address) {
+		final List<String> selects = new ArrayList<>(mux.getInputs());
+		selects.removeAll(column.keySet());
+		if (selects.size() != address.size())
+			return null;
+
+		// the read pattern of each word, in terms of the select signals
+		final Map<Integer, Integer> readPattern = new HashMap<>();
+		for (final Product product : mux.getTerms()) {
+			if (product.isInvertOutput() || product.getTerms().size() != selects.size() + 1)
+				return null;
+			String word = null;
+			for (final ProductTerm term : product.getTerms())
+				if (column.containsKey(term.getInput())) {
+					if (word != null || term.isInvertInput())
+						return null;
+					word = term.getInput();
+				}
+			final int pattern = getPattern(product, selects);
+			if (word == null || pattern < 0 || readPattern.put(column.get(word), pattern) != null)
+				return null;
+		}
+
+		// match each write address bit with the select that has the same value for
+		// every word
+		final List<String> read = new ArrayList<>();
+		for (int bit = 0; bit < address.size(); bit++) {
+			String match = null;
+			for (int sel = 0; sel < selects.size() && match == null; sel++) {
+				boolean same = true;
+				for (final Map.Entry<Integer, Integer> e : readPattern.entrySet())
+					same &= (e.getKey() >> bit & 1) == (e.getValue() >> sel & 1);
+				if (same)
+					match = selects.get(sel);
+			}
+			if (match == null)
+				return null;
+			read.add(match);
+		}
+		return read;
+	}
+
+	private static record Bit(Latch latch, SumOfProducts next, String enable, String data) {
+	}
+
+	private static class Word {
+		private final SumOfProducts enable;
+		private final List<Bit> bits;
+		private int address;
+
+		private Word(final SumOfProducts enable, final List<Bit> bits) {
+			this.enable = enable;
+			this.bits = bits;
+		}
+	}
+
+	/**
+	 * a register file with {@code 1 << writeAddress.size()} words of
+	 * {@code data.size()} bits each, and the gates it replaces. write address bit
+	 * i and read address bit i select the same words; both lists are identical for
+	 * single-ported register files.
+	 */
+	public static record RegisterFile(String clock, String writeEnable, List<String> writeAddress,
+			List<String> readAddress, List<String> data, List<String> outputs, List<BlifGate> gates) {
+		public boolean isDualPort() {
+			return !readAddress.equals(writeAddress);
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package xsynth.blif;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import xsynth.blif.SumOfProducts.Product;
+import xsynth.blif.SumOfProducts.ProductTerm;
+
+/**
+ * Finds synchronous resets in a model, ie. inputs which force the data input of
+ * a flipflop to a constant, as they are produced by folding {@code if (reset)}
+ * into the data logic: either every product contains the inactive reset
+ * ({@code d = !reset & f}, resetting to zero) or one product is just the active
+ * reset ({@code d = reset | f}, setting to one).
+ */
+public class ResetRecognizer {
+	private final BlifModel model;
+
+	public ResetRecognizer(final BlifModel model) {
+		this.model = model;
+	}
+
+	/**
+	 * @return every reset term found, with the flipflops it resets, in model order.
+	 *         a flipflop may appear under several terms.
+	 */
+	public Map<ResetTerm, List<ResetRegister>> findResets() {
+		final Map<ResetTerm, List<ResetRegister>> resets = new LinkedHashMap<>();
+		for (final BlifGate gate : model.getGates()) {
+			if (!(gate instanceof final Latch latch) || latch.getClockInput() == null || latch.getEnableInput() != null
+					|| latch.getType() != LatchType.re && latch.getType() != LatchType.fe)
+				continue;
+			// the data logic must belong to the flipflop alone, or it cannot be changed
+			if (!(model.getDriver(latch.getDataInput()) instanceof final SumOfProducts next)
+					|| model.getConsumers(next.getOutput()).size() != 1 || model.getOutputs().contains(next.getOutput())
+					|| next.getTerms().stream().anyMatch(Product::isInvertOutput))
+				continue;
+			for (final String input : next.getInputs())
+				if (!input.equals(latch.getDataOutput()))
+					for (final boolean activeHigh : new boolean[] { true, false }) {
+						final Boolean value = getResetValue(next, input, activeHigh);
+						if (value != null)
+							resets.computeIfAbsent(new ResetTerm(input, activeHigh), k -> new ArrayList<>())
+									.add(new ResetRegister(latch, next, value));
+					}
+		}
+		return resets;
+	}
+
+	/**
+	 * @return the value of the cover while the reset is active, or null if that
+	 *         isn't obviously constant
+	 */
+	private static Boolean getResetValue(final SumOfProducts cover, final String reset, final boolean activeHigh) {
+		boolean allInactive = true;
+		for (final Product product : cover.getTerms()) {
+			boolean inactive = false;
+			for (final ProductTerm term : product.getTerms())
+				if (term.getInput().equals(reset))
+					inactive |= term.isInvertInput() == activeHigh;
+			if (!inactive && product.getTerms().size() == 1 && product.getTerms().get(0).getInput().equals(reset))
+				return true;
+			allInactive &= inactive;
+		}
+		return allInactive && !cover.getTerms().isEmpty() ? false : null;
+	}
+
+	/**
+	 * a reset input and its polarity
+	 */
+	public static record ResetTerm(String signal, boolean activeHigh) {
+	}
+
+	/**
+	 * a flipflop, its data logic, and the value it is reset to
+	 */
+	public static record ResetRegister(Latch latch, SumOfProducts next, boolean value) {
+	}
+}
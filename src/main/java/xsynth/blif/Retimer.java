@@ -0,0 +1,544 @@
+package xsynth.blif;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Moves flipflops across logic to minimize the clock period, following
+ * Leiserson and Saxe: the covers are the vertices of a graph whose edges carry
+ * the number of flipflops between them, and a retiming assigns each cover the
+ * number of flipflops moved from its output to its inputs. The minimum period is
+ * found by binary search using their FEAS algorithm.
+ *
+ * Only the flipflops of the most common clock are moved, and only if they have
+ * no clock enable. Everything else, ie. inputs, outputs, other flipflops and
+ * special gates, is the "host" whose flipflops stay in place, so the latency of
+ * every path through the model stays the same.
+ *
+ * Initial values have to stay the same as well: a flipflop moved forward
+ * across logic is initialized to the logic's function of the initial values it
+ * replaces, and a flipflop moved backward can only be created where nothing
+ * depends on its initial value. If neither works, the model is left alone.
+ */
+public class Retimer {
+	public enum DelayModel {
+		/** every cover is one level of logic */
+		UNIT,
+		/** every cover takes as many levels of function generators as it needs */
+		FAMILY
+	}
+
+	/** the host: everything that isn't a cover */
+	private static final int HOST = 0;
+	private static final int ZERO = 0, ONE = 1;
+	/** unknown, but not observable either, so any value will do */
+	private static final int FREE = 2;
+	/** depends on inputs, so no initial value preserves the behavior */
+	private static final int INPUT = 3;
+	/** cannot be determined at all */
+	private static final int CONFLICT = 4;
+	/** unknown inputs beyond which evaluating a cover isn't worth it */
+	private static final int MAX_UNKNOWN = 10;
+
+	private final BlifModel model;
+	private final int lutInputs;
+	private final Set<Latch> movable = new LinkedHashSet<>();
+	private final Map<String, Root> roots = new HashMap<>();
+	/** flipflops at each depth behind each root, depth 1 first */
+	private final Map<String, List<List<Latch>>> trees = new HashMap<>();
+	private final List<SumOfProducts> covers = new ArrayList<>();
+	private final Map<String, Integer> vertices = new HashMap<>();
+	private final List<Edge> edges = new ArrayList<>();
+	private final Map<String, List<Edge>> outEdges = new LinkedHashMap<>();
+	private final Set<String> needed = new LinkedHashSet<>();
+	private int[] delay;
+	private String clock;
+	private LatchType type;
+
+	/**
+	 * @param lutInputs function generator inputs, for {@link DelayModel#FAMILY}
+	 */
+	public Retimer(final BlifModel model, final DelayModel delays, final int lutInputs) {
+		this.model = model;
+		this.lutInputs = delays == DelayModel.UNIT ? 0 : Math.max(2, lutInputs);
+	}
+
+	/**
+	 * @return the best retiming of the model, or null if it doesn't have any
+	 *         flipflops that could be moved, or contains a combinational loop
+	 */
+	public Retiming retime() {
+		if (!buildGraph())
+			return null;
+		final int[] none = new int[delay.length];
+		final int[] before = getDelta(none);
+		if (before == null)
+			return null;
+		final int period = max(before);
+
+		// binary search for the smallest feasible period. no period can be shorter
+		// than the slowest cover.
+		int lo = max(delay), hi = period;
+		int[] best = none;
+		while (lo < hi) {
+			final int c = (lo + hi) / 2;
+			final int[] r = getFeasibleRetiming(c);
+			if (r != null) {
+				best = r;
+				hi = c;
+			} else
+				lo = c + 1;
+		}
+		final int[] after = getDelta(best);
+		final Retiming result = new Retiming(clock, period, max(after), getStageDepths(none, before),
+				getStageDepths(best, after), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+		if (best != none)
+			rebuild(best, result);
+		return result;
+	}
+
+	private static int max(final int[] values) {
+		int max = 0;
+		for (final int v : values)
+			max = Math.max(max, v);
+		return max;
+	}
+
+	private boolean buildGraph() {
+		// the flipflops of the most common clock domain can be moved
+		final Map<String, List<Latch>> domains = new LinkedHashMap<>();
+		for (final BlifGate gate : model.getGates())
+			if (gate instanceof final Latch latch && latch.getClockInput() != null && latch.getEnableInput() == null
+					&& (latch.getType() == LatchType.re || latch.getType() == LatchType.fe))
+				domains.computeIfAbsent(latch.getType() + " " + latch.getClockInput(), k -> new ArrayList<>())
+						.add(latch);
+		for (final List<Latch> domain : domains.values())
+			if (domain.size() > movable.size()) {
+				movable.clear();
+				movable.addAll(domain);
+			}
+		if (movable.isEmpty())
+			return false;
+		clock = movable.iterator().next().getClockInput();
+		type = movable.iterator().next().getType();
+
+		// find the root of each flipflop chain. chains that loop back onto themselves
+		// without any logic cannot be moved.
+		final Map<String, Latch> byOutput = new HashMap<>();
+		for (final Latch latch : movable)
+			byOutput.put(latch.getDataOutput(), latch);
+		for (final Latch latch : new ArrayList<>(movable))
+			if (getRoot(latch.getDataOutput(), byOutput, new HashSet<>()) == null)
+				byOutput.remove(latch.getDataOutput());
+		movable.retainAll(byOutput.values());
+		roots.clear();
+		for (final Latch latch : movable) {
+			final Root root = getRoot(latch.getDataOutput(), byOutput, new HashSet<>());
+			roots.put(latch.getDataOutput(), root);
+			final List<List<Latch>> tree = trees.computeIfAbsent(root.signal(), k -> new ArrayList<>());
+			while (tree.size() < root.depth())
+				tree.add(new ArrayList<>());
+			tree.get(root.depth() - 1).add(latch);
+		}
+
+		covers.add(null); // the host
+		for (final BlifGate gate : model.getGates())
+			if (gate instanceof final SumOfProducts sop) {
+				vertices.put(sop.getOutput(), covers.size());
+				covers.add(sop);
+			}
+		delay = new int[covers.size()];
+		for (int v = 1; v < covers.size(); v++)
+			delay[v] = getDelay(covers.get(v));
+
+		for (int v = 1; v < covers.size(); v++)
+			for (final String input : new LinkedHashSet<>(covers.get(v).getInputs()))
+				addEdge(input, v);
+		// the host needs everything that isn't used by covers or moved flipflops
+		needed.addAll(model.getOutputs());
+		for (final BlifGate gate : model.getGates())
+			if (gate instanceof final Latch latch && movable.contains(latch))
+				needed.add(latch.getClockInput());
+			else if (!(gate instanceof SumOfProducts))
+				needed.addAll(gate.getInputs());
+		for (final String signal : needed)
+			addEdge(signal, HOST);
+		return true;
+	}
+
+	private Root getRoot(final String signal, final Map<String, Latch> byOutput, final Set<String> visiting) {
+		final Latch latch = byOutput.get(signal);
+		if (latch == null)
+			return new Root(signal, 0);
+		if (!visiting.add(signal))
+			return null;
+		final Root root = getRoot(latch.getDataInput(), byOutput, visiting);
+		return root == null ? null : new Root(root.signal(), root.depth() + 1);
+	}
+
+	private Root getRoot(final String signal) {
+		return roots.getOrDefault(signal, new Root(signal, 0));
+	}
+
+	private void addEdge(final String signal, final int to) {
+		final Root root = getRoot(signal);
+		final Edge edge = new Edge(vertices.getOrDefault(root.signal(), HOST), to, root.depth(), root.signal());
+		edges.add(edge);
+		outEdges.computeIfAbsent(root.signal(), k -> new ArrayList<>()).add(edge);
+	}
+
+	private int getDelay(final SumOfProducts sop) {
+		final int inputs = new HashSet<>(sop.getInputs()).size();
+		if (lutInputs == 0)
+			return inputs > 0 ? 1 : 0;
+		// buffers and inverters end up in the function generator they drive
+		if (inputs <= 1)
+			return 0;
+		if (inputs <= lutInputs)
+			return 1;
+		return 1 + (inputs - lutInputs + lutInputs - 2) / (lutInputs - 1);
+	}
+
+	private static int getWeight(final Edge edge, final int[] r) {
+		return edge.weight() + r[edge.to()] - r[edge.from()];
+	}
+
+	/**
+	 * @return the longest combinational path ending at each vertex, or null if
+	 *         there is a combinational loop. paths leaving the host start at zero.
+	 */
+	private int[] getDelta(final int[] r) {
+		final int n = covers.size();
+		final int[] inDegree = new int[n];
+		final List<List<Edge>> zero = new ArrayList<>();
+		for (int v = 0; v < n; v++)
+			zero.add(new ArrayList<>());
+		for (final Edge edge : edges)
+			if (edge.from() != HOST && edge.to() != HOST && getWeight(edge, r) == 0) {
+				zero.get(edge.from()).add(edge);
+				inDegree[edge.to()]++;
+			}
+		final int[] delta = new int[n];
+		final List<Integer> queue = new ArrayList<>();
+		for (int v = 1; v < n; v++) {
+			delta[v] = delay[v];
+			if (inDegree[v] == 0)
+				queue.add(v);
+		}
+		for (int i = 0; i < queue.size(); i++) {
+			final int u = queue.get(i);
+			for (final Edge edge : zero.get(u)) {
+				delta[edge.to()] = Math.max(delta[edge.to()], delta[u] + delay[edge.to()]);
+				if (--inDegree[edge.to()] == 0)
+					queue.add(edge.to());
+			}
+		}
+		if (queue.size() != n - 1)
+			return null;
+		for (final Edge edge : edges)
+			if (edge.to() == HOST && edge.from() != HOST && getWeight(edge, r) == 0)
+				delta[HOST] = Math.max(delta[HOST], delta[edge.from()]);
+		return delta;
+	}
+
+	/**
+	 * FEAS: repeatedly moves a flipflop backward across every cover that still
+	 * ends a path longer than the period.
+	 *
+	 * @return a legal retiming achieving the period, normalized so that the host
+	 *         stays in place, or null if there is none
+	 */
+	private int[] getFeasibleRetiming(final int period) {
+		final int[] r = new int[covers.size()];
+		for (int iter = 0; iter < covers.size(); iter++) {
+			final int[] delta = getDelta(r);
+			if (delta == null)
+				return null;
+			boolean changed = false;
+			for (int v = 0; v < r.length; v++)
+				if (delta[v] > period) {
+					r[v]++;
+					changed = true;
+				}
+			if (!changed)
+				break;
+		}
+		final int host = r[HOST];
+		for (int v = 0; v < r.length; v++)
+			r[v] -= host;
+		for (final Edge edge : edges)
+			if (getWeight(edge, r) < 0)
+				return null;
+		final int[] delta = getDelta(r);
+		return delta != null && max(delta) <= period ? r : null;
+	}
+
+	/**
+	 * @return number of flipflops by the depth of the logic driving them
+	 */
+	private TreeMap<Integer, Integer> getStageDepths(final int[] r, final int[] delta) {
+		final TreeMap<Integer, Integer> depths = new TreeMap<>();
+		for (final Map.Entry<String, List<Edge>> e : outEdges.entrySet()) {
+			final int length = getChainLength(e.getValue(), r);
+			if (length == 0)
+				continue;
+			final int root = e.getValue().get(0).from();
+			depths.merge(root == HOST ? 0 : delta[root], 1, Integer::sum);
+			if (length > 1)
+				depths.merge(0, length - 1, Integer::sum);
+		}
+		return depths;
+	}
+
+	private static int getChainLength(final List<Edge> edges, final int[] r) {
+		int length = 0;
+		for (final Edge edge : edges)
+			length = Math.max(length, getWeight(edge, r));
+		return length;
+	}
+
+	/**
+	 * replaces the moved flipflops by chains of flipflops behind each root, and
+	 * reconnects each cover to the right position of the chains.
+	 */
+	private void rebuild(final int[] r, final Retiming result) {
+		final Map<String, List<String>> chains = new LinkedHashMap<>();
+		final Map<String, Integer> memo = new HashMap<>();
+		final List<BlifGate> added = new ArrayList<>();
+		for (final Map.Entry<String, List<Edge>> e : outEdges.entrySet()) {
+			final String root = e.getKey();
+			final int lag = r[e.getValue().get(0).from()];
+			final int length = getChainLength(e.getValue(), r);
+			final List<String> chain = getChainNames(root, lag, length);
+			chains.put(root, chain);
+			for (int j = 1; j <= length; j++) {
+				// the flipflop at position j holds what the root had j + lag cycles ago
+				final int value = getValue(root, -j - lag, memo);
+				if (value == INPUT || value == CONFLICT) {
+					if (!result.refusal().contains(root))
+						result.refusal().add(root);
+					continue;
+				}
+				final LatchInitialValue init = value == ZERO ? LatchInitialValue.RESET
+						: value == ONE ? LatchInitialValue.PRESET : LatchInitialValue.UNKNOWN;
+				added.add(new Latch(chain.get(j), chain.get(j - 1), type, clock, init));
+			}
+		}
+		if (!result.refusal().isEmpty())
+			return;
+
+		final List<BlifGate> removed = new ArrayList<>(movable);
+		for (int v = 1; v < covers.size(); v++) {
+			final SumOfProducts sop = covers.get(v);
+			final Map<String, String> inputs = new HashMap<>();
+			for (final String input : sop.getInputs()) {
+				final Root root = getRoot(input);
+				final int position = root.depth() + r[v] - r[vertices.getOrDefault(root.signal(), HOST)];
+				inputs.put(input, chains.get(root.signal()).get(position));
+			}
+			final String output = chains.containsKey(sop.getOutput()) ? chains.get(sop.getOutput()).get(0)
+					: sop.getOutput();
+			if (!output.equals(sop.getOutput())
+					|| inputs.entrySet().stream().anyMatch(e -> !e.getKey().equals(e.getValue()))) {
+				removed.add(sop);
+				added.add(sop.getRenamed(output, inputs));
+			}
+		}
+		// whatever the host needs under a name that no longer exists is connected
+		// through a buffer
+		for (final String signal : needed) {
+			final Root root = getRoot(signal);
+			final int position = root.depth() - r[vertices.getOrDefault(root.signal(), HOST)];
+			final String source = chains.get(root.signal()).get(position);
+			if (source.equals(signal))
+				continue;
+			final SumOfProducts buffer = new SumOfProducts(signal, List.of(source));
+			buffer.addProductTerm('1', '1');
+			added.add(buffer);
+		}
+		result.removed().addAll(removed);
+		result.added().addAll(added);
+	}
+
+	/**
+	 * names the positions of a chain: signals the host needs keep their names if
+	 * their position still exists, then the root and the old flipflops at the
+	 * same delay. anything else gets a new name.
+	 */
+	private List<String> getChainNames(final String root, final int lag, final int length) {
+		final String[] names = new String[length + 1];
+		final Set<String> used = new HashSet<>();
+		for (final String signal : needed) {
+			final Root r = getRoot(signal);
+			final int position = r.depth() - lag;
+			if (!r.signal().equals(root) || position < 0 || position > length || names[position] != null)
+				continue;
+			// the output of the cover itself cannot be renamed if it is an input
+			if (position == 0 && !signal.equals(root))
+				continue;
+			names[position] = signal;
+			used.add(signal);
+		}
+		if (names[0] == null)
+			names[0] = used.contains(root) ? model.getUniqueName(root + "_comb") : root;
+		used.add(names[0]);
+		final List<List<Latch>> tree = trees.getOrDefault(root, List.of());
+		for (int j = 1; j <= length; j++) {
+			if (names[j] != null)
+				continue;
+			final int depth = j + lag;
+			if (depth >= 1 && depth <= tree.size())
+				for (final Latch latch : tree.get(depth - 1))
+					if (used.add(latch.getDataOutput())) {
+						names[j] = latch.getDataOutput();
+						break;
+					}
+			if (names[j] == null)
+				names[j] = model.getUniqueName(root + "_r" + j);
+		}
+		return List.of(names);
+	}
+
+	/**
+	 * @return the value the root had at the given time in the original model,
+	 *         where the flipflops hold their initial values at time zero. values
+	 *         before that are what the flipflops held, values after that are
+	 *         computed from them.
+	 */
+	private int getValue(final String root, final int time, final Map<String, Integer> memo) {
+		final String key = root + "@" + time;
+		final Integer known = memo.get(key);
+		if (known != null)
+			return known;
+		final int value;
+		if (time < 0) {
+			final List<List<Latch>> tree = trees.getOrDefault(root, List.of());
+			if (-time <= tree.size() && !tree.get(-time - 1).isEmpty())
+				value = getInitialValue(tree.get(-time - 1));
+			else
+				value = isUnobservable(root, time, new HashSet<>()) ? FREE : CONFLICT;
+		} else if (!vertices.containsKey(root))
+			value = INPUT;
+		else
+			value = evaluate(covers.get(vertices.get(root)), time, memo);
+		memo.put(key, value);
+		return value;
+	}
+
+	private static int getInitialValue(final List<Latch> latches) {
+		int value = FREE;
+		for (final Latch latch : latches) {
+			final int init = switch (latch.getInitialValue()) {
+			case RESET -> ZERO;
+			case PRESET -> ONE;
+			default -> FREE;
+			};
+			if (value == FREE)
+				value = init;
+			else if (init != FREE && init != value)
+				return CONFLICT;
+		}
+		return value;
+	}
+
+	/**
+	 * @return whether the value the root had before time zero, which no flipflop
+	 *         held, only ever reached flipflops whose initial values don't matter
+	 *         either
+	 */
+	private boolean isUnobservable(final String root, final int time, final Set<String> visited) {
+		if (!visited.add(root + "@" + time))
+			return true;
+		for (final Edge edge : outEdges.getOrDefault(root, List.of())) {
+			if (edge.to() == HOST)
+				continue;
+			final int consumerTime = time + edge.weight();
+			if (consumerTime >= 0)
+				return false;
+			final String consumer = covers.get(edge.to()).getOutput();
+			final List<List<Latch>> tree = trees.getOrDefault(consumer, List.of());
+			if (-consumerTime <= tree.size() && !tree.get(-consumerTime - 1).isEmpty()) {
+				if (getInitialValue(tree.get(-consumerTime - 1)) != FREE)
+					return false;
+			} else if (!isUnobservable(consumer, consumerTime, visited))
+				return false;
+		}
+		return true;
+	}
+
+	private int evaluate(final SumOfProducts sop, final int time, final Map<String, Integer> memo) {
+		final List<String> inputs = new ArrayList<>(new LinkedHashSet<>(sop.getInputs()));
+		int known = 0;
+		final List<Integer> free = new ArrayList<>(), input = new ArrayList<>();
+		for (int i = 0; i < inputs.size(); i++) {
+			final Root root = getRoot(inputs.get(i));
+			final int value = getValue(root.signal(), time - root.depth(), memo);
+			switch (value) {
+			case ONE -> known |= 1 << i;
+			case FREE -> free.add(i);
+			case INPUT -> input.add(i);
+			case CONFLICT -> {
+				return CONFLICT;
+			}
+			default -> {
+			}
+			}
+		}
+		if (free.size() + input.size() > MAX_UNKNOWN)
+			return input.isEmpty() ? FREE : INPUT;
+
+		// the result is an input if it changes with the inputs, and free if it only
+		// changes with free values
+		int constant = -1;
+		boolean varies = false;
+		for (int f = 0; f < 1 << free.size(); f++) {
+			int first = -1;
+			for (int in = 0; in < 1 << input.size(); in++) {
+				int row = known;
+				for (int j = 0; j < free.size(); j++)
+					if ((f >> j & 1) != 0)
+						row |= 1 << free.get(j);
+				for (int j = 0; j < input.size(); j++)
+					if ((in >> j & 1) != 0)
+						row |= 1 << input.get(j);
+				final int result = sop.evaluate(inputs, row) ? ONE : ZERO;
+				if (first < 0)
+					first = result;
+				else if (first != result)
+					return INPUT;
+			}
+			if (constant < 0)
+				constant = first;
+			else if (constant != first)
+				varies = true;
+		}
+		return varies ? FREE : constant;
+	}
+
+	private static record Root(String signal, int depth) {
+	}
+
+	private static record Edge(int from, int to, int weight, String root) {
+	}
+
+	/**
+	 * the result of retiming a model: the clock whose flipflops were moved, the
+	 * period before and after, and the number of flipflops by the depth of the
+	 * logic driving them before and after. if the period got shorter, the gates to
+	 * remove and the gates replacing them, to be passed to
+	 * {@link BlifModel#replaceGates(List, List)}. if the flipflops couldn't be
+	 * moved without changing the initial state, {@code refusal} lists the signals
+	 * whose flipflops would have broken it, and nothing is to be replaced.
+	 */
+	public static record Retiming(String clock, int periodBefore, int periodAfter,
+			Map<Integer, Integer> depthsBefore, Map<Integer, Integer> depthsAfter, List<BlifGate> removed,
+			List<BlifGate> added, List<String> refusal) {
+	}
+}
@@ -0,0 +1,70 @@
+package xsynth.blif;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Finds constant tables in a model, as they are produced by lowering
+ * {@code case} statements with constant results: a group of covers that all
+ * depend on exactly the same inputs, which then form the address of the table.
+ * Each cover becomes one data bit.
+ */
+public class RomRecognizer {
+	private final BlifModel model;
+
+	public RomRecognizer(final BlifModel model) {
+		this.model = model;
+	}
+
+	/**
+	 * @param minAddress tables with fewer address bits aren't reported
+	 * @param maxAddress tables with more address bits aren't reported
+	 * @param minOutputs tables with fewer data bits aren't reported
+	 * @return all tables in the model, in model order
+	 */
+	public List<Rom> findRoms(final int minAddress, final int maxAddress, final int minOutputs) {
+		final Map<TreeSet<String>, List<SumOfProducts>> groups = new LinkedHashMap<>();
+		for (final BlifGate gate : model.getGates())
+			if (gate instanceof final SumOfProducts sop && !sop.getTerms().isEmpty()) {
+				final TreeSet<String> inputs = new TreeSet<>(sop.getInputs());
+				if (inputs.size() == sop.getInputs().size() && inputs.size() >= minAddress
+						&& inputs.size() <= maxAddress)
+					groups.computeIfAbsent(inputs, k -> new ArrayList<>()).add(sop);
+			}
+
+		final List<Rom> roms = new ArrayList<>();
+		for (final List<SumOfProducts> group : groups.values()) {
+			if (group.size() < minOutputs)
+				continue;
+			// a cover which depends on its own output isn't a table
+			final List<String> address = group.get(0).getInputs();
+			if (group.stream().anyMatch(sop -> new HashSet<>(address).contains(sop.getOutput())))
+				continue;
+			final List<String> outputs = new ArrayList<>();
+			final List<BitSet> contents = new ArrayList<>();
+			for (final SumOfProducts sop : group) {
+				final BitSet bits = new BitSet(1 << address.size());
+				for (int row = 0; row < 1 << address.size(); row++)
+					bits.set(row, sop.evaluate(address, row));
+				outputs.add(sop.getOutput());
+				contents.add(bits);
+			}
+			roms.add(new Rom(address, outputs, contents, List.copyOf(group)));
+		}
+		return roms;
+	}
+
+	/**
+	 * a table with {@code 1 << address.size()} words, with data bit i stored in
+	 * {@code contents.get(i)} and output on {@code outputs.get(i)}, and the gates
+	 * it replaces. address bit i is bit i of the word index.
+	 */
+	public static record Rom(List<String> address, List<String> outputs, List<BitSet> contents,
+			List<BlifGate> gates) {
+	}
+}
@@ -1,7 +1,9 @@
 package xsynth.blif;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 public class SumOfProducts implements BlifGate {
 	private final List<Product> terms = new ArrayList<>();
@@ -50,6 +52,91 @@ public class SumOfProducts implements BlifGate {
 		return terms;
 	}
 
+	/**
+	 * evaluates the cover for every combination of inputs, with input i as bit i of
+	 * the row index. only covers of at most 5 distinct inputs, consisting of
+	 * on-set terms, can be evaluated.
+	 *
+	 * @return the truth table, with row n as bit n, or -1 if the cover cannot be
+	 *         evaluated
+	 */
+	public long getTruthTable() {
+		if (inputNames.size() > 5 || new HashSet<>(inputNames).size() != inputNames.size())
+			return -1;
+		for (final Product product : terms)
+			if (product.isInvertOutput())
+				return -1;
+		long table = 0;
+		for (int row = 0; row < 1 << inputNames.size(); row++)
+			if (evaluate(inputNames, row))
+				table |= 1L << row;
+		return table;
+	}
+
+	/**
+	 * evaluates the cover for a single combination of inputs, the same way the
+	 * converter implements it: a product with inverted output contributes its
+	 * complement to the sum.
+	 *
+	 * @param inputs the inputs whose values are given in {@code row}; input i has
+	 *               the value of bit i. inputs not in the list are zero.
+	 */
+	public boolean evaluate(final List<String> inputs, final int row) {
+		for (final Product product : terms) {
+			boolean match = true;
+			for (final ProductTerm term : product.getTerms()) {
+				final int i = inputs.indexOf(term.getInput());
+				if ((i >= 0 && (row >> i & 1) == 1) == term.isInvertInput())
+					match = false;
+			}
+			if (match != product.isInvertOutput())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the cover with the given input replaced by a constant. products which
+	 *         become false are dropped, and the input is removed from the others.
+	 *         a product with inverted output which becomes false contributes a
+	 *         constant 1, and is replaced by an empty product.
+	 */
+	public SumOfProducts getCofactor(final String input, final boolean value) {
+		final List<String> inputs = new ArrayList<>(inputNames);
+		inputs.remove(input);
+		final SumOfProducts cofactor = new SumOfProducts(outputName, inputs);
+		for (final Product product : terms) {
+			final Product copy = cofactor.new Product(product.invertOutput);
+			boolean dropped = false;
+			for (final ProductTerm term : product.getTerms())
+				if (!term.getInput().equals(input))
+					copy.addTerm(term.isInvertInput(), term.getInput());
+				else if (term.isInvertInput() == value)
+					dropped = true;
+			if (!dropped)
+				cofactor.terms.add(copy);
+			else if (product.invertOutput)
+				cofactor.terms.add(cofactor.new Product(false));
+		}
+		return cofactor;
+	}
+
+	/**
+	 * @return the same cover with a different output, and with inputs renamed
+	 *         according to the map. inputs not in the map keep their names.
+	 */
+	public SumOfProducts getRenamed(final String output, final Map<String, String> inputs) {
+		final SumOfProducts renamed = new SumOfProducts(output,
+				inputNames.stream().map(in -> inputs.getOrDefault(in, in)).toList());
+		for (final Product product : terms) {
+			final Product copy = renamed.new Product(product.invertOutput);
+			for (final ProductTerm term : product.getTerms())
+				copy.addTerm(term.isInvertInput(), inputs.getOrDefault(term.getInput(), term.getInput()));
+			renamed.terms.add(copy);
+		}
+		return renamed;
+	}
+
 	@Override
 	public String toString() {
 		return "SumOfProducts[" + outputName + ", " + inputNames.toString().substring(1);
@@ -1,40 +1,90 @@
 package xsynth.chips;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 import xsynth.blif.CustomGateFactory;
 import xsynth.convert.GlobalClockFactory;
 import xsynth.convert.PadFactory;
+import xsynth.convert.PadFactory.IobRegisters;
 import xsynth.convert.PadFactory.Resistors;
 import xsynth.convert.PadFactory.SlewRateControl;
 
 public class ChipFamily {
-	public static final List<ChipFamily> FAMILIES = List.of(new XC2000Family(), new XC3000Family(), new XC4000Family(),
-			new XC5200Family());
+	/**
+	 * all families, in the order they are tried. a family is only created once a
+	 * part needs it, because some of them build rather large pin tables.
+	 */
+	private static final List<LazyFamily> FAMILIES = List.of(new LazyFamily(XC2000Family.PARTS, XC2000Family::new),
+			new LazyFamily(XC3000Family.PARTS, XC3000Family::new), new LazyFamily(XC4000Family.PARTS, XC4000Family::new),
+			new LazyFamily(XC5200Family.PARTS, XC5200Family::new));
 
 	protected final Map<String, CustomGateFactory> customGates = new LinkedHashMap<>();
 	protected final Set<String> bufferTypes = new HashSet<>();
+	/** the devices of the family, the smallest one first */
+	private final List<Device> devices = new ArrayList<>();
 	private final Pattern pattern;
 	private final int maxGateInputs;
 	private final boolean hasLatches;
 	private final boolean hasLatchInitValue;
+	/** inputs of the F and G function generators, if they can be mapped explicitly */
+	private final int functionGeneratorInputs;
+	/** inputs of the H function generator, or 0 if there is none */
+	private final int hFunctionGeneratorInputs;
+	/** logic inputs per CLB, if it can be packed explicitly using BLKNM */
+	private final int clbInputs;
+	/** inputs of each of the two functions when a CLB is split */
+	private final int clbFunctionInputs;
+	/** storage elements per CLB */
+	private final int clbFlipFlops;
+	/** number of global clock buffers, of whatever type */
+	private final int globalBuffers;
+	/** number of wired-AND edge decoders, or 0 if there are none */
+	private final int wideDecoders;
+	/** whether the CLBs have CY4 fast carry logic */
+	private final boolean hasCarryLogic;
+	/** whether there are TBUFs driving the horizontal long lines */
+	private final boolean hasLongLineTristates;
+	/** address bits of the largest ROM primitive, or 0 if there is none */
+	private final int romAddressBits;
+	/** the STARTUP pin which resets all flipflops, or null if there is none */
+	private final String globalResetPin;
+	/** whether the flipflops have a clock enable input */
+	private final boolean hasClockEnable;
 
 	protected ChipFamily(final String name, final String regex, final int maxGateInputs, final boolean hasLatches,
 			final boolean hasLatchInitValue, final SlewRateControl slewRateControl, final Resistors resistors,
-			final boolean hasNoDelay, final boolean hasDriverType) {
+			final boolean hasNoDelay, final boolean hasDriverType, final IobRegisters iobRegisters,
+			final int functionGeneratorInputs, final int hFunctionGeneratorInputs, final int clbInputs,
+			final int clbFunctionInputs, final int clbFlipFlops, final int globalBuffers, final int wideDecoders,
+			final boolean hasCarryLogic, final boolean hasLongLineTristates, final int romAddressBits,
+			final String globalResetPin, final boolean hasClockEnable) {
 		this.maxGateInputs = maxGateInputs;
 		this.hasLatches = hasLatches;
 		this.hasLatchInitValue = hasLatchInitValue;
+		this.functionGeneratorInputs = functionGeneratorInputs;
+		this.hFunctionGeneratorInputs = hFunctionGeneratorInputs;
+		this.clbInputs = clbInputs;
+		this.clbFunctionInputs = clbFunctionInputs;
+		this.clbFlipFlops = clbFlipFlops;
+		this.globalBuffers = globalBuffers;
+		this.wideDecoders = wideDecoders;
+		this.hasCarryLogic = hasCarryLogic;
+		this.hasLongLineTristates = hasLongLineTristates;
+		this.romAddressBits = romAddressBits;
+		this.globalResetPin = globalResetPin;
+		this.hasClockEnable = hasClockEnable;
 		customGates.put(CustomGateFactory.IOPAD_GATE,
-				new PadFactory(slewRateControl, resistors, hasNoDelay, hasDriverType));
+				new PadFactory(slewRateControl, resistors, hasNoDelay, hasDriverType, iobRegisters));
 		customGates.put(CustomGateFactory.LATCH_CLOCK_GATE, new GlobalClockFactory());
-		pattern = Pattern.compile("^" + regex + ".*", Pattern.CASE_INSENSITIVE);
+		pattern = getPattern(regex);
 		bufferTypes.add("BUFG"); // supported by all chips
 	}
 
@@ -42,6 +92,23 @@ public class ChipFamily {
 		return pattern.matcher(part).matches();
 	}
 
+	/** declares a device of the family. the smallest one has to be added first. */
+	protected void addDevice(final String name, final int clbRows, final int clbColumns) {
+		devices.add(new Device(name, clbRows, clbColumns));
+	}
+
+	/**
+	 * @return the device a part number refers to. if it doesn't name a known
+	 *         device, eg. because only the family was given, the smallest one, so
+	 *         that the resources of the chip are never overestimated.
+	 */
+	public Device getDevice(final String part) {
+		for (final Device device : devices)
+			if (part.regionMatches(true, 0, device.name(), 0, device.name().length()))
+				return device;
+		return devices.get(0);
+	}
+
 	public Map<String, CustomGateFactory> getCustomGates() {
 		return customGates;
 	}
@@ -62,10 +129,84 @@ public class ChipFamily {
 		return hasLatchInitValue;
 	}
 
+	public int getFunctionGeneratorInputs() {
+		return functionGeneratorInputs;
+	}
+
+	public int getHFunctionGeneratorInputs() {
+		return hFunctionGeneratorInputs;
+	}
+
+	public int getClbInputs() {
+		return clbInputs;
+	}
+
+	public int getClbFunctionInputs() {
+		return clbFunctionInputs;
+	}
+
+	public int getClbFlipFlops() {
+		return clbFlipFlops;
+	}
+
+	public int getGlobalBuffers() {
+		return globalBuffers;
+	}
+
+	public int getWideDecoders() {
+		return wideDecoders;
+	}
+
+	public boolean hasCarryLogic() {
+		return hasCarryLogic;
+	}
+
+	public boolean hasLongLineTristates() {
+		return hasLongLineTristates;
+	}
+
+	public int getRomAddressBits() {
+		return romAddressBits;
+	}
+
+	public String getGlobalResetPin() {
+		return globalResetPin;
+	}
+
+	public boolean hasClockEnable() {
+		return hasClockEnable;
+	}
+
+	private static Pattern getPattern(final String regex) {
+		return Pattern.compile("^" + regex + ".*", Pattern.CASE_INSENSITIVE);
+	}
+
 	public static ChipFamily forPart(final String part) throws NoSuchElementException {
-		for (final ChipFamily f : FAMILIES)
-			if (f.matches(part))
-				return f;
+		for (final LazyFamily f : FAMILIES)
+			if (f.pattern.matcher(part).matches())
+				return f.get();
 		throw new NoSuchElementException("no family matching part name " + part);
 	}
+
+	/** @return all families. this creates every one of them. */
+	public static List<ChipFamily> getFamilies() {
+		return FAMILIES.stream().map(LazyFamily::get).toList();
+	}
+
+	private static class LazyFamily {
+		private final Pattern pattern;
+		private final Supplier<ChipFamily> constructor;
+		private ChipFamily family;
+
+		private LazyFamily(final String regex, final Supplier<ChipFamily> constructor) {
+			pattern = getPattern(regex);
+			this.constructor = constructor;
+		}
+
+		private synchronized ChipFamily get() {
+			if (family == null)
+				family = constructor.get();
+			return family;
+		}
+	}
 }
@@ -0,0 +1,29 @@
+package xsynth.chips;
+
+/**
+ * The size of one device of a family, for the resources whose number depends on
+ * it rather than on the family.
+ *
+ * @param name       the part number without package and speed grade, eg. 4003
+ * @param clbRows    rows of the CLB array
+ * @param clbColumns columns of the CLB array
+ */
+public record Device(String name, int clbRows, int clbColumns) {
+	/**
+	 * @return the IOBs along the shorter edge of the chip, two per CLB. that is
+	 *         about how many inputs a wide edge decoder has.
+	 */
+	public int getEdgeIobs() {
+		return 2 * Math.min(clbRows, clbColumns);
+	}
+
+	/** @return the horizontal long lines with TBUFs, two per CLB row */
+	public int getLongLines() {
+		return 2 * clbRows;
+	}
+
+	/** @return the TBUFs on each horizontal long line, one per CLB column */
+	public int getTbufsPerLongLine() {
+		return clbColumns;
+	}
+}
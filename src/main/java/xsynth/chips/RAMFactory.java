@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -12,14 +13,25 @@ import xsynth.Diagnostics.AbortedException;
 import xsynth.SourceLocation;
 import xsynth.blif.CustomGate;
 import xsynth.convert.SpecialGateFactory;
+import xsynth.convert.XnfCustomGate;
 import xsynth.naming.Name;
 import xsynth.naming.Namespace;
 import xsynth.naming.SpecialName;
+import xsynth.xnf.PinDirection;
+import xsynth.xnf.XnfGate;
 import xsynth.xnf.XnfNetlist;
+import xsynth.xnf.XnfNetlist.Term;
 
 public class RAMFactory extends SpecialGateFactory {
 	/** maximum bit width of a multi-bit RAM */
 	private static final int MAX_BITS = 255;
+	/**
+	 * maximum number of address bits of a RAM. anything beyond the primitive's
+	 * depth is implemented using several banks.
+	 */
+	private static final int MAX_ADDRESSES = 8;
+	/** with fewer banks, a plain multiplexer is cheaper than TBUFs */
+	private static final int TRISTATE_MIN_BANKS = 4;
 	private final List<String> outputPrefixes;
 	private final List<String> addressPrefixes;
 	private final int numAddresses;
@@ -48,7 +60,7 @@ public class RAMFactory extends SpecialGateFactory {
 			final boolean hasWriteClock) {
 		final List<String> inputs = new ArrayList<>();
 		for (final String addr : prefixes)
-			for (int i = 0; i < numAddresses; i++)
+			for (int i = 0; i < MAX_ADDRESSES; i++)
 				inputs.add(addr + i);
 		if (hasWriteClock)
 			inputs.add("WCLK");
@@ -76,12 +88,17 @@ public class RAMFactory extends SpecialGateFactory {
 		}
 
 		// determine depth of RAM (number of address pins) and collect address input
-		// connections
+		// connections. address pins beyond the primitive's depth select the bank.
+		int bankBits = 0;
+		for (final String prefix : addressPrefixes)
+			for (int i = numAddresses; i < MAX_ADDRESSES; i++)
+				if (inputs.containsKey(prefix + i))
+					bankBits = Math.max(bankBits, i + 1 - numAddresses);
 		final List<String> groundedAddress = new ArrayList<>();
 		final Map<String, String> globalInputs = new LinkedHashMap<String, String>();
 		for (final String prefix : addressPrefixes) {
 			int nextAddr = 0;
-			for (int i = 0; i < numAddresses; i++) {
+			for (int i = 0; i < numAddresses + bankBits; i++) {
 				final String addr = prefix + i;
 				if (inputs.containsKey(addr)) {
 					for (int a = nextAddr; a < i; a++)
@@ -112,6 +129,21 @@ public class RAMFactory extends SpecialGateFactory {
 			}
 		}
 
+		if (bankBits > 0) {
+			// a single gate for all bits, so that the banks can share their write enables
+			// and read selects
+			final Map<String, String> inPorts = new LinkedHashMap<>(globalInputs);
+			final Map<String, String> outPorts = new LinkedHashMap<>();
+			for (final String bit : bits) {
+				if (inputs.containsKey("D" + bit))
+					inPorts.put("D" + bit, inputs.get("D" + bit));
+				for (final String prefix : outputPrefixes)
+					if (outputs.containsKey(prefix + bit))
+						outPorts.put(prefix + bit, outputs.get(prefix + bit));
+			}
+			return List.of(new BankedRam(name, outPorts, inPorts, bits, bankBits, groundedAddress));
+		}
+
 		// generate RAM instances
 		final List<CustomGate> gates = new ArrayList<>();
 		for (final String bit : bits) {
@@ -143,6 +175,109 @@ public class RAMFactory extends SpecialGateFactory {
 		return gates;
 	}
 
+	/**
+	 * a RAM deeper than the primitive, built from several banks. each bank gets its
+	 * own write enable, decoded from the upper address bits. the outputs are
+	 * multiplexed using the upper bits of the address that belongs to the output,
+	 * ie. the read address for DPO; wide multiplexers use TBUFs on a long line.
+	 */
+	private class BankedRam extends XnfCustomGate {
+		private final List<String> bits;
+		private final int bankBits;
+		private final List<String> groundedAddress;
+
+		private BankedRam(final String name, final Map<String, String> outputs, final Map<String, String> inputs,
+				final List<String> bits, final int bankBits, final List<String> groundedAddress) {
+			super(name, outputs, inputs);
+			this.bits = bits;
+			this.bankBits = bankBits;
+			this.groundedAddress = groundedAddress;
+		}
+
+		@Override
+		protected void implement(final XnfNetlist xnf, final Namespace ns, final Map<String, Name> outputs,
+				final Map<String, Name> inputs) {
+			final Name gnd = ns.getSpecial(SpecialName.GND);
+			for (final String addr : groundedAddress)
+				inputs.put(addr, gnd);
+			final Name base = outputs.values().iterator().next();
+			final int banks = 1 << bankBits;
+
+			final List<Name> writeEnables = new ArrayList<>();
+			for (int bank = 0; bank < banks; bank++) {
+				final List<Term> terms = getBankSelect(inputs, addressPrefixes.get(0), bank);
+				terms.add(0, new Term(inputs.get("WE"), false));
+				final Name we = base.getAnonymous("WE");
+				xnf.addLogicGate("AND", we, false, terms);
+				writeEnables.add(we);
+			}
+
+			final Map<String, List<Name>> readSelects = new LinkedHashMap<>();
+			for (final String bit : bits) {
+				final Map<String, List<Name>> bankOutputs = new LinkedHashMap<>();
+				for (int bank = 0; bank < banks; bank++) {
+					final XnfGate ram = xnf.addSymbol(name.toUpperCase(Locale.ROOT), null);
+					// the lower address bits fan out to all banks
+					for (final String prefix : addressPrefixes)
+						for (int i = 0; i < numAddresses; i++)
+							ram.connect(PinDirection.CONSUMER, prefix + i, false, inputs.get(prefix + i), null);
+					ram.connect(PinDirection.CONSUMER, "WE", false, writeEnables.get(bank), null);
+					if (hasWriteClock)
+						ram.connect(PinDirection.CONSUMER, "WCLK", false, inputs.get("WCLK"), null);
+					ram.connect(PinDirection.CONSUMER, "D", false, inputs.getOrDefault("D" + bit, gnd), null);
+					for (final String prefix : outputPrefixes)
+						if (outputs.containsKey(prefix + bit)) {
+							final Name out = outputs.get(prefix + bit).getAnonymous("BANK");
+							ram.connect(PinDirection.DRIVER, prefix, false, out, null);
+							bankOutputs.computeIfAbsent(prefix, k -> new ArrayList<>()).add(out);
+						}
+				}
+
+				for (final String prefix : bankOutputs.keySet()) {
+					// SPO / O is read using A, DPO using DPRA
+					final String address = addressPrefixes.get(outputPrefixes.indexOf(prefix));
+					final Name output = outputs.get(prefix + bit);
+					final List<Name> data = bankOutputs.get(prefix);
+					if (banks >= TRISTATE_MIN_BANKS) {
+						xnf.addTristateMux(output, data,
+								readSelects.computeIfAbsent(address, k -> getReadSelects(xnf, base, inputs, k)));
+						continue;
+					}
+					final List<Term> sum = new ArrayList<>();
+					for (int bank = 0; bank < banks; bank++) {
+						final List<Term> terms = getBankSelect(inputs, address, bank);
+						terms.add(new Term(data.get(bank), false));
+						final Name selected = output.getAnonymous("SEL");
+						xnf.addLogicGate("AND", selected, false, terms);
+						sum.add(new Term(selected, false));
+					}
+					xnf.addLogicGate("OR", output, false, sum);
+				}
+			}
+		}
+
+		/**
+		 * @return the active-low TBUF enables for each bank, shared by all bits
+		 */
+		private List<Name> getReadSelects(final XnfNetlist xnf, final Name base, final Map<String, Name> inputs,
+				final String address) {
+			final List<Name> selects = new ArrayList<>();
+			for (int bank = 0; bank < 1 << bankBits; bank++) {
+				final Name sel = base.getAnonymous("SEL");
+				xnf.addLogicGate("NAND", sel, false, getBankSelect(inputs, address, bank));
+				selects.add(sel);
+			}
+			return selects;
+		}
+
+		private List<Term> getBankSelect(final Map<String, Name> inputs, final String address, final int bank) {
+			final List<Term> terms = new ArrayList<>();
+			for (int i = 0; i < bankBits; i++)
+				terms.add(new Term(inputs.get(address + (numAddresses + i)), (bank >> i & 1) == 0));
+			return terms;
+		}
+	}
+
 	private boolean bitExists(final String bit, final Map<String, String> outputs, final Map<String, String> inputs) {
 		if (inputs.containsKey("D" + bit))
 			return true;
@@ -7,6 +7,7 @@ import xsynth.Diagnostics;
 import xsynth.Diagnostics.AbortedException;
 import xsynth.SourceLocation;
 import xsynth.blif.CustomGate;
+import xsynth.convert.PadFactory.IobRegisters;
 import xsynth.convert.PadFactory.Resistors;
 import xsynth.convert.PadFactory.SlewRateControl;
 import xsynth.convert.SpecialGateFactory;
@@ -14,8 +15,18 @@ import xsynth.naming.Namespace;
 import xsynth.xnf.XnfNetlist;
 
 public class XC2000Family extends ChipFamily {
+	/** part numbers of the family, without the XC prefix */
+	static final String PARTS = "20[0-9]{2}";
+
 	public XC2000Family() {
-		super("XC2000", "20[0-9]{2}", 4, true, false, SlewRateControl.NONE, Resistors.NONE, false, false);
+		super("XC2000", PARTS, 4, true, false, SlewRateControl.NONE, Resistors.NONE, false, false,
+				IobRegisters.NONE, 0, 0, //
+				// one function of 4 inputs or two of 3 inputs each, and a single flipflop
+				4, 3, 1, //
+				// GCLK and ACLK
+				2, 0, false, false, 0, null, false);
+		addDevice("2064", 8, 8);
+		addDevice("2018", 10, 10);
 		bufferTypes.add("ACLK");
 		bufferTypes.add("GCLK");
 		customGates.put("OSC", new OSC());
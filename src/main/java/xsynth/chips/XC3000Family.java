@@ -2,14 +2,33 @@ package xsynth.chips;
 
 import java.util.List;
 
+import xsynth.convert.PadFactory.IobRegisters;
 import xsynth.convert.PadFactory.Resistors;
 import xsynth.convert.PadFactory.SlewRateControl;
 import xsynth.convert.SpecialGateFactory;
 
 public class XC3000Family extends ChipFamily {
+	/** part numbers of the family, without the XC prefix */
+	static final String PARTS = "3[01][0-9]{2}A?";
+
 	public XC3000Family() {
-		super("XC3000/XC3100/XC300A/XC3100A", "3[01][0-9]{2}A?", 5, false, false, SlewRateControl.COARSE,
-				Resistors.PULLUP_ONLY, false, false);
+		super("XC3000/XC3100/XC300A/XC3100A", PARTS, 5, false, false, SlewRateControl.COARSE,
+				Resistors.PULLUP_ONLY, false, false, IobRegisters.INPUT, 0, 0, //
+				// one function of 5 inputs or two of 4 inputs each, and two flipflops
+				5, 4, 2, //
+				// GCLK and ACLK, TBUFs on the long lines
+				2, 0, false, true, 0, null, //
+				// EC, shared by both flipflops of a CLB
+				true);
+		// the XC3100 devices have the same arrays as the XC3000 ones
+		for (final String series : List.of("30", "31")) {
+			addDevice(series + "20", 8, 8);
+			addDevice(series + "30", 10, 10);
+			addDevice(series + "42", 12, 12);
+			addDevice(series + "64", 16, 14);
+			addDevice(series + "90", 16, 20);
+			addDevice(series + "95", 22, 22);
+		}
 		bufferTypes.add("ACLK");
 		bufferTypes.add("GCLK");
 		customGates.put("OSC", new SpecialGateFactory(List.of("O"), List.of(), List.of("O")));
@@ -3,13 +3,44 @@ package xsynth.chips;
 import java.util.List;
 import java.util.Map;
 
+import xsynth.convert.PadFactory.IobRegisters;
 import xsynth.convert.PadFactory.Resistors;
 import xsynth.convert.PadFactory.SlewRateControl;
 import xsynth.convert.SpecialGateFactory;
 
 public class XC4000Family extends ChipFamily {
+	/** part numbers of the family, without the XC prefix */
+	static final String PARTS = "4[0-9]{3}";
+
 	public XC4000Family() {
-		super("XC4000", "4[0-9]{3}", 5, false, true, SlewRateControl.FINE, Resistors.PULLUP_PULLDOWN, true, true);
+		super("XC4000", PARTS, 5, false, true, SlewRateControl.FINE, Resistors.PULLUP_PULLDOWN, true, true,
+				IobRegisters.INPUT_OUTPUT, //
+				// F and G have 4 inputs each; H combines them with one additional input
+				4, 3, //
+				// CLBs are packed by the mapping symbols instead
+				0, 0, 0, //
+				// 4 primary and 4 secondary global buffers; 4 decoders on each edge
+				8, 16, true, true, //
+				// ROM32X1 uses both function generators of a CLB
+				5, //
+				// sets or resets each flipflop according to its INIT
+				"GSR", true);
+		addDevice("4002", 8, 8);
+		addDevice("4003", 10, 10);
+		addDevice("4004", 12, 12);
+		addDevice("4005", 14, 14);
+		addDevice("4006", 16, 16);
+		addDevice("4008", 18, 18);
+		addDevice("4010", 20, 20);
+		addDevice("4013", 24, 24);
+		addDevice("4020", 28, 28);
+		addDevice("4025", 32, 32);
+		addDevice("4028", 32, 32);
+		addDevice("4036", 36, 36);
+		addDevice("4044", 40, 40);
+		addDevice("4052", 44, 44);
+		addDevice("4062", 48, 48);
+		addDevice("4085", 56, 56);
 		bufferTypes.add("BUFGS");
 		bufferTypes.add("BUFGP");
 		customGates.put("BSCAN", new SpecialGateFactory( //
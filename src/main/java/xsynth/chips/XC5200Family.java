@@ -9,13 +9,25 @@ import xsynth.Diagnostics;
 import xsynth.Diagnostics.AbortedException;
 import xsynth.SourceLocation;
 import xsynth.blif.CustomGate;
+import xsynth.convert.PadFactory.IobRegisters;
 import xsynth.convert.PadFactory.Resistors;
 import xsynth.convert.PadFactory.SlewRateControl;
 import xsynth.convert.SpecialGateFactory;
 
 public class XC5200Family extends ChipFamily {
+	/** part numbers of the family, without the XC prefix */
+	static final String PARTS = "52[0-9]{2}";
+
 	public XC5200Family() {
-		super("XC5200", "52[0-9]{2}", 5, true, false, SlewRateControl.COARSE, Resistors.PULLUP_PULLDOWN, true, false);
+		super("XC5200", PARTS, 5, true, false, SlewRateControl.COARSE, Resistors.PULLUP_PULLDOWN, true, false,
+				IobRegisters.NONE, 0, 0, 0, 0, 0, 4, 0, false, false, 0, //
+				// no INIT, so this always resets to zero
+				"GR", true);
+		addDevice("5202", 8, 8);
+		addDevice("5204", 10, 12);
+		addDevice("5206", 14, 14);
+		addDevice("5210", 18, 18);
+		addDevice("5215", 22, 22);
 		customGates.put("BSCAN", new SpecialGateFactory( //
 				List.of("RESET", "UPDATE", "SHIFT", "TDO", "DRCK", "IDLE", "SEL1", "SEL2"), //
 				List.of("TDI", "TMS", "TCK", "TDO1", "TDO2"), List.of(), List.of(), //
@@ -0,0 +1,183 @@
+package xsynth.convert;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import xsynth.Argument;
+import xsynth.BufferedDiagnostics;
+import xsynth.Command;
+import xsynth.CommandName;
+import xsynth.Diagnostics;
+import xsynth.Diagnostics.AbortedException;
+import xsynth.SourceLocation;
+
+@CommandName("batch")
+public class BatchCommand extends Command {
+	@Argument(shortOption = 'j', longOptions = "jobs", metavar = "N", help = "run at most N conversions at the"
+			+ " same time. defaults to the number of processors.")
+	public String jobs;
+
+	public BatchCommand(final Diagnostics diag, final List<String> cmdline) throws AbortedException {
+		super(diag, cmdline);
+	}
+
+	@Override
+	public void execute(final List<String> infiles) throws AbortedException {
+		if (infiles.isEmpty())
+			throw usage("no job files");
+		int threads = Runtime.getRuntime().availableProcessors();
+		if (jobs != null)
+			try {
+				threads = Integer.parseInt(jobs);
+				if (threads < 1)
+					throw usage("--jobs must be positive");
+			} catch (final NumberFormatException e) {
+				throw usage("--jobs: not a number: " + jobs);
+			}
+
+		final List<Job> batch = new ArrayList<>();
+		for (final String infile : infiles)
+			readJobs(infile, batch);
+		if (batch.isEmpty())
+			throw diag.error(null, "no jobs to run");
+
+		final long start = System.nanoTime();
+		final ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, batch.size()));
+		final List<Future<Result>> results = new ArrayList<>();
+		try {
+			for (final Job job : batch)
+				results.add(pool.submit(() -> run(job)));
+			// messages of each job in one piece, in the order of the job files
+			final List<Result> done = new ArrayList<>();
+			for (final Future<Result> future : results)
+				done.add(getResult(future));
+
+			int failed = 0;
+			for (int i = 0; i < batch.size(); i++) {
+				final Result result = done.get(i);
+				if (!result.success())
+					failed++;
+				diag.info(batch.get(i).sloc(), String.format("%s %s in %d ms", result.outfile(),
+						result.success() ? "converted" : "FAILED", result.millis()));
+			}
+			final long millis = (System.nanoTime() - start) / 1000000;
+			if (failed > 0)
+				throw diag.error(null, failed + " of " + batch.size() + " jobs failed");
+			diag.info(null, "converted " + batch.size() + " designs in " + millis + " ms");
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * reads a job file, which contains the options and input files of one
+	 * {@code xsynth convert} per line. empty lines, and everything after a # that
+	 * isn't quoted, are ignored. file names are relative to the job file.
+	 */
+	private void readJobs(final String infile, final List<Job> batch) throws AbortedException {
+		final Path path = getFile(infile);
+		final List<String> lines;
+		try {
+			lines = Files.readAllLines(path);
+		} catch (final IOException e) {
+			throw diag.error(null,
+					"failed to read " + infile + ": " + e.getClass().getSimpleName() + " " + e.getMessage());
+		}
+		for (int i = 0; i < lines.size(); i++) {
+			final SourceLocation sloc = new SourceLocation(infile, i + 1);
+			final List<String> words = split(sloc, lines.get(i));
+			if (words.isEmpty())
+				continue;
+			final List<String> args = new ArrayList<>();
+			args.add(Command.getName(ConvertCommand.class));
+			args.addAll(words);
+			final Path parent = path.getParent();
+			batch.add(new Job(sloc, parent != null ? parent : Path.of(""), args));
+		}
+	}
+
+	/**
+	 * splits a line of a job file into words, roughly like a shell does: words are
+	 * separated by whitespace, and single or double quotes keep spaces and #
+	 * within a word. there are no escapes, so a quote can only be put into a word
+	 * by quoting it with the other kind of quote.
+	 */
+	private List<String> split(final SourceLocation sloc, final String line) throws AbortedException {
+		final List<String> words = new ArrayList<>();
+		final StringBuilder word = new StringBuilder();
+		boolean inWord = false;
+		char quote = 0;
+		for (int pos = 0; pos < line.length(); pos++) {
+			final char ch = line.charAt(pos);
+			if (quote != 0) {
+				if (ch == quote)
+					quote = 0;
+				else
+					word.append(ch);
+			} else if (ch == '\'' || ch == '"') {
+				quote = ch;
+				inWord = true;
+			} else if (ch == '#')
+				break;
+			else if (Character.isWhitespace(ch)) {
+				if (inWord)
+					words.add(word.toString());
+				word.setLength(0);
+				inWord = false;
+			} else {
+				word.append(ch);
+				inWord = true;
+			}
+		}
+		if (quote != 0)
+			throw diag.error(sloc, List.of(line), "unterminated quote");
+		if (inWord)
+			words.add(word.toString());
+		return words;
+	}
+
+	private static Result run(final Job job) {
+		final BufferedDiagnostics buffer = new BufferedDiagnostics();
+		final long start = System.nanoTime();
+		String outfile = job.sloc().toString();
+		boolean success = false;
+		try {
+			final ConvertCommand convert = Command.newInstance(ConvertCommand.class, buffer, job.cmdline());
+			outfile = String.join(" ", convert.outfiles);
+			convert.checkFinishes();
+			convert.setDirectory(job.directory());
+			convert.execute();
+			success = true;
+		} catch (final AbortedException e) {
+			// already reported
+		} catch (final RuntimeException e) {
+			// a bug in one conversion shouldn't stop all the others
+			buffer.error(job.sloc(), "conversion failed: " + e);
+		}
+		return new Result(buffer, outfile, success, (System.nanoTime() - start) / 1000000);
+	}
+
+	private Result getResult(final Future<Result> future) {
+		final Result result;
+		try {
+			result = future.get();
+		} catch (final ExecutionException | InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+		result.messages().replayTo(diag);
+		return result;
+	}
+
+	private static record Job(SourceLocation sloc, Path directory, List<String> cmdline) {
+	}
+
+	private static record Result(BufferedDiagnostics messages, String outfile, boolean success, long millis) {
+	}
+}
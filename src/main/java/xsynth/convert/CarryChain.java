@@ -0,0 +1,125 @@
+package xsynth.convert;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import xsynth.blif.ArithmeticRecognizer.AdderBit;
+import xsynth.blif.ArithmeticRecognizer.AdderChain;
+import xsynth.naming.Name;
+import xsynth.naming.Namespace;
+import xsynth.naming.SpecialName;
+import xsynth.xnf.PinDirection;
+import xsynth.xnf.XnfGate;
+import xsynth.xnf.XnfNetlist;
+
+/**
+ * An adder or counter implemented using the XC4000 fast carry logic. Each CLB
+ * has a CY4 which computes the carries for the bits in its F and G function
+ * generators, and the function generators compute the sums. The CLBs are
+ * stacked vertically using RLOC because the carry only propagates upwards.
+ *
+ * The bottom CLB only holds bit 0 in G, with F1 initializing the carry to zero
+ * (ADD-G-F1). Every CLB above holds two bits (ADD-FG-CI), except possibly the
+ * topmost one (ADD-F-CI).
+ */
+public class CarryChain extends XnfCustomGate {
+	private static final String ADD_G_F1 = "CY4_03";
+	private static final String ADD_FG_CI = "CY4_02";
+	private static final String ADD_F_CI = "CY4_01";
+
+	private final List<AdderBit> bits;
+	private final int column;
+
+	/**
+	 * @param column RLOC column, so that several chains don't collide
+	 */
+	public CarryChain(final AdderChain chain, final int column) {
+		super(null, getOutputs(chain.bits()), getInputs(chain.bits()));
+		bits = chain.bits();
+		this.column = column;
+	}
+
+	private static Map<String, String> getOutputs(final List<AdderBit> bits) {
+		final Map<String, String> outputs = new LinkedHashMap<>();
+		for (int i = 0; i < bits.size(); i++) {
+			outputs.put("S" + i, bits.get(i).sum());
+			if (bits.get(i).carryOut() != null)
+				outputs.put("CO" + i, bits.get(i).carryOut());
+		}
+		return outputs;
+	}
+
+	private static Map<String, String> getInputs(final List<AdderBit> bits) {
+		final Map<String, String> inputs = new LinkedHashMap<>();
+		for (int i = 0; i < bits.size(); i++) {
+			inputs.put("A" + i, bits.get(i).a());
+			if (bits.get(i).b() != null)
+				inputs.put("B" + i, bits.get(i).b());
+		}
+		return inputs;
+	}
+
+	@Override
+	protected void implement(final XnfNetlist xnf, final Namespace ns, final Map<String, Name> outputs,
+			final Map<String, Name> inputs) {
+		final Name gnd = ns.getSpecial(SpecialName.GND);
+		final int clbs = 1 + bits.size() / 2;
+		Name carry = null;
+		for (int clb = 0; clb < clbs; clb++) {
+			// rows count from the top, but the carry goes upwards
+			final Map<String, String> rloc = Map.of("RLOC", "R" + (clbs - 1 - clb) + "C" + column);
+			final int f = 2 * clb - 1, g = 2 * clb;
+			final boolean hasG = g < bits.size();
+			final String mode = clb == 0 ? ADD_G_F1 : hasG ? ADD_FG_CI : ADD_F_CI;
+
+			final XnfGate cy4 = xnf.addSymbol("CY4", rloc);
+			if (clb == 0)
+				cy4.connect(PinDirection.CONSUMER, "A0", false, gnd, null);
+			else {
+				cy4.connect(PinDirection.CONSUMER, "A0", false, inputs.get("A" + f), null);
+				cy4.connect(PinDirection.CONSUMER, "B0", false, inputs.getOrDefault("B" + f, gnd), null);
+				cy4.connect(PinDirection.CONSUMER, "CIN", false, carry, null);
+			}
+			if (hasG) {
+				cy4.connect(PinDirection.CONSUMER, "A1", false, inputs.get("A" + g), null);
+				cy4.connect(PinDirection.CONSUMER, "B1", false, inputs.getOrDefault("B" + g, gnd), null);
+			}
+			if (clb > 0 && outputs.containsKey("CO" + f))
+				cy4.connect(PinDirection.DRIVER, "COUT0", false, outputs.get("CO" + f), null);
+			carry = hasG ? outputs.get("CO" + g) : null;
+			if (carry != null)
+				cy4.connect(PinDirection.DRIVER, "COUT", false, carry, null);
+
+			// the mode symbol configures the CY4 through its C0..C7 pins
+			final XnfGate config = xnf.addSymbol(mode, rloc);
+			final Name base = outputs.get("S" + (hasG ? g : f));
+			for (int i = 0; i < 8; i++) {
+				final Name c = base.getAnonymous("C" + i);
+				config.connect(PinDirection.DRIVER, "C" + i, false, c, null);
+				cy4.connect(PinDirection.CONSUMER, "C" + i, false, c, null);
+			}
+			if (carry == null && !outputs.containsKey("CO" + f))
+				cy4.allocateName();
+
+			if (clb > 0)
+				addSum(xnf, outputs, inputs, f, rloc);
+			if (hasG)
+				addSum(xnf, outputs, inputs, g, rloc);
+		}
+	}
+
+	private void addSum(final XnfNetlist xnf, final Map<String, Name> outputs, final Map<String, Name> inputs,
+			final int bit, final Map<String, String> rloc) {
+		// the sum goes into the function generator next to the carry logic. its carry
+		// input is the carry output of the bit below.
+		final XnfGate xor = xnf.addSymbol("XOR", rloc);
+		int pin = 0;
+		xor.connect(PinDirection.CONSUMER, "I" + pin++, false, inputs.get("A" + bit), null);
+		if (inputs.containsKey("B" + bit))
+			xor.connect(PinDirection.CONSUMER, "I" + pin++, false, inputs.get("B" + bit), null);
+		if (bit > 0)
+			xor.connect(PinDirection.CONSUMER, "I" + pin++, false, outputs.get("CO" + (bit - 1)), null);
+		xor.connect(PinDirection.DRIVER, "O", false, outputs.get("S" + bit), null);
+	}
+}
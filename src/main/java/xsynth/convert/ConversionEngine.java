@@ -0,0 +1,92 @@
+package xsynth.convert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import xsynth.BufferedDiagnostics;
+import xsynth.Diagnostics;
+import xsynth.Diagnostics.AbortedException;
+import xsynth.chips.ChipFamily;
+import xsynth.convert.ConversionRequest.Input;
+
+/**
+ * Runs conversions in-process, for programs that embed xsynth instead of
+ * starting it once per design. Thread-safe: every conversion gets its own
+ * {@link Converter}, and the only thing conversions share are the
+ * {@link ChipFamily} tables, which are built once and never modified. A single
+ * engine can therefore run any number of conversions concurrently.
+ */
+public class ConversionEngine {
+	/**
+	 * converts a request, collecting all messages in the result instead of
+	 * printing them
+	 */
+	public ConversionResult convert(final ConversionRequest request) {
+		final BufferedDiagnostics diag = new BufferedDiagnostics();
+		try {
+			final ConversionOutput output = convert(request, diag);
+			return new ConversionResult(diag.getMessages(), output.xnf(), output.partitions());
+		} catch (final AbortedException e) {
+			return new ConversionResult(diag.getMessages(), null, Map.of());
+		}
+	}
+
+	/**
+	 * converts a request, reporting messages as they happen
+	 *
+	 * @return the XNF files
+	 * @throws AbortedException if the conversion failed. the reason has been
+	 *                          reported to diag.
+	 */
+	public ConversionOutput convert(final ConversionRequest request, final Diagnostics diag) throws AbortedException {
+		final ChipFamily family;
+		try {
+			family = ChipFamily.forPart(request.getFamily());
+		} catch (final NoSuchElementException e) {
+			throw diag.error(null, e.getMessage());
+		}
+
+		final Converter converter = new Converter(diag, family, request.isQualifyAllNames(),
+				request.isMergeToplevelNamespaces());
+		converter.setDevice(family.getDevice(request.getFamily()));
+		converter.setMapLogic(request.isMapLogic());
+		converter.setAutoBuffer(request.isAutoBuffer());
+		converter.setCarryChains(request.isCarryChains());
+		converter.setTristateMux(request.isTristateMux());
+		converter.setInferRam(request.isInferRam());
+		converter.setInferRom(request.isInferRom());
+		converter.setGlobalReset(request.isGlobalReset());
+		converter.setAsyncReset(request.isAsyncReset());
+		converter.setFsmEncoding(request.getFsmEncoding());
+		converter.setRetiming(request.getRetiming());
+		converter.setMaxFanout(request.getMaxFanout());
+		if (request.getCache() != null)
+			converter.setCache(new FragmentCache(request.getCache()));
+		if (request.hasFixedTimestamp())
+			converter.setTimestamp(request.getTimestamp());
+		for (final Input input : request.getInputs())
+			try (final InputStream in = input.open()) {
+				converter.read(in, input.name());
+			} catch (final IOException e) {
+				throw diag.error(null,
+						"failed to read " + input.name() + ": " + e.getClass().getSimpleName() + " " + e.getMessage());
+			}
+
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		Map<String, byte[]> partitions = Map.of();
+		try {
+			if (request.isPartitioned())
+				partitions = converter.writePartitionedTo(buffer, request.getPart(), request.getCommandLine());
+			else
+				converter.writeTo(buffer, request.getPart(), request.getCommandLine());
+		} catch (final IOException e) {
+			// cannot happen for a ByteArrayOutputStream
+			throw new UncheckedIOException(e);
+		}
+		return new ConversionOutput(buffer.toByteArray(), partitions);
+	}
+}
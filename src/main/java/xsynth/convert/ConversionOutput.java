@@ -0,0 +1,14 @@
+package xsynth.convert;
+
+import java.util.Map;
+
+/**
+ * The files written by a successful conversion.
+ *
+ * @param xnf        the XNF file, or with partitioned output, the top-level file
+ *                   that instantiates the partitions
+ * @param partitions the files of the partitions, by file name. empty unless the
+ *                   output is partitioned.
+ */
+public record ConversionOutput(byte[] xnf, Map<String, byte[]> partitions) {
+}
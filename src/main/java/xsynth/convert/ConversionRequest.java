@@ -0,0 +1,356 @@
+package xsynth.convert;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import xsynth.blif.FsmRecognizer.Encoding;
+import xsynth.blif.Retimer.DelayModel;
+
+/**
+ * Everything a conversion needs: the input files, the part and the options, ie.
+ * what {@code xsynth convert} gets on its command line. Immutable, so a request
+ * can be converted any number of times, also concurrently. Created using
+ * {@link #builder()}.
+ */
+public final class ConversionRequest {
+	private final List<Input> inputs;
+	private final String part;
+	private final String family;
+	private final boolean qualifyAllNames;
+	private final boolean mergeToplevelNamespaces;
+	private final boolean mapLogic;
+	private final boolean autoBuffer;
+	private final boolean carryChains;
+	private final boolean tristateMux;
+	private final boolean inferRam;
+	private final boolean inferRom;
+	private final boolean globalReset;
+	private final boolean asyncReset;
+	private final Encoding fsmEncoding;
+	private final DelayModel retiming;
+	private final int maxFanout;
+	private final Path cache;
+	private final boolean partitioned;
+	private final boolean fixedTimestamp;
+	private final Instant timestamp;
+	private final List<String> cmdline;
+
+	private ConversionRequest(final Builder builder) {
+		inputs = List.copyOf(builder.inputs);
+		part = builder.part;
+		family = builder.family;
+		qualifyAllNames = builder.qualifyAllNames;
+		mergeToplevelNamespaces = builder.mergeToplevelNamespaces;
+		mapLogic = builder.mapLogic;
+		autoBuffer = builder.autoBuffer;
+		carryChains = builder.carryChains;
+		tristateMux = builder.tristateMux;
+		inferRam = builder.inferRam;
+		inferRom = builder.inferRom;
+		globalReset = builder.globalReset;
+		asyncReset = builder.asyncReset;
+		fsmEncoding = builder.fsmEncoding;
+		retiming = builder.retiming;
+		maxFanout = builder.maxFanout;
+		cache = builder.cache;
+		partitioned = builder.partitioned;
+		fixedTimestamp = builder.fixedTimestamp;
+		timestamp = builder.timestamp;
+		cmdline = List.copyOf(builder.cmdline);
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public List<Input> getInputs() {
+		return inputs;
+	}
+
+	/** @return the part to write to the XNF file, or null if none was given */
+	public String getPart() {
+		return part;
+	}
+
+	/**
+	 * @return the family, or part of the family, that selects the set of
+	 *         chip-specific gates. defaults to the part.
+	 */
+	public String getFamily() {
+		return family != null ? family : part;
+	}
+
+	public boolean isQualifyAllNames() {
+		return qualifyAllNames;
+	}
+
+	public boolean isMergeToplevelNamespaces() {
+		return mergeToplevelNamespaces;
+	}
+
+	public boolean isMapLogic() {
+		return mapLogic;
+	}
+
+	public boolean isAutoBuffer() {
+		return autoBuffer;
+	}
+
+	public boolean isCarryChains() {
+		return carryChains;
+	}
+
+	public boolean isTristateMux() {
+		return tristateMux;
+	}
+
+	public boolean isInferRam() {
+		return inferRam;
+	}
+
+	public boolean isInferRom() {
+		return inferRom;
+	}
+
+	public boolean isGlobalReset() {
+		return globalReset;
+	}
+
+	public boolean isAsyncReset() {
+		return asyncReset;
+	}
+
+	/** @return the state machine encoding, or null to leave state machines alone */
+	public Encoding getFsmEncoding() {
+		return fsmEncoding;
+	}
+
+	/** @return the delay model for retiming, or null to leave flipflops alone */
+	public DelayModel getRetiming() {
+		return retiming;
+	}
+
+	/** @return the maximum fanout of flipflops and latches, or 0 for unlimited */
+	public int getMaxFanout() {
+		return maxFanout;
+	}
+
+	/** @return the fragment cache directory, or null if there is no cache */
+	public Path getCache() {
+		return cache;
+	}
+
+	/**
+	 * @return whether each model is written to an XNF file of its own, see
+	 *         {@link Converter#writePartitionedTo(java.io.OutputStream, String, List)}
+	 */
+	public boolean isPartitioned() {
+		return partitioned;
+	}
+
+	/**
+	 * @return whether the XNF file records {@link #getTimestamp()} instead of the
+	 *         time of the conversion
+	 */
+	public boolean hasFixedTimestamp() {
+		return fixedTimestamp;
+	}
+
+	/**
+	 * @return the time to record in the XNF file if it is fixed, or null to leave
+	 *         it out
+	 */
+	public Instant getTimestamp() {
+		return timestamp;
+	}
+
+	/** @return the command line to record in the XNF file */
+	public List<String> getCommandLine() {
+		return cmdline;
+	}
+
+	/**
+	 * An input file, either read from disk when the conversion runs, or given as
+	 * contents.
+	 *
+	 * @param name the name used in messages and to name models
+	 * @param file the file to read, or null if the contents were given
+	 * @param data the file's contents, or null if it is read from disk
+	 */
+	public static record Input(String name, Path file, byte[] data) {
+		public InputStream open() throws IOException {
+			return data != null ? new ByteArrayInputStream(data) : new FileInputStream(file.toFile());
+		}
+	}
+
+	public static class Builder {
+		private final List<Input> inputs = new ArrayList<>();
+		private String part;
+		private String family;
+		private boolean qualifyAllNames;
+		private boolean mergeToplevelNamespaces;
+		private boolean mapLogic;
+		private boolean autoBuffer;
+		private boolean carryChains;
+		private boolean tristateMux;
+		private boolean inferRam;
+		private boolean inferRom;
+		private boolean globalReset;
+		private boolean asyncReset;
+		private Encoding fsmEncoding;
+		private DelayModel retiming;
+		private int maxFanout;
+		private Path cache;
+		private boolean partitioned;
+		private boolean fixedTimestamp;
+		private Instant timestamp;
+		private List<String> cmdline = List.of();
+
+		private Builder() {
+		}
+
+		/** adds an input file, which is read when the request is converted */
+		public Builder input(final Path file) {
+			return input(file.toString(), file);
+		}
+
+		/**
+		 * adds an input file, which is read when the request is converted, and
+		 * referred to by the given name
+		 */
+		public Builder input(final String name, final Path file) {
+			inputs.add(new Input(name, file, null));
+			return this;
+		}
+
+		/** adds an input file with the given contents */
+		public Builder input(final String name, final byte[] data) {
+			inputs.add(new Input(name, null, data.clone()));
+			return this;
+		}
+
+		/** adds an input file with contents read from the stream right away */
+		public Builder input(final String name, final InputStream in) throws IOException {
+			inputs.add(new Input(name, null, in.readAllBytes()));
+			return this;
+		}
+
+		public Builder part(final String part) {
+			this.part = part;
+			return this;
+		}
+
+		public Builder family(final String family) {
+			this.family = family;
+			return this;
+		}
+
+		public Builder qualifyAllNames(final boolean qualifyAllNames) {
+			this.qualifyAllNames = qualifyAllNames;
+			return this;
+		}
+
+		public Builder mergeToplevelNamespaces(final boolean mergeToplevelNamespaces) {
+			this.mergeToplevelNamespaces = mergeToplevelNamespaces;
+			return this;
+		}
+
+		public Builder mapLogic(final boolean mapLogic) {
+			this.mapLogic = mapLogic;
+			return this;
+		}
+
+		public Builder autoBuffer(final boolean autoBuffer) {
+			this.autoBuffer = autoBuffer;
+			return this;
+		}
+
+		public Builder carryChains(final boolean carryChains) {
+			this.carryChains = carryChains;
+			return this;
+		}
+
+		public Builder tristateMux(final boolean tristateMux) {
+			this.tristateMux = tristateMux;
+			return this;
+		}
+
+		public Builder inferRam(final boolean inferRam) {
+			this.inferRam = inferRam;
+			return this;
+		}
+
+		public Builder inferRom(final boolean inferRom) {
+			this.inferRom = inferRom;
+			return this;
+		}
+
+		public Builder globalReset(final boolean globalReset) {
+			this.globalReset = globalReset;
+			return this;
+		}
+
+		public Builder asyncReset(final boolean asyncReset) {
+			this.asyncReset = asyncReset;
+			return this;
+		}
+
+		public Builder fsmEncoding(final Encoding fsmEncoding) {
+			this.fsmEncoding = fsmEncoding;
+			return this;
+		}
+
+		public Builder retiming(final DelayModel retiming) {
+			this.retiming = retiming;
+			return this;
+		}
+
+		public Builder maxFanout(final int maxFanout) {
+			if (maxFanout < 0)
+				throw new IllegalArgumentException("negative fanout " + maxFanout);
+			this.maxFanout = maxFanout;
+			return this;
+		}
+
+		public Builder cache(final Path cache) {
+			this.cache = cache;
+			return this;
+		}
+
+		public Builder partitioned(final boolean partitioned) {
+			this.partitioned = partitioned;
+			return this;
+		}
+
+		/**
+		 * records the given time in the XNF file instead of the time of the
+		 * conversion, making the output reproducible. null leaves the time out.
+		 */
+		public Builder timestamp(final Instant timestamp) {
+			this.timestamp = timestamp;
+			fixedTimestamp = true;
+			return this;
+		}
+
+		public Builder commandLine(final List<String> cmdline) {
+			this.cmdline = cmdline;
+			return this;
+		}
+
+		public ConversionRequest build() {
+			if (part == null && family == null)
+				throw new IllegalStateException("either family or part is required");
+			if (inputs.isEmpty())
+				throw new IllegalStateException("no input files");
+			if (partitioned && mapLogic)
+				throw new IllegalStateException("mapping logic cannot be combined with partitioned output");
+			return new ConversionRequest(this);
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package xsynth.convert;
+
+import java.util.List;
+import java.util.Map;
+
+import xsynth.Message;
+import xsynth.Message.Level;
+
+/**
+ * The outcome of a {@link ConversionRequest}.
+ *
+ * @param messages   all messages reported during the conversion, including
+ *                   INFO
+ * @param xnf        the converted netlist as an XNF file, or null if the
+ *                   conversion failed. with partitioned output, the top-level
+ *                   file.
+ * @param partitions the files of the models with partitioned output, by file
+ *                   name. empty otherwise.
+ */
+public record ConversionResult(List<Message> messages, byte[] xnf, Map<String, byte[]> partitions) {
+	/** @return whether the conversion succeeded, ie. produced an XNF file */
+	public boolean isSuccessful() {
+		return xnf != null;
+	}
+
+	/** @return the messages of the given level */
+	public List<Message> getMessages(final Level level) {
+		return messages.stream().filter(msg -> msg.level() == level).toList();
+	}
+}
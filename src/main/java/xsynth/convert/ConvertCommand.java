@@ -1,20 +1,57 @@
 package xsynth.convert;
 
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import xsynth.Argument;
+import xsynth.BufferedDiagnostics;
 import xsynth.Command;
 import xsynth.CommandName;
 import xsynth.Diagnostics;
 import xsynth.Diagnostics.AbortedException;
+import xsynth.blif.FsmRecognizer.Encoding;
+import xsynth.blif.Retimer.DelayModel;
 import xsynth.chips.ChipFamily;
 
 @CommandName("convert")
 public class ConvertCommand extends Command {
+	/**
+	 * environment variable holding the time to record in output files, see
+	 * https://reproducible-builds.org/specs/source-date-epoch/
+	 */
+	private static final String SOURCE_DATE_EPOCH = "SOURCE_DATE_EPOCH";
+	/** a change this long after the previous one is considered a separate change */
+	private static final long WATCH_DEBOUNCE_MS = 200;
+
 	@Argument(shortOption = 'm', longOptions = "merge", help = "merge the signal namespaces of all BLIF files"
 			+ " specified on the command line, connecting the models' internal signals by name. otherwise,"
 			+ " only the models' external inputs, outputs and clock inputs are connected by name.")
@@ -27,48 +64,434 @@ public class ConvertCommand extends Command {
 	@Argument(shortOption = 'p', longOptions = "part", metavar = "PART", help = "specify part name to write to"
 			+ " the XNF file. avoids having to specify it for every XACTstep command. if omitted,"
 			+ " --target-family has to be given so the correct set of chip-specific gates is loaded."
-			+ " note that part names are specified without the XC prefix, as for XACTstep.")
-	public String part;
+			+ " note that part names are specified without the XC prefix, as for XACTstep. can be given"
+			+ " several times, with one --output each, to convert the same design for several parts at once.")
+	public List<String> parts;
 	@Argument(shortOption = 'f', longOptions = "family", metavar = "FAMILY", help = "specify the chip family"
 			+ " so that the correct set of chip-specific gates is loaded. required if --part is omitted."
 			+ " supported values: 2000 3000 5200")
 	public String family;
-	@Argument(shortOption = 'o', longOptions = "output", metavar = "FILE", required = true, help = "output XNF file")
-	public String outfile;
+	@Argument(longOptions = "map", help = "map the logic onto the chip's function generators instead of leaving"
+			+ " that to XACTstep. this speeds up XACTstep and usually reduces the number of logic levels."
+			+ " on XC4000, this uses FMAP and HMAP; on XC2000 and XC3000, it groups logic and flipflops"
+			+ " into CLBs using BLKNM.")
+	public boolean mapLogic;
+	@Argument(longOptions = "auto-buffer", help = "route the clock and control nets with the highest fanout through"
+			+ " global buffers, as far as the design leaves any unused. nets with an explicit .buffer are left alone.")
+	public boolean autoBuffer;
+	@Argument(longOptions = "carry", help = "implement adders and counters using the fast carry logic, placing"
+			+ " them with RLOC. only supported for XC4000.")
+	public boolean carryChains;
+	@Argument(longOptions = "tristate-mux", help = "implement wide multiplexers with binary-encoded selects using"
+			+ " TBUFs on the long lines, as far as the device has enough of them. only supported for XC3000 and"
+			+ " XC4000.")
+	public boolean tristateMux;
+	@Argument(longOptions = "infer-ram", help = "implement register files, ie. arrays of flipflops with a write"
+			+ " address decoder and a read multiplexer, using the CLBs' RAM. only supported for XC4000E.")
+	public boolean inferRam;
+	@Argument(longOptions = "infer-rom", help = "implement constant tables, ie. groups of at least 4 functions of"
+			+ " the same 4 to 8 inputs, using ROM. only supported for XC4000.")
+	public boolean inferRom;
+	@Argument(longOptions = "global-reset", help = "find the reset that all flipflops share and connect it to"
+			+ " the global set/reset of STARTUP instead of building it into their logic. needs --async-reset."
+			+ " only supported for XC4000 and XC5200.")
+	public boolean globalReset;
+	@Argument(longOptions = "async-reset", help = "allow --global-reset to turn a synchronous reset into an"
+			+ " asynchronous one. this is only safe if the clock runs during reset.")
+	public boolean asyncReset;
+	@Argument(longOptions = "fsm", metavar = "ENCODING", help = "find state machines, ie. groups of flipflops whose"
+			+ " next state only depends on each other and on inputs, and re-encode them. ENCODING is onehot for"
+			+ " one flipflop per state, or gray for as few flipflops as possible.")
+	public String fsm;
+	@Argument(longOptions = "retime", metavar = "DELAYS", help = "move flipflops across logic to shorten the longest"
+			+ " path between them, keeping their initial state. DELAYS is unit to count every gate as one level"
+			+ " of logic, or family to count the function generators each gate needs.")
+	public String retime;
+	@Argument(longOptions = "max-fanout", metavar = "N", help = "duplicate flipflops and latches whose output"
+			+ " drives more than N loads, so that each copy drives at most N. loads in the same model are kept"
+			+ " on the same copy where possible.")
+	public String maxFanout;
+	@Argument(longOptions = "cache", metavar = "DIR", help = "keep the netlist converted from each input file in"
+			+ " DIR, and reuse it instead of converting the file again as long as neither the file nor the options"
+			+ " change. the output is the same either way.")
+	public String cacheDir;
+	@Argument(longOptions = "timestamp", metavar = "WHEN", help = "record WHEN in the XNF file instead of the"
+			+ " current time, so that converting the same files again gives identical output. WHEN is in seconds"
+			+ " since 1970, or none to leave the time out. defaults to $SOURCE_DATE_EPOCH if that is set."
+			+ " output files that would not change are not written again.")
+	public String timestamp;
+	@Argument(shortOption = 'o', longOptions = "output", metavar = "FILE", required = true, help = "output XNF"
+			+ " file. if several parts are given, the output files are in the same order.")
+	public List<String> outfiles;
+	@Argument(longOptions = "depfile", metavar = "FILE", help = "write a make rule to FILE which makes the output"
+			+ " files depend on all input files, like gcc -MD. the file is replaced atomically, so make never"
+			+ " sees it half-written.")
+	public String depfile;
+	@Argument(longOptions = "partition", help = "write the netlist of each BLIF model to an XNF file of its own,"
+			+ " named after the model and next to the output file, which then only instantiates them. XNFMERGE"
+			+ " puts them back together, so XACTstep can process each model separately. files of models that"
+			+ " haven't changed are not written again. cannot be combined with --map.")
+	public boolean partition;
+	@Argument(shortOption = 'w', longOptions = "watch", help = "keep running after the conversion, and convert"
+			+ " again whenever an input file changes. changes in quick succession, like a file being written in"
+			+ " several steps, only cause a single conversion. only the files that changed are converted again;"
+			+ " without --cache, the others are kept in a temporary cache.")
+	public boolean watch;
+
+	private final ConversionEngine engine = new ConversionEngine();
+	private final List<Target> targets = new ArrayList<>();
+	private int fanout;
+	private Encoding fsmEncoding;
+	private DelayModel delayModel;
+	private boolean fixedTimestamp;
+	private Instant time;
+	private Path cache;
 
 	public ConvertCommand(final Diagnostics diag, final List<String> cmdline) throws AbortedException {
 		super(diag, cmdline);
 	}
 
+	@Override
+	public void checkFinishes() throws AbortedException {
+		if (watch)
+			throw diag.error(null, "--watch cannot be used in a batch job or through xsynth client");
+	}
+
 	@Override
 	public void execute(final List<String> infiles) throws AbortedException {
-		if (family == null) {
-			if (part == null)
-				throw usage("either --family or --part is required");
-			family = part;
-		}
+		if (parts == null)
+			parts = List.of();
+		if (family == null && parts.isEmpty())
+			throw usage("either --family or --part is required");
+		if (family != null && parts.size() > 1)
+			throw usage("--family cannot be used with several parts");
+		if (outfiles.size() != Math.max(parts.size(), 1))
+			throw usage("--output has to be given once for every --part");
 		if (infiles.isEmpty())
 			throw usage("no input files");
-		final ChipFamily chipFamily;
+		if (partition && mapLogic)
+			throw usage("--partition cannot be combined with --map");
+		if (partition && outfiles.stream().map(file -> getFile(file).toAbsolutePath().normalize().getParent())
+				.distinct().count() < outfiles.size())
+			throw usage("--partition needs a separate directory for the output of every part");
+		if (maxFanout != null)
+			try {
+				fanout = Integer.parseInt(maxFanout);
+				if (fanout < 1)
+					throw usage("--max-fanout must be positive");
+			} catch (final NumberFormatException e) {
+				throw usage("--max-fanout: not a number: " + maxFanout);
+			}
+		if (fsm != null)
+			switch (fsm) {
+			case "onehot" -> fsmEncoding = Encoding.ONE_HOT;
+			case "gray" -> fsmEncoding = Encoding.GRAY;
+			default -> throw usage("--fsm: unknown encoding: " + fsm);
+			}
+		if (retime != null)
+			switch (retime) {
+			case "unit" -> delayModel = DelayModel.UNIT;
+			case "family" -> delayModel = DelayModel.FAMILY;
+			default -> throw usage("--retime: unknown delay model: " + retime);
+			}
+		if (timestamp == null && System.getenv(SOURCE_DATE_EPOCH) != null)
+			parseTimestamp(SOURCE_DATE_EPOCH, System.getenv(SOURCE_DATE_EPOCH));
+		else if (timestamp != null)
+			parseTimestamp("--timestamp", timestamp);
+		for (int i = 0; i < outfiles.size(); i++) {
+			final String part = i < parts.size() ? parts.get(i) : null;
+			final Target target = new Target(part, family != null ? family : part, outfiles.get(i));
+			try {
+				ChipFamily.forPart(target.family());
+			} catch (final NoSuchElementException e) {
+				throw diag.error(null, e.getMessage());
+			}
+			targets.add(target);
+		}
+		if (cacheDir != null)
+			cache = getFile(cacheDir);
+		if (!watch) {
+			convert(infiles);
+			return;
+		}
+
+		// without a cache, every change would convert all files again, not just the
+		// one that changed
+		if (cache == null)
+			try {
+				cache = Files.createTempDirectory("xsynth-cache");
+				final Path temp = cache;
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> deleteCache(temp)));
+			} catch (final IOException e) {
+				throw diag.error(null,
+						"failed to create cache: " + e.getClass().getSimpleName() + " " + e.getMessage());
+			}
 		try {
-			chipFamily = ChipFamily.forPart(family);
-		} catch (final NoSuchElementException e) {
-			throw diag.error(null, e.getMessage());
+			convert(infiles);
+		} catch (final AbortedException e) {
+			// already reported. maybe the next change fixes it.
 		}
+		watch(infiles);
+	}
+
+	private static void deleteCache(final Path directory) {
+		try (final Stream<Path> entries = Files.walk(directory)) {
+			for (final Path entry : entries.sorted(Comparator.reverseOrder()).toList())
+				Files.deleteIfExists(entry);
+		} catch (final IOException e) {
+			// it's in the temp directory, so it will be cleaned up eventually anyway
+		}
+	}
 
-		final Converter converter = new Converter(diag, chipFamily, qualifyAllNames, mergeToplevelNamespaces);
+	private void parseTimestamp(final String source, final String value) throws AbortedException {
+		fixedTimestamp = true;
+		if (value.equals("none"))
+			return;
+		try {
+			time = Instant.ofEpochSecond(Long.parseLong(value));
+		} catch (final NumberFormatException | DateTimeException e) {
+			throw usage(source + ": not a number of seconds: " + value);
+		}
+	}
+
+	/**
+	 * reads the input files once, and converts them for all targets. with several
+	 * targets, the conversions run in parallel, and their messages are reported in
+	 * one piece per target.
+	 */
+	private void convert(final List<String> infiles) throws AbortedException {
+		final List<byte[]> data = new ArrayList<>();
 		for (final String infile : infiles)
-			try {
-				converter.read(infile);
+			try (final InputStream in = new FileInputStream(getFile(infile).toFile())) {
+				data.add(in.readAllBytes());
 			} catch (final IOException e) {
 				throw diag.error(null,
 						"failed to read " + infile + ": " + e.getClass().getSimpleName() + " " + e.getMessage());
 			}
-		try (final OutputStream buffer = new FileOutputStream(outfile)) {
-			converter.writeTo(buffer, part, cmdline);
+		if (targets.size() == 1) {
+			writeDepfile(write(targets.get(0), engine.convert(getRequest(targets.get(0), infiles, data), diag)),
+					infiles);
+			return;
+		}
+
+		final ExecutorService pool = Executors.newFixedThreadPool(
+				Math.min(targets.size(), Runtime.getRuntime().availableProcessors()));
+		try {
+			final List<Future<Result>> results = new ArrayList<>();
+			for (final Target target : targets) {
+				final ConversionRequest request = getRequest(target, infiles, data);
+				results.add(pool.submit(() -> run(request)));
+			}
+			int failed = 0;
+			final List<String> outfiles = new ArrayList<>();
+			for (int i = 0; i < targets.size(); i++) {
+				final Result result = results.get(i).get();
+				result.messages().replayTo(diag);
+				if (result.output() == null)
+					failed++;
+				else
+					outfiles.addAll(write(targets.get(i), result.output()));
+			}
+			if (failed > 0)
+				throw diag.error(null, failed + " of " + targets.size() + " parts failed");
+			writeDepfile(outfiles, infiles);
+		} catch (final ExecutionException | InterruptedException e) {
+			throw new RuntimeException(e);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private Result run(final ConversionRequest request) {
+		final BufferedDiagnostics buffer = new BufferedDiagnostics();
+		try {
+			return new Result(buffer, engine.convert(request, buffer));
+		} catch (final AbortedException e) {
+			return new Result(buffer, null);
+		}
+	}
+
+	private ConversionRequest getRequest(final Target target, final List<String> infiles, final List<byte[]> data) {
+		final ConversionRequest.Builder builder = ConversionRequest.builder().part(target.part())
+				.family(target.family()).qualifyAllNames(qualifyAllNames)
+				.mergeToplevelNamespaces(mergeToplevelNamespaces).mapLogic(mapLogic).autoBuffer(autoBuffer)
+				.carryChains(carryChains).tristateMux(tristateMux).inferRam(inferRam).inferRom(inferRom)
+				.globalReset(globalReset).asyncReset(asyncReset).fsmEncoding(fsmEncoding).retiming(delayModel)
+				.maxFanout(fanout).partitioned(partition).commandLine(cmdline);
+		if (cache != null)
+			builder.cache(cache);
+		if (fixedTimestamp)
+			builder.timestamp(time);
+		for (int i = 0; i < infiles.size(); i++)
+			builder.input(infiles.get(i), data.get(i));
+		return builder.build();
+	}
+
+	/**
+	 * writes the XNF file, and the files of the partitions next to it
+	 *
+	 * @return the names of the files, as given on the command line, the partitions
+	 *         last
+	 */
+	private List<String> write(final Target target, final ConversionOutput output) throws AbortedException {
+		final Path outfile = getFile(target.outfile());
+		for (final String partition : output.partitions().keySet())
+			if (outfile.resolveSibling(partition).equals(outfile))
+				throw diag.error(null, "partition " + partition + " would overwrite " + target.outfile());
+		final List<String> unchanged = new ArrayList<>();
+		for (final Map.Entry<String, byte[]> partition : output.partitions().entrySet())
+			if (!write(outfile.resolveSibling(partition.getKey()), partition.getKey(), partition.getValue()))
+				unchanged.add(partition.getKey());
+		if (!unchanged.isEmpty())
+			diag.info(null, "partitions unchanged, not writing them again: " + String.join(" ", unchanged));
+		if (!write(outfile, target.outfile(), output.xnf()))
+			diag.info(null, target.outfile() + " is unchanged, not writing it again");
+
+		final List<String> files = new ArrayList<>();
+		files.add(target.outfile());
+		for (final String partition : output.partitions().keySet())
+			files.add(Path.of(target.outfile()).resolveSibling(partition).toString());
+		return files;
+	}
+
+	/**
+	 * writes a file, unless it already has exactly that content. with a fixed
+	 * timestamp, this keeps the file's modification time when nothing changed, so
+	 * that make doesn't rebuild everything that depends on it.
+	 *
+	 * @return false if the file was left alone
+	 */
+	private boolean write(final Path file, final String filename, final byte[] data) throws AbortedException {
+		try {
+			if (Files.isRegularFile(file) && Files.size(file) == data.length
+					&& Arrays.equals(Files.readAllBytes(file), data))
+				return false;
+		} catch (final IOException e) {
+			// just write it again
+		}
+		try (final OutputStream out = new FileOutputStream(file.toFile())) {
+			out.write(data);
+			return true;
+		} catch (final IOException e) {
+			throw diag.error(null,
+					"failed to write " + filename + ": " + e.getClass().getSimpleName() + " " + e.getMessage());
+		}
+	}
+
+	/**
+	 * writes the rule for make, if requested. the partitions are targets too, so
+	 * that make knows the conversion creates them. every input file also gets an
+	 * empty rule of its own, so that make doesn't fail when an input file is
+	 * deleted, but just runs the conversion again. written to a temporary file
+	 * first and then renamed, so that a parallel make never reads a partial rule.
+	 */
+	private void writeDepfile(final List<String> outfiles, final List<String> infiles) throws AbortedException {
+		if (depfile == null)
+			return;
+		final StringBuilder rule = new StringBuilder();
+		for (final String outfile : outfiles)
+			rule.append(rule.length() > 0 ? " " : "").append(escapeMake(outfile));
+		rule.append(':');
+		for (final String infile : infiles)
+			rule.append(" \\\n ").append(escapeMake(infile));
+		rule.append('\n');
+		for (final String infile : infiles)
+			rule.append('\n').append(escapeMake(infile)).append(":\n");
+
+		final Path file = getFile(depfile).toAbsolutePath();
+		try {
+			final Path temp = Files.createTempFile(file.getParent(), file.getFileName() + ".", ".tmp");
+			try {
+				Files.writeString(temp, rule);
+				try {
+					Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				} catch (final AtomicMoveNotSupportedException e) {
+					Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} finally {
+				Files.deleteIfExists(temp);
+			}
 		} catch (final IOException e) {
 			throw diag.error(null,
-					"failed to write " + outfile + ": " + e.getClass().getSimpleName() + " " + e.getMessage());
+					"failed to write " + depfile + ": " + e.getClass().getSimpleName() + " " + e.getMessage());
 		}
 	}
+
+	/**
+	 * escapes the characters that make would otherwise interpret in file names,
+	 * the same ones gcc escapes
+	 */
+	private static String escapeMake(final String filename) {
+		final StringBuilder escaped = new StringBuilder();
+		for (final char ch : filename.toCharArray())
+			switch (ch) {
+			case ' ', '#' -> escaped.append('\\').append(ch);
+			case '$' -> escaped.append("$$");
+			default -> escaped.append(ch);
+			}
+		return escaped.toString();
+	}
+
+	/**
+	 * watches the directories containing the input files, and converts again
+	 * whenever one of the input files changes. never returns unless interrupted.
+	 */
+	private void watch(final List<String> infiles) throws AbortedException {
+		try (final WatchService watcher = FileSystems.getDefault().newWatchService()) {
+			final Map<Path, String> files = new HashMap<>();
+			final Map<WatchKey, Path> directories = new HashMap<>();
+			for (final String infile : infiles) {
+				final Path file = getFile(infile).toAbsolutePath().normalize();
+				files.put(file, infile);
+				if (!directories.containsValue(file.getParent()))
+					directories.put(file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+							StandardWatchEventKinds.ENTRY_MODIFY), file.getParent());
+			}
+			diag.info(null, "watching " + files.size() + " input files for changes");
+
+			while (true) {
+				final Set<String> changed = new LinkedHashSet<>();
+				WatchKey key = watcher.take();
+				// wait until the files have stopped changing, ie. until they have been
+				// written completely
+				while (key != null) {
+					for (final WatchEvent<?> event : key.pollEvents())
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+							changed.addAll(infiles);
+						else {
+							final String infile = files.get(directories.get(key).resolve((Path) event.context()));
+							if (infile != null)
+								changed.add(infile);
+						}
+					key.reset();
+					key = watcher.poll(WATCH_DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+				}
+				if (changed.isEmpty())
+					continue;
+
+				diag.info(null, "converting again because of changes to " + String.join(" ", changed));
+				try {
+					convert(infiles);
+				} catch (final AbortedException e) {
+					// already reported. keep the old output and wait for the next change.
+				}
+			}
+		} catch (final IOException e) {
+			throw diag.error(null,
+					"failed to watch input files: " + e.getClass().getSimpleName() + " " + e.getMessage());
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * a part to convert for, and the file to write the result to. the family
+	 * selects the chip-specific gates, and is usually the part.
+	 */
+	private static record Target(String part, String family, String outfile) {
+	}
+
+	/** messages of a conversion, and the XNF files, or null if it failed */
+	private static record Result(BufferedDiagnostics messages, ConversionOutput output) {
+	}
 }
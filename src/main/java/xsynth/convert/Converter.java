@@ -1,53 +1,275 @@
 package xsynth.convert;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.TemporalAccessor;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
+import xsynth.BufferedDiagnostics;
 import xsynth.Diagnostics;
 import xsynth.Diagnostics.AbortedException;
+import xsynth.Message;
+import xsynth.SourceLocation;
+import xsynth.XSynth;
+import xsynth.blif.ArithmeticRecognizer;
+import xsynth.blif.ArithmeticRecognizer.AdderBit;
+import xsynth.blif.ArithmeticRecognizer.AdderChain;
 import xsynth.blif.BlifGate;
 import xsynth.blif.BlifModel;
 import xsynth.blif.BlifParser;
+import xsynth.blif.CustomGate;
+import xsynth.blif.FsmRecognizer;
+import xsynth.blif.FsmRecognizer.Encoding;
+import xsynth.blif.FsmRecognizer.Reencoding;
+import xsynth.blif.FsmRecognizer.StateMachine;
+import xsynth.blif.GatedClockRecognizer;
+import xsynth.blif.GatedClockRecognizer.Conversion;
+import xsynth.blif.GatedClockRecognizer.GatedClock;
 import xsynth.blif.Latch;
 import xsynth.blif.LatchInitialValue;
+import xsynth.blif.RegisterFileRecognizer;
+import xsynth.blif.RegisterFileRecognizer.RegisterFile;
+import xsynth.blif.ResetRecognizer;
+import xsynth.blif.ResetRecognizer.ResetRegister;
+import xsynth.blif.ResetRecognizer.ResetTerm;
+import xsynth.blif.Retimer;
+import xsynth.blif.Retimer.DelayModel;
+import xsynth.blif.Retimer.Retiming;
+import xsynth.blif.RomRecognizer;
+import xsynth.blif.RomRecognizer.Rom;
 import xsynth.blif.SumOfProducts;
 import xsynth.blif.SumOfProducts.Product;
 import xsynth.blif.SumOfProducts.ProductTerm;
 import xsynth.chips.ChipFamily;
+import xsynth.chips.Device;
+import xsynth.convert.FragmentCache.Recorder;
 import xsynth.naming.Name;
+import xsynth.naming.NameTable;
+import xsynth.naming.NameTable.NotWritableException;
 import xsynth.naming.Namespace;
 import xsynth.naming.SpecialName;
 import xsynth.xnf.LatchType;
+import xsynth.xnf.PinDirection;
+import xsynth.xnf.XnfFragment;
+import xsynth.xnf.XnfGate;
 import xsynth.xnf.XnfNetlist;
+import xsynth.xnf.XnfNetlist.BufferedNets;
+import xsynth.xnf.XnfNetlist.MappingStatistics;
 import xsynth.xnf.XnfNetlist.Term;
+import xsynth.xnf.XnfPartition;
 import xsynth.xnf.XnfWriter;
 
 public class Converter {
-	private final Map<String, BlifModel> drivers = new LinkedHashMap<>();
-	private final Map<String, BlifModel> consumers = new LinkedHashMap<>();
+	/** fewer loads than that can just as well use general routing */
+	private static final int AUTO_BUFFER_MIN_FANOUT = 4;
+	/** narrower gates fit into a few function generators just fine */
+	private static final int WIDE_DECODER_MIN_INPUTS = 16;
+	/** shorter adders are just as fast in plain function generators */
+	private static final int CARRY_CHAIN_MIN_BITS = 4;
+	/** narrower muxes are cheaper in function generators than in TBUFs */
+	private static final int TRISTATE_MUX_MIN_INPUTS = 8;
+	/** smaller register files waste most of the RAM they occupy */
+	private static final int RAM_MIN_WORDS = 4;
+	/** address bits of the single-ported (RAMS) and dual-ported (RAMD) RAMs */
+	private static final int RAMS_ADDRESS_BITS = 5, RAMD_ADDRESS_BITS = 4;
+	/** smaller tables fit into a function generator per bit anyway */
+	private static final int ROM_MIN_ADDRESS_BITS = 4, ROM_MIN_OUTPUTS = 4;
+	/** deeper tables need too many banks to be worth it */
+	private static final int ROM_MAX_ADDRESS_BITS = 8;
+	/** a reset used by fewer flipflops is probably something else */
+	private static final int GLOBAL_RESET_MIN_REGISTERS = 4;
+	/** smaller state machines are just a pair of flipflops */
+	private static final int FSM_MIN_STATES = 3;
+	/** larger ones need too many flipflops in one-hot encoding */
+	private static final int FSM_MAX_STATES = 16, FSM_MAX_BITS = 8;
+	/** more inputs make the next-state logic too expensive to enumerate */
+	private static final int FSM_MAX_INPUTS = 6;
+
+	private final Map<String, ModelInfo> drivers = new LinkedHashMap<>();
+	private final Map<String, ModelInfo> consumers = new LinkedHashMap<>();
 	private final Diagnostics diag;
+	private final Recorder recorder;
+	private FragmentCache cache;
+	private final ChipFamily family;
 	private final BlifParser reader;
 	private final Namespace root;
 	private final XnfNetlist xnf;
 	private final boolean mergeToplevelNamespaces;
+	private boolean mapLogic;
+	private boolean autoBuffer;
+	private int maxFanout;
+	private int decodersLeft;
+	private Device device;
+	private boolean carryChains;
+	private int carryChainColumns;
+	private boolean tristateMux;
+	private int longLinesLeft;
+	private boolean inferRam;
+	private boolean inferRom;
+	private boolean globalReset;
+	private boolean asyncReset;
+	private Encoding fsmEncoding;
+	private DelayModel retiming;
+	private boolean fixedTimestamp;
+	private Instant timestamp;
+	private boolean hasStartup;
+	private ResetTerm resetTerm;
+	private boolean resetIsPort;
+	private Name resetName;
+	private final List<MappedReset> resetRegisters = new ArrayList<>();
+	private final List<String> otherRegisters = new ArrayList<>();
+	private final Map<Namespace, Map<String, Name>> muxEnables = new IdentityHashMap<>();
 
 	public Converter(final Diagnostics diag, final ChipFamily family, final boolean qualifyAllNames,
 			final boolean mergeToplevelNamespaces) {
-		this.diag = diag;
+		// messages go through the recorder so they can be stored with cached fragments
+		this.diag = recorder = new Recorder(diag);
+		this.family = family;
 		this.mergeToplevelNamespaces = mergeToplevelNamespaces;
-		reader = new BlifParser(diag, family.getCustomGates(), family.getBufferTypes());
+		reader = new BlifParser(this.diag, family.getCustomGates(), family.getBufferTypes());
 		root = new Namespace(qualifyAllNames);
 		xnf = new XnfNetlist(family.getMaxGateInputs(), family.hasLatches(), family.hasLatchInitValue());
+		decodersLeft = family.getWideDecoders();
+		setDevice(family.getDevice(""));
+	}
+
+	/**
+	 * sets the device within the family, for the resources that depend on its
+	 * size. defaults to the family's smallest device.
+	 */
+	public void setDevice(final Device device) {
+		this.device = device;
+		longLinesLeft = device.getLongLines();
+	}
+
+	/**
+	 * enables mapping the logic onto the chip's function generators, instead of
+	 * leaving that to XACTstep. does nothing for families where that isn't
+	 * supported.
+	 */
+	public void setMapLogic(final boolean mapLogic) {
+		this.mapLogic = mapLogic;
+	}
+
+	/**
+	 * enables automatically routing high-fanout clock and control nets through
+	 * the global buffers that the design doesn't use explicitly.
+	 */
+	public void setAutoBuffer(final boolean autoBuffer) {
+		this.autoBuffer = autoBuffer;
+	}
+
+	/**
+	 * enables duplicating flipflops and latches that drive more than the given
+	 * number of loads. 0 disables duplication.
+	 */
+	public void setMaxFanout(final int maxFanout) {
+		this.maxFanout = maxFanout;
+	}
+
+	/**
+	 * enables implementing adders and counters using the chip's fast carry logic.
+	 * does nothing for families that don't have any.
+	 */
+	public void setCarryChains(final boolean carryChains) {
+		this.carryChains = carryChains;
+	}
+
+	/**
+	 * enables implementing wide multiplexers using TBUFs on the long lines. does
+	 * nothing for families that don't have any.
+	 */
+	public void setTristateMux(final boolean tristateMux) {
+		this.tristateMux = tristateMux;
+	}
+
+	/**
+	 * enables implementing register files using the chip's synchronous RAM. does
+	 * nothing for families that don't have any.
+	 */
+	public void setInferRam(final boolean inferRam) {
+		this.inferRam = inferRam;
+	}
+
+	/**
+	 * enables implementing constant tables using the chip's ROM. does nothing for
+	 * families that don't have any.
+	 */
+	public void setInferRom(final boolean inferRom) {
+		this.inferRom = inferRom;
+	}
+
+	/**
+	 * enables moving the most common synchronous reset of the flipflops to the
+	 * chip's global set/reset. does nothing for families that don't have one.
+	 */
+	public void setGlobalReset(final boolean globalReset) {
+		this.globalReset = globalReset;
+	}
+
+	/**
+	 * allows the global reset to replace a synchronous reset, which makes it
+	 * asynchronous. without this, the reset found by
+	 * {@link #setGlobalReset(boolean)} is only reported.
+	 */
+	public void setAsyncReset(final boolean asyncReset) {
+		this.asyncReset = asyncReset;
+	}
+
+	/**
+	 * enables re-encoding state machines using the given encoding. null disables
+	 * state machine extraction.
+	 */
+	public void setFsmEncoding(final Encoding fsmEncoding) {
+		this.fsmEncoding = fsmEncoding;
+	}
+
+	/**
+	 * enables moving flipflops across logic to balance the depth of logic between
+	 * them, using the given delay model. null disables retiming.
+	 */
+	public void setRetiming(final DelayModel retiming) {
+		this.retiming = retiming;
+	}
+
+	/**
+	 * keeps the netlist converted from each input file in the given cache, and
+	 * loads it from there instead of converting the file again if neither the
+	 * file nor anything else its conversion depends on has changed. null disables
+	 * caching.
+	 */
+	public void setCache(final FragmentCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * records the given time in the XNF file instead of the time of the
+	 * conversion, so that converting the same files gives the same output. the
+	 * time is written in UTC. null leaves the time out altogether.
+	 */
+	public void setTimestamp(final Instant timestamp) {
+		this.timestamp = timestamp;
+		fixedTimestamp = true;
 	}
 
 	public void read(final String filename) throws IOException, AbortedException {
@@ -56,36 +278,212 @@ public class Converter {
 		}
 	}
 
-	public void read(final InputStream in, final String filename) throws IOException, AbortedException {
-		final BlifModel model = reader.parse(in, filename);
-		final Set<String> outputs;
-		final Set<String> inputs;
-		if (mergeToplevelNamespaces) {
-			// if the toplevel namespaces are merged, simply assume that *all* signals in
-			// the model are ports
-			outputs = model.getDrivers();
-			inputs = model.getConsumers();
-		} else {
-			outputs = model.getOutputs();
-			inputs = model.getInputs();
+	private void inferRam(final BlifModel model, final RegisterFile file) throws AbortedException {
+		final String type = file.isDualPort() ? "RAMD" : "RAMS";
+		final Map<String, String> inputs = new LinkedHashMap<>();
+		final Map<String, String> outputs = new LinkedHashMap<>();
+		for (int i = 0; i < file.writeAddress().size(); i++) {
+			inputs.put("A" + i, file.writeAddress().get(i));
+			if (file.isDualPort())
+				inputs.put("DPRA" + i, file.readAddress().get(i));
 		}
-		AbortedException err = null;
-		for (final String out : outputs)
-			if (drivers.containsKey(out)) {
-				final BlifModel driver = drivers.get(out);
-				err = diag.error(model.getSourceLocation(), "global signal " + out + " has multiple drivers");
-				diag.info(driver.getSourceLocation(), "model " + driver.getName() + " also drives " + out);
-			} else
-				drivers.put(out, model);
-		if (err != null)
-			throw err;
-		for (final String i : inputs)
-			consumers.put(i, model);
+		inputs.put("WE", file.writeEnable());
+		inputs.put("WCLK", file.clock());
+		for (int i = 0; i < file.data().size(); i++) {
+			inputs.put("D" + i, file.data().get(i));
+			outputs.put((file.isDualPort() ? "DPO" : "O") + i, file.outputs().get(i));
+		}
+		final List<CustomGate> rams = family.getCustomGates().get(type).newInstance(diag, model.getSourceLocation(),
+				type, List.of(), outputs, inputs);
+		model.replaceGates(file.gates(), rams);
+		diag.info(model.getSourceLocation(), "using " + type + " for " + (1 << file.writeAddress().size()) + "x"
+				+ file.data().size() + " register file " + String.join(",", file.outputs()));
+	}
+
+	/**
+	 * clocks flipflops with a gated clock by the clock itself, moving the enable to
+	 * their clock enable or, for families without one, to a feedback multiplexer.
+	 * clocks derived by any other logic are left alone with a warning because they
+	 * end up on general interconnect.
+	 */
+	private void convertGatedClocks(final BlifModel model) {
+		final GatedClockRecognizer recognizer = new GatedClockRecognizer(model);
+		for (final GatedClock gated : recognizer.findGatedClocks()) {
+			final String latches = String.join(",", gated.latches().stream().map(Latch::getDataOutput).toList());
+			if (!gated.isConvertible()) {
+				diag.warn(model.getSourceLocation(), "flipflops " + latches + " are clocked by logic " + gated.net()
+						+ ", which combines a clock with other signals in a way that cannot be turned into a clock enable");
+				continue;
+			}
+			final Conversion conversion = recognizer.convert(gated, family.hasClockEnable());
+			model.replaceGates(conversion.removed(), conversion.added());
+			diag.info(model.getSourceLocation(), "clocking flipflops " + latches + " by " + gated.clock().getInput()
+					+ " with " + (family.hasClockEnable() ? "clock enable" : "feedback multiplexer")
+					+ " instead of gated clock " + gated.net());
+		}
+	}
+
+	/**
+	 * retimes the flipflops of the model's most common clock, reporting the depth
+	 * of logic in front of the flipflops before and after.
+	 */
+	private void retime(final BlifModel model) {
+		final int lutInputs = family.getFunctionGeneratorInputs() > 0 ? family.getFunctionGeneratorInputs()
+				: family.getClbFunctionInputs() > 0 ? family.getClbFunctionInputs() : 4;
+		final Retiming result = new Retimer(model, retiming, lutInputs).retime();
+		if (result == null)
+			return;
+		final String what = "flipflops clocked by " + result.clock();
+		if (!result.refusal().isEmpty()) {
+			diag.warn(model.getSourceLocation(), "not retiming " + what + " from " + result.periodBefore() + " to "
+					+ result.periodAfter() + " levels of logic: it would change the initial values of flipflops after "
+					+ String.join(",", result.refusal()));
+			return;
+		}
+		if (result.periodAfter() == result.periodBefore()) {
+			diag.info(model.getSourceLocation(), "retiming cannot improve " + what + ": " + result.periodBefore()
+					+ " levels of logic; " + getDepths(result.depthsBefore()));
+			return;
+		}
+		model.replaceGates(result.removed(), result.added());
+		diag.info(model.getSourceLocation(),
+				"retimed " + what + " from " + result.periodBefore() + " to " + result.periodAfter()
+						+ " levels of logic; before: " + getDepths(result.depthsBefore()) + "; after: "
+						+ getDepths(result.depthsAfter()));
+	}
+
+	private static String getDepths(final Map<Integer, Integer> depths) {
+		final List<String> list = new ArrayList<>();
+		depths.forEach((depth, count) -> list.add(count + " at depth " + depth));
+		return String.join(", ", list);
+	}
+
+	/**
+	 * strips the reset term shared by most flipflops from their data logic, so that
+	 * it can be connected to STARTUP instead. the global reset affects all storage
+	 * elements, so those which don't use that reset are collected: if there are
+	 * any, the reset isn't mapped after all, and {@link #writeTo} puts it back in
+	 * front of the flipflops. the first model with a common reset decides which
+	 * signal that is; later models can only share it if it is a global signal.
+	 */
+	private void mapGlobalReset(final Namespace ns, final BlifModel model) throws AbortedException {
+		final String pin = family.getGlobalResetPin();
+		for (final BlifGate gate : model.getGates())
+			if (gate instanceof final XnfCustomGate cg && "STARTUP".equalsIgnoreCase(cg.name)) {
+				if (resetTerm != null)
+					throw diag.error(model.getSourceLocation(), "STARTUP conflicts with the reset already"
+							+ " mapped onto " + pin + ": " + resetTerm.signal());
+				if (!hasStartup)
+					diag.warn(model.getSourceLocation(),
+							"STARTUP instantiated explicitly, not mapping any reset onto " + pin);
+				hasStartup = true;
+			}
+		final List<Latch> storage = new ArrayList<>();
+		for (final BlifGate gate : model.getGates())
+			if (gate instanceof final Latch latch)
+				storage.add(latch);
+		if (hasStartup)
+			return;
 
+		final Map<ResetTerm, List<ResetRegister>> resets = new ResetRecognizer(model).findResets();
+		ResetTerm term = resetTerm;
+		if (term == null) {
+			for (final ResetTerm candidate : resets.keySet())
+				if (resets.get(candidate).size() >= GLOBAL_RESET_MIN_REGISTERS
+						&& (term == null || resets.get(candidate).size() > resets.get(term).size()))
+					term = candidate;
+		} else if (!resetIsPort || !model.getInputs().contains(term.signal()))
+			term = null;
+
+		final List<ResetRegister> registers = term != null ? resets.getOrDefault(term, List.of()) : List.of();
+		for (final ResetRegister reg : registers) {
+			// the flipflop's initial value is also what the global reset sets it to
+			final Latch latch = reg.latch();
+			final LatchInitialValue init = latch.getInitialValue();
+			if (reg.value() ? init == LatchInitialValue.RESET || !family.hasLatchInitValue()
+					: init == LatchInitialValue.PRESET)
+				continue;
+			final Latch replacement = new Latch(latch.getDataOutput(), latch.getDataInput(), latch.getType(),
+					latch.getClockInput(), reg.value() ? LatchInitialValue.PRESET : LatchInitialValue.RESET);
+			model.replaceGates(List.of(reg.next(), latch),
+					List.of(reg.next().getCofactor(term.signal(), !term.activeHigh()), replacement));
+			storage.remove(latch);
+			resetRegisters
+					.add(new MappedReset(latch.getDataOutput(), ns.getGlobal(latch.getDataInput()), reg.value()));
+		}
+		storage.forEach(latch -> otherRegisters.add(latch.getDataOutput()));
+		if (resetTerm == null && term != null) {
+			resetTerm = term;
+			resetName = ns.getGlobal(term.signal());
+			resetIsPort = model.getInputs().contains(term.signal()) || model.getOutputs().contains(term.signal());
+		}
+	}
+
+	public void read(final InputStream in, final String filename) throws IOException, AbortedException {
+		if (cache != null)
+			readCached(in.readAllBytes(), filename);
+		else
+			convert(reader.parse(in, filename));
+	}
+
+	private void convert(final BlifModel model) throws AbortedException {
+		final Set<String> outputs = getOutputs(model);
+		final Set<String> inputs = getInputs(model);
+		connect(new ModelInfo(model.getName(), model.getSourceLocation()), outputs, inputs);
 		final Set<String> ports = new LinkedHashSet<>();
 		ports.addAll(inputs);
 		ports.addAll(outputs);
 		final Namespace ns = root.getNamespace(model.getName(), ports);
+		xnf.setPartition(ns);
+		try {
+			implement(ns, model);
+		} finally {
+			xnf.setPartition(null);
+		}
+	}
+
+	private void implement(final Namespace ns, final BlifModel model) throws AbortedException {
+		convertGatedClocks(model);
+		if (inferRam && family.getCustomGates().containsKey("RAMD"))
+			for (final RegisterFile file : new RegisterFileRecognizer(model).findRegisterFiles(RAM_MIN_WORDS,
+					RAMS_ADDRESS_BITS, RAMD_ADDRESS_BITS))
+				inferRam(model, file);
+		if (carryChains && family.hasCarryLogic())
+			for (final AdderChain chain : new ArithmeticRecognizer(model).findChains(CARRY_CHAIN_MIN_BITS)) {
+				// each chain gets its own RLOC column so they don't collide
+				model.replaceGates(chain.gates(), List.of(new CarryChain(chain, carryChainColumns++)));
+				final List<AdderBit> bits = chain.bits();
+				diag.info(model.getSourceLocation(), "using carry logic for " + bits.size() + "-bit adder "
+						+ bits.get(bits.size() - 1).sum() + ".." + bits.get(0).sum());
+			}
+		if (inferRom && family.getRomAddressBits() > 0)
+			for (final Rom rom : new RomRecognizer(model).findRoms(ROM_MIN_ADDRESS_BITS, ROM_MAX_ADDRESS_BITS,
+					ROM_MIN_OUTPUTS)) {
+				final int romAddressBits = family.getRomAddressBits();
+				model.replaceGates(rom.gates(), List.of(new RomTable(rom, romAddressBits)));
+				final int banks = RomTable.getBanks(rom.address().size(), romAddressBits);
+				diag.info(model.getSourceLocation(),
+						"using ROM for " + (1 << rom.address().size()) + "x" + rom.outputs().size() + " table "
+								+ String.join(",", rom.outputs())
+								+ (banks > 1 ? " (" + banks + " banks per bit)" : ""));
+			}
+		if (fsmEncoding != null) {
+			final FsmRecognizer fsms = new FsmRecognizer(model);
+			for (final StateMachine fsm : fsms.findStateMachines(FSM_MIN_STATES, FSM_MAX_STATES, FSM_MAX_BITS,
+					FSM_MAX_INPUTS)) {
+				final Reencoding reencoding = fsms.reencode(fsm, fsmEncoding, FSM_MAX_INPUTS);
+				model.replaceGates(reencoding.removed(), reencoding.added());
+				diag.info(model.getSourceLocation(),
+						"re-encoding " + fsm.states().size() + "-state machine "
+								+ String.join(",", fsm.state().stream().map(Latch::getDataOutput).toList()) + " "
+								+ (fsmEncoding == Encoding.ONE_HOT ? "one-hot" : "Gray") + " as "
+								+ String.join(",", reencoding.bits()));
+			}
+		}
+		if (globalReset && family.getGlobalResetPin() != null)
+			mapGlobalReset(ns, model);
+		if (retiming != null)
+			retime(model);
 		for (final BlifGate gate : model.getGates())
 			if (gate instanceof final SumOfProducts sop)
 				implementSumOfProducts(ns, model, sop);
@@ -98,33 +496,369 @@ public class Converter {
 						+ gate.getClass().getSimpleName() + " gate for outputs=" + gate.getOutputs());
 	}
 
+	private Set<String> getOutputs(final BlifModel model) {
+		// if the toplevel namespaces are merged, simply assume that *all* signals in
+		// the model are ports
+		return mergeToplevelNamespaces ? model.getDrivers() : model.getOutputs();
+	}
+
+	private Set<String> getInputs(final BlifModel model) {
+		return mergeToplevelNamespaces ? model.getConsumers() : model.getInputs();
+	}
+
+	/**
+	 * connects a model's ports to the global signals, making sure that every
+	 * global signal has a single driver
+	 */
+	private void connect(final ModelInfo model, final Collection<String> outputs, final Collection<String> inputs)
+			throws AbortedException {
+		AbortedException err = null;
+		for (final String out : outputs)
+			if (drivers.containsKey(out)) {
+				final ModelInfo driver = drivers.get(out);
+				err = diag.error(model.sloc(), "global signal " + out + " has multiple drivers");
+				diag.info(driver.sloc(), "model " + driver.name() + " also drives " + out);
+			} else
+				drivers.put(out, model);
+		if (err != null)
+			throw err;
+		for (final String i : inputs)
+			consumers.put(i, model);
+	}
+
+	/**
+	 * converts a file, or loads it from the cache if it has been converted before.
+	 * everything the file's conversion depends on goes into the key, including
+	 * the state left behind by the files before it, so a stored fragment always
+	 * comes out exactly as a fresh conversion would.
+	 */
+	private void readCached(final byte[] data, final String filename) throws IOException, AbortedException {
+		final ByteArrayOutputStream key = new ByteArrayOutputStream();
+		try (final DataOutputStream out = new DataOutputStream(key)) {
+			out.writeUTF(XSynth.getVersion());
+			out.writeUTF(family.getClass().getName());
+			out.writeUTF(device.name());
+			out.writeUTF(List.of(mergeToplevelNamespaces, carryChains, tristateMux, inferRam, inferRom, globalReset,
+					String.valueOf(fsmEncoding), String.valueOf(retiming)).toString());
+			out.writeUTF(filename);
+			out.writeInt(data.length);
+			out.write(data);
+			writeState(out);
+		}
+		final byte[] entry = cache.load(key.toByteArray());
+		if (entry != null && loadFragment(new DataInputStream(new ByteArrayInputStream(entry))))
+			return;
+
+		final Set<String> known = new HashSet<>(reader.getModels().keySet());
+		final List<String> outputs, inputs;
+		final XnfFragment fragment = new XnfFragment(xnf);
+		final int resets = resetRegisters.size(), others = otherRegisters.size();
+		final Name reset = resetName;
+		final NameTable names = new NameTable(root);
+		final BlifModel model;
+		final List<Name> created;
+		final List<Message> parsed, converted;
+		final int recheck;
+		recorder.start();
+		try {
+			// the models of earlier files are checked again after every file. their
+			// messages belong to those files, not this one.
+			model = reader.parse(new ByteArrayInputStream(data), filename,
+					earlier -> reader.checkModels(earlier, recorder.mark()));
+			parsed = recorder.stop();
+			recheck = recorder.getMark();
+			outputs = List.copyOf(getOutputs(model));
+			inputs = List.copyOf(getInputs(model));
+			recorder.start();
+			names.startRecording();
+			convert(model);
+		} finally {
+			created = names.stopRecording();
+			converted = recorder.stop();
+		}
+
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (final DataOutputStream out = new DataOutputStream(buffer)) {
+			final Map<String, BlifModel> models = new LinkedHashMap<>(reader.getModels());
+			models.keySet().removeAll(known);
+			out.writeInt(models.size());
+			for (final BlifModel m : models.values()) {
+				out.writeUTF(m.getName());
+				writeSourceLocation(out, m.getSourceLocation());
+				final BufferedDiagnostics checked = new BufferedDiagnostics();
+				reader.checkModels(List.of(m), checked);
+				FragmentCache.writeMessages(out, checked.getMessages());
+			}
+			out.writeUTF(model.getName());
+			writeSourceLocation(out, model.getSourceLocation());
+			writeStrings(out, outputs);
+			writeStrings(out, inputs);
+			FragmentCache.writeMessages(out, parsed);
+			out.writeInt(recheck);
+			FragmentCache.writeMessages(out, converted);
+			names.writeCreated(out, created);
+			fragment.write(out, xnf, names);
+			writeState(out);
+			out.writeBoolean(resetName != reset);
+			if (resetName != reset)
+				names.writeRef(out, resetName);
+			out.writeInt(resetRegisters.size() - resets);
+			for (final MappedReset reg : resetRegisters.subList(resets, resetRegisters.size())) {
+				out.writeUTF(reg.register());
+				names.writeRef(out, reg.input());
+				out.writeBoolean(reg.value());
+			}
+			writeStrings(out, otherRegisters.subList(others, otherRegisters.size()));
+		} catch (final NotWritableException e) {
+			// refers to something another file created. it'll just be converted again.
+			return;
+		}
+		try {
+			cache.store(key.toByteArray(), buffer.toByteArray());
+		} catch (final IOException e) {
+			diag.warn(null, "failed to store " + filename + " in cache: " + e.getClass().getSimpleName() + " "
+					+ e.getMessage());
+		}
+	}
+
+	/**
+	 * adds a stored fragment to the netlist
+	 *
+	 * @return false if the fragment cannot be used because its models conflict
+	 *         with ones already read. the file then has to be parsed so that the
+	 *         conflict is reported properly.
+	 */
+	private boolean loadFragment(final DataInputStream in) throws IOException, AbortedException {
+		final Map<String, SourceLocation> models = new LinkedHashMap<>();
+		final Map<String, List<Message>> checked = new HashMap<>();
+		final int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			final String name = in.readUTF();
+			models.put(name, readSourceLocation(in));
+			checked.put(name, FragmentCache.readMessages(in));
+		}
+		for (final String name : models.keySet())
+			if (reader.getModels().containsKey(name))
+				return false;
+
+		final ModelInfo model = new ModelInfo(in.readUTF(), readSourceLocation(in));
+		final List<String> outputs = readStrings(in);
+		final List<String> inputs = readStrings(in);
+		final List<Message> parsed = FragmentCache.readMessages(in);
+		final int recheck = in.readInt();
+		final List<Message> converted = FragmentCache.readMessages(in);
+		parsed.subList(0, recheck).forEach(msg -> msg.replayTo(diag));
+		reader.checkModels(List.copyOf(reader.getModels().values()), diag);
+		models.forEach((name, sloc) -> reader.declareModel(name, sloc, checked.get(name)));
+		parsed.subList(recheck, parsed.size()).forEach(msg -> msg.replayTo(diag));
+		connect(model, outputs, inputs);
+		final NameTable names = new NameTable(root);
+		names.readCreated(in);
+		// the model's namespace has just been created by readCreated()
+		xnf.setPartition(root.getNamespace(model.name(), List.of()));
+		try {
+			XnfFragment.read(in, xnf, names);
+		} finally {
+			xnf.setPartition(null);
+		}
+		converted.forEach(msg -> msg.replayTo(diag));
+
+		decodersLeft = in.readInt();
+		carryChainColumns = in.readInt();
+		longLinesLeft = in.readInt();
+		hasStartup = in.readBoolean();
+		resetTerm = in.readBoolean() ? new ResetTerm(in.readUTF(), in.readBoolean()) : null;
+		resetIsPort = in.readBoolean();
+		if (in.readBoolean())
+			resetName = names.readRef(in);
+		final int mapped = in.readInt();
+		for (int i = 0; i < mapped; i++)
+			resetRegisters.add(new MappedReset(in.readUTF(), names.readRef(in), in.readBoolean()));
+		otherRegisters.addAll(readStrings(in));
+		return true;
+	}
+
+	/**
+	 * writes the state that carries over from one file to the next
+	 */
+	private void writeState(final DataOutputStream out) throws IOException {
+		out.writeInt(decodersLeft);
+		out.writeInt(carryChainColumns);
+		out.writeInt(longLinesLeft);
+		out.writeBoolean(hasStartup);
+		out.writeBoolean(resetTerm != null);
+		if (resetTerm != null) {
+			out.writeUTF(resetTerm.signal());
+			out.writeBoolean(resetTerm.activeHigh());
+		}
+		out.writeBoolean(resetIsPort);
+	}
+
+	private static void writeSourceLocation(final DataOutputStream out, final SourceLocation sloc)
+			throws IOException {
+		out.writeUTF(sloc.getFilename());
+		out.writeInt(sloc.getLineNumber());
+	}
+
+	private static SourceLocation readSourceLocation(final DataInputStream in) throws IOException {
+		return new SourceLocation(in.readUTF(), in.readInt());
+	}
+
+	private static void writeStrings(final DataOutputStream out, final Collection<String> strings)
+			throws IOException {
+		out.writeInt(strings.size());
+		for (final String s : strings)
+			out.writeUTF(s);
+	}
+
+	private static List<String> readStrings(final DataInputStream in) throws IOException {
+		final List<String> strings = new ArrayList<>();
+		final int count = in.readInt();
+		for (int i = 0; i < count; i++)
+			strings.add(in.readUTF());
+		return strings;
+	}
+
 	public void writeTo(final OutputStream out, final String part, final List<String> cmdline) throws IOException {
+		finish();
+		try (XnfWriter writer = new XnfWriter(out)) {
+			writer.writeHeader(root, part, cmdline, getTimestamp());
+			writer.writeNetlist(xnf);
+		}
+	}
+
+	/**
+	 * writes each model to an XNF file of its own, and a top-level file which
+	 * instantiates them, for XNFMERGE to put back together. the files of the
+	 * models don't record the time or command line, so they only change when
+	 * their contents do. cannot be combined with mapping logic, which doesn't
+	 * respect the boundaries between models.
+	 *
+	 * @return the contents of the models' files, by file name
+	 */
+	public Map<String, byte[]> writePartitionedTo(final OutputStream out, final String part,
+			final List<String> cmdline) throws IOException {
+		if (mapLogic)
+			throw new IllegalStateException("mapping logic cannot be combined with partitioned output");
+		finish();
+		final List<XnfPartition> partitions = xnf.partition();
+		final Map<String, byte[]> files = new LinkedHashMap<>();
+		for (final XnfPartition partition : partitions) {
+			final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			try (XnfWriter writer = new XnfWriter(buffer, partition::getLocalName)) {
+				writer.writeHeader(part, List.of(), null);
+				writer.writePartition(partition);
+			}
+			files.put(partition.getName() + ".xnf", buffer.toByteArray());
+		}
+		try (XnfWriter writer = new XnfWriter(out)) {
+			writer.writeHeader(root, part, cmdline, getTimestamp());
+			writer.writeTopLevel(xnf, partitions);
+		}
+		return files;
+	}
+
+	private TemporalAccessor getTimestamp() {
+		if (!fixedTimestamp)
+			return LocalDateTime.now();
+		return timestamp != null ? timestamp.atOffset(ZoneOffset.UTC) : null;
+	}
+
+	/**
+	 * runs the passes that work on the whole netlist, once all files have been
+	 * read, and resolves the names
+	 */
+	private void finish() {
 		final Set<String> undriven = new HashSet<>(consumers.keySet());
 		undriven.removeAll(drivers.keySet());
 		for (final String sig : undriven) {
-			diag.warn(consumers.get(sig).getSourceLocation(), "undriven global signal " + sig + ", assuming zero");
+			diag.warn(consumers.get(sig).sloc(), "undriven global signal " + sig + ", assuming zero");
 			xnf.addBuffer("BUF", root.getGlobal(sig), root.getSpecial(SpecialName.GND));
 		}
 
-		final Map<BlifModel, List<String>> unused = new LinkedHashMap<>();
+		final Map<ModelInfo, List<String>> unused = new LinkedHashMap<>();
 		for (final String signal : drivers.keySet()) {
-			final BlifModel model = drivers.get(signal);
+			final ModelInfo model = drivers.get(signal);
 			if (!unused.containsKey(model))
 				unused.put(model, new ArrayList<>());
 			unused.get(model).add(signal);
 		}
-		for (final BlifModel model : unused.keySet()) {
+		for (final ModelInfo model : unused.keySet()) {
 			final List<String> list = unused.get(model);
 			list.removeAll(consumers.keySet());
 			if (!list.isEmpty())
-				diag.info(model.getSourceLocation(), "unused global signals: " + String.join(" ", list));
+				diag.info(model.sloc(), "unused global signals: " + String.join(" ", list));
+		}
+
+		// the global reset is only safe if it doesn't reset anything that isn't
+		// reset anyway, and only acceptable if the reset may become asynchronous
+		final boolean mapReset = resetName != null && asyncReset && otherRegisters.isEmpty();
+		if (mapReset) {
+			final XnfGate startup = xnf.addSymbol("STARTUP", null);
+			startup.connect(PinDirection.CONSUMER, family.getGlobalResetPin(), !resetTerm.activeHigh(), resetName,
+					null);
+			startup.allocateName();
+		} else if (resetName != null) {
+			final List<Name> cleared = new ArrayList<>(), set = new ArrayList<>();
+			for (final MappedReset reg : resetRegisters)
+				(reg.value() ? set : cleared).add(reg.input());
+			xnf.addSynchronousReset(new Term(resetName, !resetTerm.activeHigh()), cleared, set);
+		}
+
+		final List<Name> iobRegisters = xnf.packIobRegisters();
+		final Map<Name, Integer> duplicated = maxFanout > 0 ? xnf.duplicateRegisters(maxFanout) : Map.of();
+		BufferedNets autoBuffered = null;
+		if (autoBuffer) {
+			// the implicit global clock takes one of the buffers as well
+			final int budget = family.getGlobalBuffers() - (root.hasSpecial(SpecialName.GCLK) ? 1 : 0);
+			autoBuffered = xnf.insertGlobalBuffers(family.getBufferTypes(), budget, AUTO_BUFFER_MIN_FANOUT);
+		}
+		if (mapLogic && family.getFunctionGeneratorInputs() > 0) {
+			final MappingStatistics stats = xnf.mapFunctionGenerators(family.getFunctionGeneratorInputs(),
+					family.getHFunctionGeneratorInputs());
+			diag.info(null, "mapped logic to " + stats.fmaps() + " FMAPs and " + stats.hmaps() + " HMAPs, "
+					+ stats.depth() + " levels deep");
 		}
 
 		root.resolve();
-		try (XnfWriter writer = new XnfWriter(out)) {
-			writer.writeHeader(root, part, cmdline);
-			writer.writeNetlist(xnf);
+		if (mapLogic && family.getClbInputs() > 0) {
+			final int clbs = xnf.packClbs(family.getClbInputs(), family.getClbFunctionInputs(),
+					family.getClbFlipFlops());
+			diag.info(null, "packed logic into " + clbs + " CLBs");
 		}
+		if (!duplicated.isEmpty())
+			diag.info(null, "duplicated high-fanout registers: " + duplicated.keySet().stream()
+					.map(q -> q.getXnf() + " (" + duplicated.get(q) + " copies)").collect(Collectors.joining(" ")));
+		if (autoBuffered != null) {
+			if (!autoBuffered.buffered().isEmpty())
+				diag.info(null, "automatically buffered global nets: " + formatFanout(autoBuffered.buffered()));
+			if (!autoBuffered.unbuffered().isEmpty())
+				diag.warn(null, "no global buffers left for high-fanout nets: "
+						+ formatFanout(autoBuffered.unbuffered()));
+		}
+		if (resetName != null) {
+			final String reset = (resetTerm.activeHigh() ? "" : "!") + resetName.getXnf();
+			final String registers = resetRegisters.stream().map(MappedReset::register)
+					.collect(Collectors.joining(" "));
+			if (mapReset)
+				diag.info(null, "mapped reset " + reset + " onto " + family.getGlobalResetPin() + " for registers: "
+						+ registers);
+			else if (!otherRegisters.isEmpty())
+				diag.info(null, "not mapping reset " + reset + " onto " + family.getGlobalResetPin() + " because it"
+						+ " would also reset registers whose logic doesn't use it: "
+						+ String.join(" ", otherRegisters));
+			else
+				diag.info(null, "not mapping reset " + reset + " onto " + family.getGlobalResetPin() + " because it"
+						+ " would become asynchronous for registers: " + registers);
+		}
+		if (!iobRegisters.isEmpty())
+			diag.info(null, "registers packed into IOBs: "
+					+ iobRegisters.stream().map(Name::getXnf).collect(Collectors.joining(" ")));
+	}
+
+	private static String formatFanout(final Map<Name, Integer> fanout) {
+		return fanout.keySet().stream().map(net -> net.getXnf() + " (" + fanout.get(net) + " loads)")
+				.collect(Collectors.joining(" "));
 	}
 
 	private void implementSumOfProducts(final Namespace ns, final BlifModel model, final SumOfProducts sop) {
@@ -136,6 +870,9 @@ public class Converter {
 			return;
 		}
 
+		if (tristateMux && family.hasLongLineTristates() && implementTristateMux(ns, output, sop))
+			return;
+
 		if (sop.getTerms().size() == 1) {
 			// only a single product term, so the OR part of the AND-OR gate is omitted and
 			// the AND gate drives the output directly.
@@ -150,6 +887,76 @@ public class Converter {
 		xnf.addLogicGate("OR", output, false, sum);
 	}
 
+	/**
+	 * implements a multiplexer with binary-encoded select inputs using TBUFs on a
+	 * long line, which is a single level of logic no matter how wide the mux. every
+	 * product term has to consist of the same select inputs, each in a different
+	 * combination of polarities, plus a single data input. all combinations have to
+	 * be present: the pullup would drive the line high if no TBUF were enabled,
+	 * where the cover says it should be low. each mux takes a long line of its
+	 * own, so it cannot have more inputs than the line has TBUFs, and once the
+	 * long lines run out, the remaining muxes become gates.
+	 *
+	 * @return false if the cover isn't such a mux or doesn't fit, and nothing has
+	 *         been done
+	 */
+	private boolean implementTristateMux(final Namespace ns, final Name output, final SumOfProducts sop) {
+		final List<Product> products = sop.getTerms();
+		if (products.size() < TRISTATE_MUX_MIN_INPUTS || Integer.bitCount(products.size()) != 1
+				|| products.size() > device.getTbufsPerLongLine() || longLinesLeft == 0)
+			return false;
+		// the select inputs are the ones appearing in every product term
+		final Set<String> selects = new LinkedHashSet<>(sop.getInputs());
+		for (final Product product : products)
+			selects.retainAll(product.getTerms().stream().map(ProductTerm::getInput).toList());
+		if (1 << selects.size() != products.size())
+			return false;
+
+		final List<String> select = new ArrayList<>(selects);
+		final List<Integer> patterns = new ArrayList<>();
+		final List<Name> data = new ArrayList<>();
+		for (final Product product : products) {
+			if (product.isInvertOutput() || product.getTerms().size() != select.size() + 1)
+				return false;
+			int pattern = 0;
+			String input = null;
+			for (final ProductTerm term : product.getTerms())
+				if (selects.contains(term.getInput())) {
+					if (!term.isInvertInput())
+						pattern |= 1 << select.indexOf(term.getInput());
+				} else if (term.isInvertInput())
+					// an inverted data input would need an inverter, which costs the level
+					// we are trying to save
+					return false;
+				else
+					input = term.getInput();
+			if (input == null || patterns.contains(pattern))
+				return false;
+			patterns.add(pattern);
+			data.add(ns.getGlobal(input));
+		}
+
+		// the enables are shared by all muxes using the same select inputs, which
+		// typically means all bits of a bus. TBUF enables are active low.
+		final Map<String, Name> enables = muxEnables.computeIfAbsent(ns, k -> new LinkedHashMap<>());
+		final List<Name> tristates = new ArrayList<>();
+		for (final int pattern : patterns) {
+			final String key = String.join(" ", select) + "=" + pattern;
+			if (!enables.containsKey(key)) {
+				final Name enable = output.getAnonymous("SEL");
+				final List<Term> terms = new ArrayList<>();
+				for (int i = 0; i < select.size(); i++)
+					terms.add(new Term(ns.getGlobal(select.get(i)), (pattern >> i & 1) == 0));
+				xnf.addLogicGate("AND", enable, true, terms);
+				enables.put(key, enable);
+			}
+			tristates.add(enables.get(key));
+		}
+		xnf.addTristateMux(output, data, tristates);
+		longLinesLeft--;
+		return true;
+	}
+
 	private void buildAndGate(final Namespace ns, final List<Term> sum, final Name output, final Product product) {
 		final List<Term> inputs = new ArrayList<>();
 		for (final ProductTerm term : product.getTerms())
@@ -177,6 +984,17 @@ public class Converter {
 			return;
 		}
 
+		if (sum == null && inputs.size() >= WIDE_DECODER_MIN_INPUTS && inputs.size() <= device.getEdgeIobs()
+				&& decodersLeft > 0) {
+			// a wide AND driving the output directly, typically an address decoder. if the
+			// chip has wired-AND decoders, that is a single level of logic instead of a
+			// tree of gates. once they run out, the remaining ones become trees, and so do
+			// ones with more inputs than the decoder has.
+			xnf.addWideDecoder(output, product.isInvertOutput(), inputs);
+			decodersLeft--;
+			return;
+		}
+
 		// general case: we have at least 2 product terms that we can collect using an
 		// AND gate.
 		final Name prod;
@@ -208,7 +1026,9 @@ public class Converter {
 		case fe, al -> true;
 		default -> throw new UnsupportedOperationException("unsupported latch type " + latch.getType());
 		};
-		xnf.addLatch(latchType, latch.getInitialValue() == LatchInitialValue.PRESET, output, input, clock, invertClock);
+		final Name enable = latch.getEnableInput() != null ? ns.getGlobal(latch.getEnableInput()) : null;
+		xnf.addLatch(latchType, latch.getInitialValue() == LatchInitialValue.PRESET, output, input, clock, invertClock,
+				enable, latch.isInvertEnable());
 	}
 
 	private Name getBufferedOutput(final Namespace ns, final BlifModel model, final String name,
@@ -234,4 +1054,18 @@ public class Converter {
 			gateOutput = globalOutput;
 		return gateOutput;
 	}
+
+	/**
+	 * the name and location of a model, which is all that's needed of it once it
+	 * has been converted
+	 */
+	private static record ModelInfo(String name, SourceLocation sloc) {
+	}
+
+	/**
+	 * a register whose reset has been taken out of its logic, the net feeding its
+	 * D input, and the value it is reset to
+	 */
+	private static record MappedReset(String register, Name input, boolean value) {
+	}
 }
@@ -0,0 +1,184 @@
+package xsynth.convert;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import xsynth.Diagnostics;
+import xsynth.Diagnostics.AbortedException;
+import xsynth.Message;
+import xsynth.Message.Level;
+import xsynth.SourceLocation;
+
+/**
+ * A directory of netlist fragments converted from input files, so that a file
+ * converted again with the same options can skip parsing and conversion. Each
+ * fragment is stored under the hash of everything its conversion depends on, so
+ * a changed file or option simply doesn't find the old entry. Old entries are
+ * never removed; the directory can be deleted at any time.
+ */
+public class FragmentCache {
+	private final Path directory;
+
+	public FragmentCache(final Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @return the entry stored under the given key, or null if there is none
+	 */
+	public byte[] load(final byte[] key) throws IOException {
+		try {
+			return Files.readAllBytes(getPath(key));
+		} catch (final NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * stores an entry atomically, so that concurrent conversions never see half an
+	 * entry
+	 */
+	public void store(final byte[] key, final byte[] entry) throws IOException {
+		Files.createDirectories(directory);
+		final Path path = getPath(key);
+		final Path temp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+		try {
+			Files.write(temp, entry);
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private Path getPath(final byte[] key) {
+		try {
+			return directory.resolve(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(key)));
+		} catch (final NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static void writeMessages(final DataOutputStream out, final List<Message> messages) throws IOException {
+		out.writeInt(messages.size());
+		for (final Message msg : messages) {
+			out.writeUTF(msg.level().name());
+			out.writeBoolean(msg.sloc() != null);
+			if (msg.sloc() != null) {
+				out.writeUTF(msg.sloc().getFilename());
+				out.writeInt(msg.sloc().getLineNumber());
+			}
+			out.writeInt(msg.line() != null ? msg.line().size() : -1);
+			if (msg.line() != null)
+				for (final String token : msg.line())
+					out.writeUTF(token);
+			out.writeUTF(msg.message());
+		}
+	}
+
+	static List<Message> readMessages(final DataInputStream in) throws IOException {
+		final List<Message> messages = new ArrayList<>();
+		final int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			final Level level = Level.valueOf(in.readUTF());
+			final SourceLocation sloc = in.readBoolean() ? new SourceLocation(in.readUTF(), in.readInt()) : null;
+			final int tokens = in.readInt();
+			List<String> line = null;
+			if (tokens >= 0) {
+				line = new ArrayList<>();
+				for (int j = 0; j < tokens; j++)
+					line.add(in.readUTF());
+			}
+			messages.add(new Message(level, sloc, line, in.readUTF()));
+		}
+		return messages;
+	}
+
+	/**
+	 * passes all messages on to another {@link Diagnostics}, recording them along
+	 * the way so they can be stored with the fragment and reported again when it
+	 * is loaded. INFO messages are recorded even when they aren't shown, because
+	 * the next conversion may not be quiet.
+	 */
+	static class Recorder extends Diagnostics {
+		private final Diagnostics target;
+		private List<Message> messages;
+		private int mark;
+
+		Recorder(final Diagnostics target) {
+			this.target = target;
+		}
+
+		void start() {
+			messages = new ArrayList<>();
+		}
+
+		List<Message> stop() {
+			final List<Message> recorded = messages;
+			messages = null;
+			return recorded;
+		}
+
+		int getCount() {
+			return messages != null ? messages.size() : 0;
+		}
+
+		/**
+		 * remembers how many messages have been recorded so far
+		 *
+		 * @return where to report messages that shouldn't be recorded
+		 */
+		Diagnostics mark() {
+			mark = getCount();
+			return target;
+		}
+
+		/** @return the number of messages recorded before the last {@link #mark()} */
+		int getMark() {
+			return mark;
+		}
+
+		private void record(final Level level, final SourceLocation sloc, final List<String> line,
+				final String message) {
+			if (messages != null)
+				messages.add(new Message(level, sloc, line != null ? List.copyOf(line) : null, message));
+		}
+
+		@Override
+		public boolean isQuiet() {
+			return target.isQuiet();
+		}
+
+		@Override
+		public void setQuiet(final boolean quiet) {
+			target.setQuiet(quiet);
+		}
+
+		@Override
+		public void info(final SourceLocation sloc, final List<String> line, final String message) {
+			record(Level.INFO, sloc, line, message);
+			target.info(sloc, line, message);
+		}
+
+		@Override
+		public void warn(final SourceLocation sloc, final List<String> line, final String message) {
+			record(Level.WARNING, sloc, line, message);
+			target.warn(sloc, line, message);
+		}
+
+		@Override
+		public AbortedException error(final SourceLocation sloc, final List<String> line, final String message) {
+			record(Level.ERROR, sloc, line, message);
+			return target.error(sloc, line, message);
+		}
+	}
+}
@@ -37,13 +37,18 @@ public class PadFactory implements CustomGateFactory {
 	private static final String DELAY_DEFAULT = "DELAY";
 	private static final String RESISTOR_PULLUP = "PULLUP";
 	private static final String RESISTOR_PULLDOWN = "PULLDOWN";
+	private static final String REGISTERS_NONE = "NOREG";
 
 	private final List<String> flags = new ArrayList<>();
+	private final IobRegisters iobRegisters;
 
 	public PadFactory(final SlewRateControl slewRateControl, final Resistors resistors, final boolean hasNoDelay,
-			final boolean hasDriverType) {
+			final boolean hasDriverType, final IobRegisters iobRegisters) {
+		this.iobRegisters = iobRegisters;
 		flags.addAll(slewRateControl.flags);
 		flags.addAll(resistors.flags);
+		if (iobRegisters != IobRegisters.NONE)
+			flags.add(REGISTERS_NONE);
 		if (hasNoDelay) {
 			flags.add(DELAY_NONE);
 			flags.add(DELAY_DEFAULT); // for completeness; not actually passed on
@@ -134,7 +139,12 @@ public class PadFactory implements CustomGateFactory {
 		else
 			resistor = null;
 
-		return List.of(new Pad(loc, outputs, inputs, padflags, resistor, iflags, oflags));
+		// IOB registers are used automatically if the flipflop sits right next to the
+		// pad. that can be undesirable if the register is supposed to stay close to
+		// the logic instead, so allow disabling it per pad.
+		final boolean registers = !flags.contains(REGISTERS_NONE);
+
+		return List.of(new Pad(loc, outputs, inputs, padflags, resistor, iflags, oflags, registers));
 	}
 
 	private void setFlags(final List<String> xflags, final String name, final List<String> flags,
@@ -150,12 +160,14 @@ public class PadFactory implements CustomGateFactory {
 		private final String loc;
 		private final Map<String, String> iflags, oflags;
 		private final String resistor;
+		private final boolean registers;
 
 		public Pad(final String loc, final Map<String, String> outputs, final Map<String, String> inputs,
 				final List<String> flags, final String resistor, final Map<String, String> iflags,
-				final Map<String, String> oflags) {
+				final Map<String, String> oflags, final boolean registers) {
 			super(null, outputs, inputs, flags, Map.of());
 			this.loc = loc;
+			this.registers = registers;
 			this.resistor = resistor;
 			this.iflags = iflags;
 			this.oflags = oflags;
@@ -199,6 +211,8 @@ public class PadFactory implements CustomGateFactory {
 				final XnfGate gate = xnf.addSymbol("IBUF", iflags);
 				gate.connect(PinDirection.CONSUMER, "I", false, ext, null);
 				gate.connect(PinDirection.DRIVER, "O", false, input, null);
+				if (registers && iobRegisters.input)
+					xnf.addIobRegisterCandidate(gate);
 			}
 			if (output != null) {
 				final XnfGate obuf;
@@ -213,6 +227,8 @@ public class PadFactory implements CustomGateFactory {
 					obuf = xnf.addSymbol("OBUF", oflags);
 				obuf.connect(PinDirection.DRIVER, "O", false, ext, null);
 				obuf.connect(PinDirection.CONSUMER, "I", false, output, null);
+				if (registers && iobRegisters.output)
+					xnf.addIobRegisterCandidate(obuf);
 			}
 		}
 	}
@@ -227,6 +243,17 @@ public class PadFactory implements CustomGateFactory {
 		}
 	}
 
+	public enum IobRegisters {
+		NONE(false, false), INPUT(true, false), INPUT_OUTPUT(true, true);
+
+		private final boolean input, output;
+
+		private IobRegisters(final boolean input, final boolean output) {
+			this.input = input;
+			this.output = output;
+		}
+	}
+
 	public enum Resistors {
 		NONE, PULLUP_ONLY(RESISTOR_PULLUP), PULLUP_PULLDOWN(RESISTOR_PULLUP, RESISTOR_PULLDOWN);
 
@@ -0,0 +1,120 @@
+package xsynth.convert;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import xsynth.blif.RomRecognizer.Rom;
+import xsynth.naming.Name;
+import xsynth.naming.Namespace;
+import xsynth.naming.SpecialName;
+import xsynth.xnf.PinDirection;
+import xsynth.xnf.XnfGate;
+import xsynth.xnf.XnfNetlist;
+import xsynth.xnf.XnfNetlist.Term;
+
+/**
+ * A constant table implemented using ROM symbols initialized with INIT, one per
+ * data bit. Tables with more address bits than the ROM are split into banks
+ * addressed by the low address bits; the remaining address bits select one of
+ * the banks using an AND-OR multiplexer. Banks which are all zero are omitted.
+ */
+public class RomTable extends XnfCustomGate {
+	private final List<BitSet> contents;
+	private final int addressBits;
+	private final int romAddressBits;
+
+	/**
+	 * @param romAddressBits address bits of the largest ROM symbol
+	 */
+	public RomTable(final Rom rom, final int romAddressBits) {
+		super(null, getOutputs(rom), getInputs(rom));
+		contents = rom.contents();
+		addressBits = rom.address().size();
+		this.romAddressBits = romAddressBits;
+	}
+
+	private static Map<String, String> getOutputs(final Rom rom) {
+		final Map<String, String> outputs = new LinkedHashMap<>();
+		for (int i = 0; i < rom.outputs().size(); i++)
+			outputs.put("O" + i, rom.outputs().get(i));
+		return outputs;
+	}
+
+	private static Map<String, String> getInputs(final Rom rom) {
+		final Map<String, String> inputs = new LinkedHashMap<>();
+		for (int i = 0; i < rom.address().size(); i++)
+			inputs.put("A" + i, rom.address().get(i));
+		return inputs;
+	}
+
+	/**
+	 * @return number of ROM symbols needed for a table with the given number of
+	 *         address bits, for each data bit
+	 */
+	public static int getBanks(final int addressBits, final int romAddressBits) {
+		return 1 << Math.max(0, addressBits - romAddressBits);
+	}
+
+	@Override
+	protected void implement(final XnfNetlist xnf, final Namespace ns, final Map<String, Name> outputs,
+			final Map<String, Name> inputs) {
+		// ROM16X1 if that's deep enough, else ROM32X1
+		final int bankBits = Math.min(addressBits, romAddressBits);
+		final int romInputs = bankBits <= 4 ? 4 : 5;
+		final int depth = 1 << romInputs;
+		final int banks = getBanks(addressBits, romAddressBits);
+		for (int bit = 0; bit < contents.size(); bit++) {
+			final Name output = outputs.get("O" + bit);
+			if (contents.get(bit).isEmpty()) {
+				// the whole table is zero for this bit
+				xnf.addBuffer("BUF", output, ns.getSpecial(SpecialName.GND));
+				continue;
+			}
+			final List<Term> sum = new ArrayList<>();
+			for (int bank = 0; bank < banks; bank++) {
+				final BitSet words = contents.get(bit).get(bank * (1 << bankBits), (bank + 1) * (1 << bankBits));
+				if (words.isEmpty())
+					continue;
+				final Name rom = banks == 1 ? output : output.getAnonymous("ROM");
+				final XnfGate gate = xnf.addSymbol("ROM", Map.of("INIT", getInit(words, depth)));
+				for (int i = 0; i < romInputs; i++)
+					gate.connect(PinDirection.CONSUMER, "A" + i, false,
+							i < bankBits ? inputs.get("A" + i) : ns.getSpecial(SpecialName.GND), null);
+				gate.connect(PinDirection.DRIVER, "O", false, rom, null);
+				if (banks == 1)
+					continue;
+
+				// select the bank using the remaining address bits
+				final List<Term> select = new ArrayList<>();
+				for (int i = bankBits; i < addressBits; i++)
+					select.add(new Term(inputs.get("A" + i), (bank >> (i - bankBits) & 1) == 0));
+				select.add(new Term(rom, false));
+				final Name selected = output.getAnonymous("BANK");
+				xnf.addLogicGate("AND", selected, false, select);
+				sum.add(new Term(selected, false));
+			}
+			if (sum.size() > 1)
+				xnf.addLogicGate("OR", output, false, sum);
+			else if (sum.size() == 1)
+				xnf.addBuffer("BUF", output, sum.get(0).name());
+		}
+	}
+
+	/**
+	 * @return the INIT value of a ROM, in hex with the highest address first
+	 */
+	private static String getInit(final BitSet words, final int depth) {
+		final StringBuilder init = new StringBuilder();
+		for (int digit = depth / 4 - 1; digit >= 0; digit--) {
+			int value = 0;
+			for (int i = 3; i >= 0; i--)
+				value = value << 1 | (words.get(4 * digit + i) ? 1 : 0);
+			init.append(Integer.toHexString(value).toUpperCase(Locale.ROOT));
+		}
+		return init.toString();
+	}
+}
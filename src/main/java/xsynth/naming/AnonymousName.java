@@ -21,6 +21,14 @@ class AnonymousName extends Numbered {
 		this.qualifier = qualifier;
 	}
 
+	Name getBase() {
+		return base;
+	}
+
+	String getQualifier() {
+		return qualifier;
+	}
+
 	@Override
 	public String getQualified(final int n) {
 		return base.getXnf() + "/" + qualifier + (n == 0 ? "" : String.valueOf(n));
@@ -15,16 +15,18 @@ class GlobalName extends Name {
 		assert illegal.length() == 24;
 	}
 
+	private final String name;
 	private final String mangled;
 	private final String qualified;
 
 	GlobalName() {
 		super(null);
-		mangled = qualified = null;
+		name = mangled = qualified = null;
 	}
 
 	GlobalName(final Namespace ns, final String name, final boolean replaceSlashes) {
 		super(ns);
+		this.name = name;
 		boolean digitsOnly = true;
 		int bits = 0, accum = 0;
 		final StringBuilder mangled = new StringBuilder();
@@ -105,6 +107,13 @@ class GlobalName extends Name {
 		qualified = mangled.toString();
 	}
 
+	/**
+	 * @return the name as it was given, before mangling
+	 */
+	String getName() {
+		return name;
+	}
+
 	public String getMangled() {
 		return mangled;
 	}
@@ -126,8 +135,12 @@ class GlobalName extends Name {
 			return false;
 		if (getClass() != obj.getClass())
 			return false;
+		// the same name in different namespaces is a different net. namespaces don't
+		// have a usable hashCode before they're resolved, so they have to be compared
+		// by identity. that's enough because each namespace creates every name only
+		// once.
 		final GlobalName other = (GlobalName) obj;
-		return qualified.equals(other.qualified);
+		return getNamespace() == other.getNamespace() && qualified.equals(other.qualified);
 	}
 
 	@Override
@@ -8,6 +8,13 @@ public abstract class Name {
 		this.ns = ns;
 	}
 
+	/**
+	 * @return the namespace this name was created in
+	 */
+	public Namespace getNamespace() {
+		return ns;
+	}
+
 	public Name getAnonymous(final String qualifier) {
 		return ns.getAnonymous(this, qualifier);
 	}
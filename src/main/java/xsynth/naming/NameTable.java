@@ -0,0 +1,173 @@
+package xsynth.naming;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes names so that they can be recreated in a later run, for storing parts
+ * of a netlist. Names created while recording are written in the order they
+ * were created in, and recreated in that order, so that they resolve to the same
+ * XNF names: anonymous names are numbered in order of creation. Other names are
+ * written as a reference to their namespace and original name, which finds the
+ * existing name or creates it as needed. That doesn't work for anonymous names
+ * because they have no identity besides the object itself, so only those
+ * created while recording can be written.
+ */
+public class NameTable {
+	private static final int REF = 0, ROOT = 1, NAMESPACE = 2, GLOBAL = 3, ANONYMOUS = 4, SPECIAL = 5;
+
+	private final Namespace root;
+	private final List<Name> names = new ArrayList<>();
+	private final Map<Name, Integer> ids = new IdentityHashMap<>();
+
+	public NameTable(final Namespace root) {
+		this.root = root;
+	}
+
+	/**
+	 * starts recording all names created in the root namespace and below.
+	 */
+	public void startRecording() {
+		root.journal = new ArrayList<>();
+	}
+
+	/**
+	 * @return the names created since {@link #startRecording()}, in order
+	 */
+	public List<Name> stopRecording() {
+		final List<Name> created = root.journal;
+		root.journal = null;
+		return created;
+	}
+
+	/**
+	 * writes the definitions of the given names, which must have been recorded, so
+	 * that {@link #readCreated(DataInputStream)} creates them again in the same
+	 * order.
+	 */
+	public void writeCreated(final DataOutputStream out, final List<Name> created) throws IOException {
+		out.writeInt(created.size());
+		for (final Name name : created) {
+			writeDefinition(out, name, true);
+			ids.put(name, names.size());
+			names.add(name);
+		}
+	}
+
+	public void readCreated(final DataInputStream in) throws IOException {
+		final int count = in.readInt();
+		for (int i = 0; i < count; i++)
+			names.add(readDefinition(in));
+	}
+
+	/**
+	 * writes a reference to a name, which can be read back using
+	 * {@link #readRef(DataInputStream)}. null is allowed.
+	 *
+	 * @throws NotWritableException if the name is anonymous but hasn't been
+	 *                              recorded
+	 */
+	public void writeRef(final DataOutputStream out, final Name name) throws IOException {
+		if (name == null) {
+			out.writeByte(REF);
+			out.writeInt(-1);
+		} else if (ids.containsKey(name)) {
+			out.writeByte(REF);
+			out.writeInt(ids.get(name));
+		} else
+			writeDefinition(out, name, false);
+	}
+
+	public Name readRef(final DataInputStream in) throws IOException {
+		return readDefinition(in);
+	}
+
+	private void writeDefinition(final DataOutputStream out, final Name name, final boolean created)
+			throws IOException {
+		if (name == root)
+			out.writeByte(ROOT);
+		else if (name instanceof final Namespace ns) {
+			out.writeByte(NAMESPACE);
+			writeRef(out, ns.getParent());
+			out.writeUTF(ns.getName());
+			out.writeInt(ns.getPorts().size());
+			for (final Map.Entry<String, String> port : ns.getPorts().entrySet()) {
+				out.writeUTF(port.getKey());
+				out.writeUTF(port.getValue());
+			}
+		} else if (name instanceof final GlobalName global) {
+			out.writeByte(GLOBAL);
+			writeRef(out, global.getNamespace());
+			out.writeUTF(global.getName());
+		} else if (name instanceof final SpecialName special) {
+			out.writeByte(SPECIAL);
+			out.writeUTF(special.getName());
+		} else if (name instanceof final AnonymousName anon && created) {
+			out.writeByte(ANONYMOUS);
+			writeRef(out, anon.getBase());
+			out.writeUTF(anon.getQualifier());
+		} else
+			throw new NotWritableException(name);
+	}
+
+	private Name readDefinition(final DataInputStream in) throws IOException {
+		final int type = in.readUnsignedByte();
+		switch (type) {
+		case REF -> {
+			final int id = in.readInt();
+			if (id < -1 || id >= names.size())
+				throw new IOException("invalid name reference " + id);
+			return id < 0 ? null : names.get(id);
+		}
+		case ROOT -> {
+			return root;
+		}
+		case NAMESPACE -> {
+			final Namespace parent = readNamespace(in);
+			final String name = in.readUTF();
+			final int count = in.readInt();
+			final Map<String, String> ports = new LinkedHashMap<>();
+			for (int i = 0; i < count; i++)
+				ports.put(in.readUTF(), in.readUTF());
+			return parent.getNamespace(name, ports);
+		}
+		case GLOBAL -> {
+			final Namespace ns = readNamespace(in);
+			return ns.getGlobal(in.readUTF());
+		}
+		case SPECIAL -> {
+			return root.getSpecial(in.readUTF());
+		}
+		case ANONYMOUS -> {
+			final Name base = readRef(in);
+			if (base == null)
+				throw new IOException("anonymous name without base");
+			return base.getAnonymous(in.readUTF());
+		}
+		default -> throw new IOException("invalid name type " + type);
+		}
+	}
+
+	private Namespace readNamespace(final DataInputStream in) throws IOException {
+		if (readRef(in) instanceof final Namespace ns)
+			return ns;
+		throw new IOException("expected a namespace");
+	}
+
+	/**
+	 * thrown for names that cannot be written because they cannot be recreated
+	 * from a reference
+	 */
+	@SuppressWarnings("serial")
+	public static class NotWritableException extends IOException {
+		NotWritableException(final Name name) {
+			super("cannot write " + name);
+		}
+	}
+}
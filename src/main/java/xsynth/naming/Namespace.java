@@ -19,6 +19,8 @@ public class Namespace extends GlobalName {
 	private final boolean qualifyAllNames;
 	private final Namespace parent;
 	private final Map<String, String> ports;
+	/** names created while recording, see {@link NameTable}. only used in the root namespace */
+	List<Name> journal;
 
 	public Namespace(final boolean qualifyAllNames) {
 		super();
@@ -42,12 +44,12 @@ public class Namespace extends GlobalName {
 			return parent.getGlobal(ports.get(name));
 
 		if (!globals.containsKey(name))
-			globals.put(name, new GlobalName(this, name, false));
+			globals.put(name, record(new GlobalName(this, name, false)));
 		return globals.get(name);
 	}
 
 	Name getAnonymous(final Name base, final String qualifier) {
-		final AnonymousName name = new AnonymousName(this, base, qualifier);
+		final AnonymousName name = record(new AnonymousName(this, base, qualifier));
 		derived.add(name);
 		return name;
 	}
@@ -62,7 +64,7 @@ public class Namespace extends GlobalName {
 			return parent.getSpecial(name);
 
 		if (!specials.containsKey(name)) {
-			final SpecialName net = new SpecialName(this, name);
+			final SpecialName net = record(new SpecialName(this, name));
 			specials.put(name, net);
 			derived.add(net);
 		}
@@ -81,10 +83,27 @@ public class Namespace extends GlobalName {
 
 	public Namespace getNamespace(final String name, final Map<String, String> ports) {
 		if (!namespaces.containsKey(name))
-			namespaces.put(name, new Namespace(this, name, ports));
+			namespaces.put(name, record(new Namespace(this, name, ports)));
 		return namespaces.get(name);
 	}
 
+	Namespace getParent() {
+		return parent;
+	}
+
+	Map<String, String> getPorts() {
+		return ports;
+	}
+
+	private <T extends Name> T record(final T name) {
+		Namespace root = this;
+		while (root.parent != null)
+			root = root.parent;
+		if (root.journal != null)
+			root.journal.add(name);
+		return name;
+	}
+
 	public void resolve() {
 		resolve("");
 	}
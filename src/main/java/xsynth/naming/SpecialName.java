@@ -21,6 +21,10 @@ public class SpecialName extends Numbered {
 		this.name = name;
 	}
 
+	String getName() {
+		return name;
+	}
+
 	@Override
 	public String getQualified(final int n) {
 		return name + (n == 0 ? "" : "_" + String.valueOf(n));
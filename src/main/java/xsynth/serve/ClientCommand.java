@@ -0,0 +1,74 @@
+package xsynth.serve;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.List;
+
+import xsynth.Argument;
+import xsynth.Command;
+import xsynth.CommandName;
+import xsynth.Diagnostics;
+import xsynth.Diagnostics.AbortedException;
+
+@CommandName("client")
+public class ClientCommand extends Command {
+	@Argument(shortOption = 's', longOptions = "socket", metavar = "SOCKET", required = true, help = "socket of"
+			+ " the xsynth serve to run the command. the command follows after --, exactly as it would be given"
+			+ " to xsynth, eg. xsynth client -s SOCKET -- convert -p 3020pc68 -o foo.xnf foo.blif. it runs in"
+			+ " the current directory, and its messages and exit status are passed through.")
+	public String socket;
+
+	private int status;
+
+	public ClientCommand(final Diagnostics diag, final List<String> cmdline) throws AbortedException {
+		super(diag, cmdline);
+	}
+
+	@Override
+	public void execute(final List<String> infiles) throws AbortedException {
+		if (infiles.isEmpty())
+			throw usage("no command to run");
+		try (final SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(getFile(socket)))) {
+			status = forward(channel, getFile("").toAbsolutePath(), infiles, System.err);
+		} catch (final IOException e) {
+			throw diag.error(null,
+					"failed to run command on " + socket + ": " + e.getClass().getSimpleName() + " " + e.getMessage());
+		}
+	}
+
+	/** @return the status of the command run by the server, which has already reported why it failed */
+	@Override
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * Runs a command on the server, printing its messages as they arrive.
+	 *
+	 * @return the command's exit status
+	 */
+	static int forward(final SocketChannel channel, final Path directory, final List<String> cmdline,
+			final PrintStream err) throws IOException {
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+		Protocol.writeRequest(out, directory.toString(), cmdline);
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+		while (true) {
+			final int frame = in.readUnsignedByte();
+			switch (frame) {
+			case Protocol.MESSAGE -> err.println(Protocol.readString(in));
+			case Protocol.EXIT -> {
+				return in.readInt();
+			}
+			default -> throw new IOException("invalid response frame " + frame);
+			}
+		}
+	}
+}
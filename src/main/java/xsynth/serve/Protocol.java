@@ -0,0 +1,60 @@
+package xsynth.serve;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The wire format between {@link ClientCommand} and {@link ServeCommand}. The
+ * client sends its working directory and the command line to run. The server
+ * answers with any number of {@link #MESSAGE} frames, each containing one line
+ * of diagnostic output, and finally an {@link #EXIT} frame with the exit status.
+ * Strings are sent as a length followed by UTF-8, so that they aren't limited to
+ * 64k like {@link DataOutputStream#writeUTF(String)}.
+ */
+final class Protocol {
+	static final int MESSAGE = 'M';
+	static final int EXIT = 'X';
+
+	private Protocol() {
+	}
+
+	static void writeRequest(final DataOutputStream out, final String directory, final List<String> cmdline)
+			throws IOException {
+		writeString(out, directory);
+		out.writeInt(cmdline.size());
+		for (final String arg : cmdline)
+			writeString(out, arg);
+		out.flush();
+	}
+
+	static Request readRequest(final DataInputStream in) throws IOException {
+		final String directory = readString(in);
+		final int args = in.readInt();
+		if (args < 0)
+			throw new IOException("invalid request");
+		final List<String> cmdline = new ArrayList<>();
+		for (int i = 0; i < args; i++)
+			cmdline.add(readString(in));
+		return new Request(directory, cmdline);
+	}
+
+	static void writeString(final DataOutputStream out, final String s) throws IOException {
+		final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(final DataInputStream in) throws IOException {
+		final int length = in.readInt();
+		if (length < 0)
+			throw new IOException("invalid string length " + length);
+		return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+	}
+
+	record Request(String directory, List<String> cmdline) {
+	}
+}
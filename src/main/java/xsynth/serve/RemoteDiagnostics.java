@@ -0,0 +1,39 @@
+package xsynth.serve;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import xsynth.Diagnostics;
+
+/**
+ * Sends all messages to a client as they are generated, so the client can print
+ * them as if it were running the command itself.
+ */
+class RemoteDiagnostics extends Diagnostics {
+	private final DataOutputStream out;
+	private boolean disconnected;
+
+	RemoteDiagnostics(final DataOutputStream out) {
+		this.out = out;
+	}
+
+	@Override
+	protected synchronized void println(final String text) {
+		if (disconnected)
+			return;
+		try {
+			out.writeByte(Protocol.MESSAGE);
+			Protocol.writeString(out, text);
+			out.flush();
+		} catch (final IOException e) {
+			// client went away. finish the command anyway; nobody will see its output.
+			disconnected = true;
+		}
+	}
+
+	synchronized void exit(final int status) throws IOException {
+		out.writeByte(Protocol.EXIT);
+		out.writeInt(status);
+		out.flush();
+	}
+}
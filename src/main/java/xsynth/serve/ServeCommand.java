@@ -0,0 +1,145 @@
+package xsynth.serve;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import xsynth.Argument;
+import xsynth.Command;
+import xsynth.CommandName;
+import xsynth.Diagnostics;
+import xsynth.Diagnostics.AbortedException;
+import xsynth.XSynth;
+import xsynth.serve.Protocol.Request;
+
+@CommandName("serve")
+public class ServeCommand extends Command {
+	/** commands that make no sense when run by the server */
+	private static final List<String> LOCAL_COMMANDS = List.of("serve", "client");
+
+	@Argument(shortOption = 's', longOptions = "socket", metavar = "SOCKET", required = true, help = "Unix domain"
+			+ " socket to listen on for commands sent by xsynth client. the commands run in this JVM, which avoids"
+			+ " starting a new one for every conversion.")
+	public String socket;
+	@Argument(shortOption = 'j', longOptions = "jobs", metavar = "N", help = "run at most N commands at the same"
+			+ " time. further commands wait until one of them has finished. defaults to the number of processors.")
+	public String jobs;
+
+	public ServeCommand(final Diagnostics diag, final List<String> cmdline) throws AbortedException {
+		super(diag, cmdline);
+	}
+
+	@Override
+	public void execute(final List<String> infiles) throws AbortedException {
+		if (!infiles.isEmpty())
+			throw usage("serve doesn't take input files");
+		int threads = Runtime.getRuntime().availableProcessors();
+		if (jobs != null)
+			try {
+				threads = Integer.parseInt(jobs);
+				if (threads < 1)
+					throw usage("--jobs must be positive");
+			} catch (final NumberFormatException e) {
+				throw usage("--jobs: not a number: " + jobs);
+			}
+
+		final Path path = getFile(socket);
+		final UnixDomainSocketAddress address = UnixDomainSocketAddress.of(path);
+		if (Files.exists(path)) {
+			// a socket file is left behind when the server is killed. only remove it if
+			// nobody is listening there anymore.
+			try (final SocketChannel channel = SocketChannel.open(address)) {
+				throw diag.error(null, "another server is already listening on " + socket);
+			} catch (final IOException e) {
+				try {
+					Files.delete(path);
+				} catch (final IOException e2) {
+					throw diag.error(null, "failed to remove stale socket " + socket + ": "
+							+ e2.getClass().getSimpleName() + " " + e2.getMessage());
+				}
+			}
+		}
+
+		try (final ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+			server.bind(address);
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try {
+					Files.deleteIfExists(path);
+				} catch (final IOException e) {
+					// nothing we can do about it while exiting
+				}
+			}));
+			diag.info(null, "listening on " + socket + ", running up to " + threads + " commands at a time");
+			serve(server, threads);
+		} catch (final IOException e) {
+			throw diag.error(null,
+					"failed to listen on " + socket + ": " + e.getClass().getSimpleName() + " " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Accepts connections and runs the commands sent over them, until the server
+	 * channel is closed.
+	 */
+	void serve(final ServerSocketChannel server, final int threads) throws IOException {
+		final ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+			final Thread thread = new Thread(r);
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			while (true) {
+				final SocketChannel channel;
+				try {
+					channel = server.accept();
+				} catch (final AsynchronousCloseException e) {
+					return;
+				}
+				pool.execute(() -> handle(channel));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private void handle(final SocketChannel channel) {
+		try (channel) {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+			final DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Channels.newOutputStream(channel)));
+			final Request request = Protocol.readRequest(in);
+			final RemoteDiagnostics remote = new RemoteDiagnostics(out);
+			int status = 1;
+			try {
+				if (!request.cmdline().isEmpty() && LOCAL_COMMANDS.contains(request.cmdline().get(0)))
+					remote.error(null, request.cmdline().get(0) + " cannot be run by the server");
+				else
+					status = XSynth.run(remote, Path.of(request.directory()), request.cmdline(), true);
+			} finally {
+				// the client waits for the exit status, even when the command failed with a bug
+				remote.exit(status);
+			}
+		} catch (final EOFException e) {
+			// disconnected without sending a command, eg. checking whether we're running
+		} catch (final IOException e) {
+			diag.warn(null, "connection failed: " + e.getClass().getSimpleName() + " " + e.getMessage());
+		} catch (final RuntimeException e) {
+			// a bug in one command shouldn't take down the whole server
+			diag.warn(null, "command failed: " + e);
+		}
+	}
+}
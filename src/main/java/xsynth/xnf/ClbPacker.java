@@ -0,0 +1,200 @@
+package xsynth.xnf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import xsynth.naming.Name;
+import xsynth.xnf.Connectivity.Connection;
+import xsynth.xnf.LutMapper.Lut;
+
+/**
+ * Groups function generators with the flipflops they feed into CLBs, for chips
+ * whose CLB combines a small number of combinational functions with one or two
+ * storage elements sharing the same control signals. Nets are compared by
+ * identity, like in {@link Connectivity}.
+ */
+class ClbPacker {
+	private static final Set<String> STORAGE = Set.of(LatchType.FLIPFLOP.getSymbol(), LatchType.LATCH.getSymbol());
+	/** each CLB has two outputs, X and Y, in all families */
+	private static final int CLB_OUTPUTS = 2;
+
+	private final List<XnfGate> gates;
+	private final int clbInputs;
+	private final int functionInputs;
+	private final int flipFlops;
+	private Connectivity nets;
+
+	/**
+	 * @param clbInputs      number of logic inputs of a CLB, which is also the
+	 *                       maximum number of inputs for a single function
+	 * @param functionInputs number of inputs per function if the CLB is split into
+	 *                       two functions
+	 * @param flipFlops      number of storage elements per CLB
+	 */
+	ClbPacker(final List<XnfGate> gates, final int clbInputs, final int functionInputs, final int flipFlops) {
+		this.gates = gates;
+		this.clbInputs = clbInputs;
+		this.functionInputs = functionInputs;
+		this.flipFlops = flipFlops;
+	}
+
+	/**
+	 * packs the netlist and tags each gate with the name of the CLB it belongs to.
+	 * must be called after the names have been resolved, because the CLB names
+	 * are derived from the nets they drive.
+	 *
+	 * @return number of CLBs used
+	 */
+	int pack() {
+		final List<Lut> luts = new LutMapper(gates, clbInputs).map();
+		nets = new Connectivity(gates);
+		final Map<Name, Lut> outputs = new IdentityHashMap<>();
+		for (final Lut lut : luts)
+			outputs.put(lut.output(), lut);
+
+		// seed clusters: each flipflop together with the function that computes its
+		// input, unless that function is needed elsewhere as well. everything that's
+		// left over becomes a cluster of its own.
+		final List<Clb> clusters = new ArrayList<>();
+		final Set<Lut> used = new HashSet<>();
+		for (final XnfGate gate : gates)
+			if (STORAGE.contains(gate.getType())) {
+				final Clb clb = new Clb();
+				clb.ffs.add(gate);
+				final Name d = gate.getPin("D").getSignal();
+				final Lut lut = outputs.get(d);
+				if (lut != null && !used.contains(lut) && nets.getConsumers(d).size() == 1) {
+					clb.luts.add(lut);
+					used.add(lut);
+				}
+				clusters.add(clb);
+			}
+		for (final Lut lut : luts)
+			if (!used.contains(lut)) {
+				final Clb clb = new Clb();
+				clb.luts.add(lut);
+				clusters.add(clb);
+			}
+
+		// greedily merge clusters, preferring the CLB that shares the most inputs.
+		// the biggest clusters go first because they are the hardest to place.
+		clusters.sort((a, b) -> b.getInputs().size() - a.getInputs().size());
+		final List<Clb> clbs = new ArrayList<>();
+		for (final Clb cluster : clusters) {
+			int best = -1, bestShared = -1;
+			for (int i = 0; i < clbs.size(); i++) {
+				final Clb merged = clbs.get(i).merge(cluster);
+				if (!fits(merged))
+					continue;
+				final Set<Name> shared = newNetSet();
+				shared.addAll(clbs.get(i).getInputs());
+				shared.retainAll(cluster.getInputs());
+				if (shared.size() > bestShared) {
+					best = i;
+					bestShared = shared.size();
+				}
+			}
+			if (best >= 0)
+				clbs.set(best, clbs.get(best).merge(cluster));
+			else
+				clbs.add(cluster);
+		}
+
+		for (final Clb clb : clbs) {
+			final String name = clb.getOutputs().get(0).getXnf();
+			for (final XnfGate ff : clb.ffs)
+				ff.getParams().put("BLKNM", name);
+			for (final Lut lut : clb.luts)
+				for (final XnfGate gate : lut.gates())
+					gate.getParams().put("BLKNM", name);
+		}
+		return clbs.size();
+	}
+
+	private boolean fits(final Clb clb) {
+		if (clb.ffs.size() > flipFlops || clb.getOutputs().size() > CLB_OUTPUTS)
+			return false;
+		// a function with more inputs than a half-CLB function generator uses the
+		// entire CLB
+		int functions = 0;
+		for (final Lut lut : clb.luts)
+			functions += lut.inputs().size() > functionInputs ? 2 : 1;
+		if (functions > 2 || clb.getInputs().size() > clbInputs)
+			return false;
+		// all storage elements share clock, and enable and reset if present
+		final XnfGate first = clb.ffs.isEmpty() ? null : clb.ffs.get(0);
+		for (final XnfGate ff : clb.ffs)
+			if (!ff.getType().equals(first.getType()) || !getControls(ff).equals(getControls(first)))
+				return false;
+		return true;
+	}
+
+	private static Set<Name> newNetSet() {
+		return Collections.newSetFromMap(new IdentityHashMap<>());
+	}
+
+	private static Map<String, String> getControls(final XnfGate ff) {
+		final Map<String, String> controls = new HashMap<>();
+		for (final XnfPin pin : ff.getPins())
+			if (pin.getDir() != PinDirection.DRIVER && !pin.getPin().equals("D"))
+				controls.put(pin.getPin(), (pin.isInvert() ? "!" : "") + pin.getSignal().getXnf());
+		return controls;
+	}
+
+	private class Clb {
+		private final List<Lut> luts = new ArrayList<>();
+		private final List<XnfGate> ffs = new ArrayList<>();
+
+		private Clb merge(final Clb other) {
+			final Clb merged = new Clb();
+			merged.luts.addAll(luts);
+			merged.luts.addAll(other.luts);
+			merged.ffs.addAll(ffs);
+			merged.ffs.addAll(other.ffs);
+			return merged;
+		}
+
+		/**
+		 * logic inputs, ie. everything that the functions and flipflops use, except
+		 * the flipflop outputs which are fed back internally, and the functions
+		 * driving flipflops in the same CLB.
+		 */
+		private Set<Name> getInputs() {
+			final Set<Name> internal = newNetSet();
+			for (final XnfGate ff : ffs)
+				internal.add(ff.getPin("Q").getSignal());
+			for (final Lut lut : luts)
+				internal.add(lut.output());
+			final Set<Name> inputs = newNetSet();
+			for (final Lut lut : luts)
+				inputs.addAll(lut.inputs());
+			for (final XnfGate ff : ffs)
+				inputs.add(ff.getPin("D").getSignal());
+			inputs.removeAll(internal);
+			return inputs;
+		}
+
+		/**
+		 * nets that have to leave the CLB: all flipflop outputs, and functions used by
+		 * anything other than the flipflops in the same CLB.
+		 */
+		private List<Name> getOutputs() {
+			final List<Name> outputs = new ArrayList<>();
+			for (final XnfGate ff : ffs)
+				outputs.add(ff.getPin("Q").getSignal());
+			for (final Lut lut : luts) {
+				// a function that isn't used at all is a global output, and must be kept
+				final List<Connection> consumers = nets.getConsumers(lut.output());
+				if (consumers.isEmpty() || consumers.stream().anyMatch(conn -> !ffs.contains(conn.gate())))
+					outputs.add(lut.output());
+			}
+			return outputs;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package xsynth.xnf;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import xsynth.naming.Name;
+
+/**
+ * Driver and consumer lookup for the nets of an {@link XnfNetlist}. The netlist
+ * itself only knows its gates; this is for the passes that need to walk it.
+ * Pullups and wired-AND drivers are neither, so nets driven only by those have
+ * no driver.
+ *
+ * Nets are compared by identity. every net is a single name object, so this
+ * is the same as comparing the names, just cheaper.
+ */
+class Connectivity {
+	private final Map<Name, XnfGate> drivers = new IdentityHashMap<>();
+	private final Map<Name, List<Connection>> consumers = new IdentityHashMap<>();
+
+	Connectivity(final List<XnfGate> gates) {
+		for (final XnfGate gate : gates)
+			add(gate);
+	}
+
+	void add(final XnfGate gate) {
+		for (final XnfPin pin : gate.getPins())
+			if (pin.getDir() == PinDirection.DRIVER)
+				drivers.put(pin.getSignal(), gate);
+			else if (pin.getDir() == PinDirection.CONSUMER) {
+				if (!consumers.containsKey(pin.getSignal()))
+					consumers.put(pin.getSignal(), new ArrayList<>());
+				consumers.get(pin.getSignal()).add(new Connection(gate, pin));
+			}
+	}
+
+	void remove(final XnfGate gate) {
+		for (final XnfPin pin : gate.getPins())
+			if (pin.getDir() == PinDirection.DRIVER) {
+				if (drivers.get(pin.getSignal()) == gate)
+					drivers.remove(pin.getSignal());
+			} else if (pin.getDir() == PinDirection.CONSUMER && consumers.containsKey(pin.getSignal()))
+				consumers.get(pin.getSignal()).removeIf(conn -> conn.gate() == gate);
+	}
+
+	XnfGate getDriver(final Name signal) {
+		return drivers.get(signal);
+	}
+
+	List<Connection> getConsumers(final Name signal) {
+		return consumers.getOrDefault(signal, List.of());
+	}
+
+	static record Connection(XnfGate gate, XnfPin pin) {
+	}
+}
@@ -0,0 +1,243 @@
+package xsynth.xnf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import xsynth.naming.Name;
+import xsynth.naming.SpecialName;
+import xsynth.xnf.Connectivity.Connection;
+
+/**
+ * Cut-enumeration mapper that covers the combinational gates of a netlist with
+ * k-input lookup tables. Cuts are chosen FlowMap-style for minimum depth first,
+ * then among the depth-optimal ones for minimum area flow.
+ *
+ * Cuts never extend across a gate whose output has more than one consumer. that
+ * gives up some depth, but it guarantees that every gate belongs to exactly one
+ * LUT, which is what the mapping symbols (and XACTstep) expect.
+ *
+ * Nets are compared by identity, like in {@link Connectivity}.
+ */
+class LutMapper {
+	private static final Set<String> LOGIC = Set.of("AND", "NAND", "OR", "NOR", "XOR", "XNOR", "INV", "BUF");
+	/** number of cuts kept per gate. more doesn't improve things much */
+	private static final int MAX_CUTS = 10;
+
+	private final Connectivity nets;
+	private final int lutInputs;
+	private final List<XnfGate> order = new ArrayList<>();
+	private final Map<Name, XnfGate> nodes = new IdentityHashMap<>();
+	private final Set<XnfGate> mappable = new HashSet<>();
+	private final Map<XnfGate, List<Cut>> cuts = new HashMap<>();
+	private final Map<XnfGate, Integer> depth = new HashMap<>();
+
+	LutMapper(final List<XnfGate> gates, final int lutInputs) {
+		this.lutInputs = lutInputs;
+		nets = new Connectivity(gates);
+		for (final XnfGate gate : gates)
+			if (isMappable(gate)) {
+				nodes.put(getOutput(gate), gate);
+				mappable.add(gate);
+			}
+		final Set<XnfGate> visiting = new HashSet<>();
+		final Set<XnfGate> done = new HashSet<>();
+		for (final XnfGate gate : gates)
+			if (mappable.contains(gate))
+				sort(gate, visiting, done);
+	}
+
+	private boolean isMappable(final XnfGate gate) {
+		if (!LOGIC.contains(gate.getType()))
+			return false;
+		int inputs = 0, outputs = 0;
+		for (final XnfPin pin : gate.getPins())
+			if (pin.getDir() == PinDirection.DRIVER)
+				outputs++;
+			else if (pin.getSignal() instanceof SpecialName)
+				// constant drivers are left alone. a function generator that computes a
+				// constant is pointless, and XACTstep handles them much better anyway.
+				return false;
+			else
+				inputs++;
+		return outputs == 1 && inputs >= 1 && inputs <= lutInputs;
+	}
+
+	private static Name getOutput(final XnfGate gate) {
+		for (final XnfPin pin : gate.getPins())
+			if (pin.getDir() == PinDirection.DRIVER)
+				return pin.getSignal();
+		throw new IllegalStateException("gate without output: " + gate.getType());
+	}
+
+	private List<Name> getInputs(final XnfGate gate) {
+		final List<Name> inputs = new ArrayList<>();
+		for (final XnfPin pin : gate.getPins())
+			if (pin.getDir() != PinDirection.DRIVER && !inputs.contains(pin.getSignal()))
+				inputs.add(pin.getSignal());
+		return inputs;
+	}
+
+	private void sort(final XnfGate gate, final Set<XnfGate> visiting, final Set<XnfGate> done) {
+		if (done.contains(gate))
+			return;
+		if (!visiting.add(gate)) {
+			// combinational loop. there is no sensible way to map that, so just leave
+			// the loop alone and let XACTstep complain about it.
+			nodes.remove(getOutput(gate));
+			mappable.remove(gate);
+			return;
+		}
+		for (final Name input : getInputs(gate)) {
+			final XnfGate driver = nodes.get(input);
+			if (driver != null)
+				sort(driver, visiting, done);
+		}
+		visiting.remove(gate);
+		done.add(gate);
+		if (mappable.contains(gate))
+			order.add(gate);
+	}
+
+	/**
+	 * a gate can be absorbed into the LUT of its consumer only if that consumer is
+	 * the only one. otherwise its output has to be a LUT output anyway.
+	 */
+	private boolean isAbsorbable(final Name signal) {
+		if (!nodes.containsKey(signal))
+			return false;
+		final List<Connection> consumers = nets.getConsumers(signal);
+		return consumers.size() == 1 && mappable.contains(consumers.get(0).gate());
+	}
+
+	private int getDepth(final Name leaf) {
+		final XnfGate driver = nodes.get(leaf);
+		return driver != null ? depth.get(driver) : 0;
+	}
+
+	/**
+	 * maps the netlist.
+	 *
+	 * @return the selected LUTs, in topological order
+	 */
+	List<Lut> map() {
+		// forward pass: enumerate cuts and compute the optimum depth of each gate
+		final Map<XnfGate, Double> areaFlow = new HashMap<>();
+		for (final XnfGate gate : order) {
+			List<Cut> merged = List.of(new Cut(List.of(), Set.of(gate)));
+			for (final Name input : getInputs(gate)) {
+				final List<Cut> options = new ArrayList<>();
+				options.add(new Cut(List.of(input), Set.of()));
+				if (isAbsorbable(input))
+					options.addAll(cuts.get(nodes.get(input)));
+				final List<Cut> next = new ArrayList<>();
+				for (final Cut a : merged)
+					for (final Cut b : options) {
+						final Cut cut = a.merge(b);
+						if (cut.leaves.size() <= lutInputs && !next.contains(cut))
+							next.add(cut);
+					}
+				merged = next;
+			}
+			for (final Cut cut : merged) {
+				int d = 0;
+				double af = 1;
+				for (final Name leaf : cut.leaves) {
+					d = Math.max(d, getDepth(leaf));
+					final XnfGate driver = nodes.get(leaf);
+					if (driver != null)
+						af += areaFlow.get(driver) / nets.getConsumers(leaf).size();
+				}
+				cut.depth = d + 1;
+				cut.areaFlow = af;
+			}
+			merged.sort(Comparator.<Cut>comparingInt(c -> c.depth).thenComparingDouble(c -> c.areaFlow));
+			if (merged.size() > MAX_CUTS)
+				merged = new ArrayList<>(merged.subList(0, MAX_CUTS));
+			cuts.put(gate, merged);
+			depth.put(gate, merged.get(0).depth);
+			areaFlow.put(gate, merged.get(0).areaFlow);
+		}
+
+		// the gates whose outputs must be LUT outputs: everything that isn't
+		// absorbed into its consumer
+		int maxDepth = 0;
+		final Map<XnfGate, Integer> required = new HashMap<>();
+		for (final XnfGate gate : order)
+			if (!isAbsorbable(getOutput(gate)))
+				maxDepth = Math.max(maxDepth, depth.get(gate));
+		for (final XnfGate gate : order)
+			if (!isAbsorbable(getOutput(gate)))
+				required.put(gate, maxDepth);
+
+		// backward pass: area recovery. among the cuts that still meet the required
+		// time, pick the one with the smallest area flow. a gate's own depth is
+		// optimal, so there is always at least one such cut.
+		final List<Lut> luts = new ArrayList<>();
+		for (int i = order.size() - 1; i >= 0; i--) {
+			final XnfGate gate = order.get(i);
+			if (!required.containsKey(gate))
+				continue;
+			final int req = required.get(gate);
+			Cut best = null;
+			for (final Cut cut : cuts.get(gate))
+				if (cut.depth <= req && (best == null || cut.areaFlow < best.areaFlow))
+					best = cut;
+			for (final Name leaf : best.leaves) {
+				final XnfGate driver = nodes.get(leaf);
+				if (driver != null)
+					required.merge(driver, req - 1, Math::min);
+			}
+			luts.add(0, new Lut(getOutput(gate), new ArrayList<>(best.leaves), new ArrayList<>(best.gates)));
+		}
+		return luts;
+	}
+
+	private static class Cut {
+		/** in order, because they become the inputs of the LUT */
+		private final List<Name> leaves;
+		private final Set<Name> leafSet = Collections.newSetFromMap(new IdentityHashMap<>());
+		private final Set<XnfGate> gates;
+		private int depth;
+		private double areaFlow;
+
+		private Cut(final List<Name> leaves, final Set<XnfGate> gates) {
+			this.leaves = leaves;
+			this.gates = gates;
+			leafSet.addAll(leaves);
+		}
+
+		private Cut merge(final Cut other) {
+			final List<Name> leaves = new ArrayList<>(this.leaves);
+			for (final Name leaf : other.leaves)
+				if (!leafSet.contains(leaf))
+					leaves.add(leaf);
+			final Set<XnfGate> gates = new LinkedHashSet<>(this.gates);
+			gates.addAll(other.gates);
+			return new Cut(leaves, gates);
+		}
+
+		@Override
+		public int hashCode() {
+			return leafSet.hashCode();
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			return obj instanceof final Cut other && leafSet.equals(other.leafSet) && gates.equals(other.gates);
+		}
+	}
+
+	/**
+	 * a single lookup table: the gates it covers and the nets that form its inputs.
+	 */
+	static record Lut(Name output, List<Name> inputs, List<XnfGate> gates) {
+	}
+}
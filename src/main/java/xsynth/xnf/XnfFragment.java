@@ -0,0 +1,146 @@
+package xsynth.xnf;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import xsynth.naming.Name;
+import xsynth.naming.NameTable;
+
+/**
+ * Writes the gates and pads added to a netlist after some point, and adds them
+ * to another netlist. Names are written using a {@link NameTable}, so the names
+ * created along with the gates have to be written before them.
+ */
+public class XnfFragment {
+	private final int gates;
+	private final int pads;
+	private final int iobRegisterCandidates;
+
+	/**
+	 * marks the current end of the netlist. everything added after that is part
+	 * of the fragment.
+	 */
+	public XnfFragment(final XnfNetlist xnf) {
+		gates = xnf.getGates().size();
+		pads = xnf.getPads().size();
+		iobRegisterCandidates = xnf.getIobRegisterCandidates().size();
+	}
+
+	public void write(final DataOutputStream out, final XnfNetlist xnf, final NameTable names) throws IOException {
+		final List<XnfGate> added = xnf.getGates().subList(gates, xnf.getGates().size());
+		final Map<XnfGate, Integer> index = new IdentityHashMap<>();
+		out.writeInt(added.size());
+		for (final XnfGate gate : added) {
+			index.put(gate, index.size());
+			out.writeUTF(gate.getType());
+			writeParams(out, gate.getParams());
+			out.writeInt(gate.getPins().size());
+			for (final XnfPin pin : gate.getPins()) {
+				out.writeUTF(pin.getDir().name());
+				out.writeUTF(pin.getPin());
+				out.writeBoolean(pin.isInvert());
+				names.writeRef(out, pin.getSignal());
+				writeParams(out, pin.getParams());
+			}
+			if (gate.hasAllocatedName())
+				names.writeRef(out, gate.getName());
+		}
+
+		final List<XnfPad> addedPads = xnf.getPads().subList(pads, xnf.getPads().size());
+		out.writeInt(addedPads.size());
+		for (final XnfPad pad : addedPads) {
+			out.writeUTF(pad.getType().name());
+			names.writeRef(out, pad.getSignal());
+			out.writeBoolean(pad.getLoc() != null);
+			if (pad.getLoc() != null)
+				out.writeUTF(pad.getLoc());
+			writeParams(out, pad.getParams());
+			out.writeInt(pad.getFlags().size());
+			for (final String flag : pad.getFlags())
+				out.writeUTF(flag);
+		}
+
+		final List<XnfGate> candidates = xnf.getIobRegisterCandidates().subList(iobRegisterCandidates,
+				xnf.getIobRegisterCandidates().size());
+		out.writeInt(candidates.size());
+		for (final XnfGate gate : candidates)
+			out.writeInt(index.get(gate));
+	}
+
+	/**
+	 * adds a fragment written by {@link #write(DataOutputStream, XnfNetlist, NameTable)}
+	 * to the netlist
+	 */
+	public static void read(final DataInputStream in, final XnfNetlist xnf, final NameTable names)
+			throws IOException {
+		final List<XnfGate> added = new ArrayList<>();
+		final int gates = in.readInt();
+		for (int i = 0; i < gates; i++) {
+			final XnfGate gate = xnf.addSymbol(in.readUTF(), readParams(in));
+			final int pins = in.readInt();
+			for (int j = 0; j < pins; j++) {
+				final PinDirection dir = readEnum(in, PinDirection.class);
+				final String pin = in.readUTF();
+				final boolean invert = in.readBoolean();
+				gate.connect(dir, pin, invert, names.readRef(in), readParams(in));
+			}
+			if (gate.hasAllocatedName())
+				gate.setAllocatedName(names.readRef(in));
+			added.add(gate);
+		}
+
+		final int pads = in.readInt();
+		for (int i = 0; i < pads; i++) {
+			final PadType type = readEnum(in, PadType.class);
+			final Name signal = names.readRef(in);
+			final String loc = in.readBoolean() ? in.readUTF() : null;
+			final Map<String, String> params = readParams(in);
+			final List<String> flags = new ArrayList<>();
+			final int count = in.readInt();
+			for (int j = 0; j < count; j++)
+				flags.add(in.readUTF());
+			xnf.addPad(type, signal, loc, params, flags);
+		}
+
+		final int candidates = in.readInt();
+		for (int i = 0; i < candidates; i++) {
+			final int gate = in.readInt();
+			if (gate < 0 || gate >= added.size())
+				throw new IOException("invalid gate index " + gate);
+			xnf.addIobRegisterCandidate(added.get(gate));
+		}
+	}
+
+	private static void writeParams(final DataOutputStream out, final Map<String, String> params)
+			throws IOException {
+		out.writeInt(params.size());
+		for (final Map.Entry<String, String> param : params.entrySet()) {
+			out.writeUTF(param.getKey());
+			out.writeBoolean(param.getValue() != null);
+			if (param.getValue() != null)
+				out.writeUTF(param.getValue());
+		}
+	}
+
+	private static Map<String, String> readParams(final DataInputStream in) throws IOException {
+		final Map<String, String> params = new LinkedHashMap<>();
+		final int count = in.readInt();
+		for (int i = 0; i < count; i++)
+			params.put(in.readUTF(), in.readBoolean() ? in.readUTF() : null);
+		return params;
+	}
+
+	private static <E extends Enum<E>> E readEnum(final DataInputStream in, final Class<E> type) throws IOException {
+		try {
+			return Enum.valueOf(type, in.readUTF());
+		} catch (final IllegalArgumentException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+}
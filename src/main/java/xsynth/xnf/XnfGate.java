@@ -6,12 +6,14 @@ import java.util.List;
 import java.util.Map;
 
 import xsynth.naming.Name;
+import xsynth.naming.Namespace;
 
 public class XnfGate {
 	private final List<XnfPin> pins = new ArrayList<>();
 	private final Map<String, String> params;
 	private final String type;
 	private Name name;
+	private Namespace partition;
 
 	public XnfGate(final String type, final Map<String, String> params) {
 		this.params = new LinkedHashMap<>(params != null ? params : Map.of());
@@ -44,6 +46,24 @@ public class XnfGate {
 		name = pins.get(0).getSignal().getAnonymous(type);
 	}
 
+	/**
+	 * @return whether the gate is named by {@link #allocateName()} rather than
+	 *         after the net it drives
+	 */
+	boolean hasAllocatedName() {
+		for (final XnfPin pin : pins)
+			if (pin.getDir() == PinDirection.DRIVER)
+				return false;
+		return true;
+	}
+
+	/**
+	 * restores a name previously assigned by {@link #allocateName()}
+	 */
+	void setAllocatedName(final Name name) {
+		this.name = name;
+	}
+
 	private Name computeName() {
 		// derive block name from the net it drives
 		for (final XnfPin pin : pins)
@@ -60,7 +80,34 @@ public class XnfGate {
 		return pins;
 	}
 
+	XnfPin getPin(final String name) {
+		for (final XnfPin pin : pins)
+			if (pin.getPin().equals(name))
+				return pin;
+		return null;
+	}
+
+	/**
+	 * moves a pin to a different net, keeping everything else about it.
+	 */
+	void reconnect(final XnfPin pin, final Name signal) {
+		pins.set(pins.indexOf(pin),
+				new XnfPin(pin.getDir(), pin.getPin(), pin.isInvert(), signal, pin.getParams()));
+	}
+
 	public String getType() {
 		return type;
 	}
+
+	/**
+	 * @return the namespace of the model the gate was converted from, or null if
+	 *         it belongs to the top level. see {@link XnfNetlist#partition()}.
+	 */
+	public Namespace getPartition() {
+		return partition;
+	}
+
+	void setPartition(final Namespace partition) {
+		this.partition = partition;
+	}
 }
@@ -1,19 +1,37 @@
 package xsynth.xnf;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 
 import xsynth.naming.Name;
+import xsynth.naming.Namespace;
+import xsynth.naming.SpecialName;
+import xsynth.xnf.Connectivity.Connection;
+import xsynth.xnf.LutMapper.Lut;
+import xsynth.xnf.XnfPartition.PortDirection;
 
 public class XnfNetlist {
+	/** clock, enable, reset and write-enable pins of flipflops, latches and RAMs */
+	private static final Set<String> CONTROL_PINS = Set.of("C", "G", "CE", "RD", "SD", "WE", "WCLK");
+
 	private final List<XnfGate> gates = new ArrayList<>();
 	private final List<XnfPad> pads = new ArrayList<>();
+	private final List<XnfGate> iobRegisterCandidates = new ArrayList<>();
 	private final int maxGateInputs;
 	private final boolean hasLatches;
 	private final boolean hasLatchInitValue;
+	private Namespace partition;
 
 	public XnfNetlist(final int maxGateInputs, final boolean hasLatches, final boolean hasLatchInitValue) {
 		this.maxGateInputs = maxGateInputs;
@@ -23,10 +41,19 @@ public class XnfNetlist {
 
 	public XnfGate addSymbol(final String type, final Map<String, String> params) {
 		final XnfGate gate = new XnfGate(type, params);
+		gate.setPartition(partition);
 		gates.add(gate);
 		return gate;
 	}
 
+	/**
+	 * makes the gates added from now on part of the given model's partition, see
+	 * {@link #partition()}. null adds them to the top level.
+	 */
+	public void setPartition(final Namespace partition) {
+		this.partition = partition;
+	}
+
 	public void addPad(final PadType type, final Name signal, final String loc, final Map<String, String> params,
 			final List<String> flags) {
 		pads.add(new XnfPad(type, signal, loc, params, flags));
@@ -71,8 +98,59 @@ public class XnfNetlist {
 		gate.connect(PinDirection.DRIVER, "O", false, output, null);
 	}
 
+	/**
+	 * implements a wide AND gate using one of the dedicated wired-AND decoders
+	 * along the edges of the chip. each input gets a WAND1 which pulls the decoder
+	 * line low, and a PULLUP keeps it high otherwise, so the result is a single
+	 * level of logic no matter how wide the gate.
+	 */
+	public void addWideDecoder(final Name output, final boolean invertOutput, final List<Term> inputs) {
+		final Name line = invertOutput ? output.getAnonymous("DECODE") : output;
+		// the WAND1s all drive the decoder line together, so they use the "pullup"
+		// direction to avoid being named after it
+		for (final Term input : inputs) {
+			final XnfGate wand = addSymbol("WAND1", null);
+			wand.connect(PinDirection.PULLUP, "O", false, line, null);
+			wand.connect(PinDirection.CONSUMER, "I", input.invert(), input.name(), null);
+			wand.allocateName();
+		}
+		final XnfGate pullup = addSymbol("PULLUP", null);
+		pullup.connect(PinDirection.PULLUP, "O", false, line, null);
+		pullup.allocateName();
+		if (invertOutput)
+			addBuffer("INV", output, line);
+	}
+
+	/**
+	 * implements a multiplexer on a long line: each data input gets a TBUF which
+	 * drives the line while its (active-low) enable is asserted, and a PULLUP keeps
+	 * the line from floating. the enables must be mutually exclusive.
+	 */
+	public void addTristateMux(final Name output, final List<Name> data, final List<Name> enables) {
+		// like the wired-AND decoder, the TBUFs share the line, so they cannot be named
+		// after it
+		for (int i = 0; i < data.size(); i++) {
+			final XnfGate tbuf = addSymbol("TBUF", null);
+			tbuf.connect(PinDirection.PULLUP, "O", false, output, null);
+			tbuf.connect(PinDirection.CONSUMER, "I", false, data.get(i), null);
+			tbuf.connect(PinDirection.CONSUMER, "T", false, enables.get(i), null);
+			tbuf.allocateName();
+		}
+		final XnfGate pullup = addSymbol("PULLUP", null);
+		pullup.connect(PinDirection.PULLUP, "O", false, output, null);
+		pullup.allocateName();
+	}
+
 	public void addLatch(final LatchType type, final boolean initSet, final Name output, final Name input,
 			final Name clock, final boolean invertClock) {
+		addLatch(type, initSet, output, input, clock, invertClock, null, false);
+	}
+
+	/**
+	 * @param enable clock enable, or null if the latch is always enabled
+	 */
+	public void addLatch(final LatchType type, final boolean initSet, final Name output, final Name input,
+			final Name clock, final boolean invertClock, final Name enable, final boolean invertEnable) {
 		if (type == LatchType.LATCH && !hasLatches)
 			throw new IllegalArgumentException("latches not supported by chip: " + output);
 
@@ -102,9 +180,400 @@ public class XnfNetlist {
 		final XnfGate gate = addSymbol(type.getSymbol(), params);
 		gate.connect(PinDirection.CONSUMER, type.getClockPin(), invertClock, clock, null);
 		gate.connect(PinDirection.CONSUMER, "D", false, d, null);
+		if (enable != null)
+			gate.connect(PinDirection.CONSUMER, "CE", invertEnable, enable, null);
 		gate.connect(PinDirection.DRIVER, "Q", false, q, null);
 	}
 
+	/**
+	 * puts a synchronous reset back into flipflops whose data logic has been
+	 * implemented without it: every flipflop fed by one of the {@code cleared}
+	 * nets gets an AND with the inactive reset in front of its D input, and every
+	 * one fed by one of the {@code set} nets an OR with the active reset. the
+	 * gates go into the flipflop's partition.
+	 *
+	 * @param reset the reset net, inverted if it is active low
+	 */
+	public void addSynchronousReset(final Term reset, final List<Name> cleared, final List<Name> set) {
+		final Connectivity nets = new Connectivity(gates);
+		final Namespace current = partition;
+		try {
+			for (final boolean value : new boolean[] { false, true })
+				for (final Name input : value ? set : cleared)
+					for (final Connection conn : List.copyOf(nets.getConsumers(input))) {
+						if (!conn.pin().getPin().equals("D"))
+							continue;
+						final Name gated = input.getAnonymous("RESET");
+						partition = conn.gate().getPartition();
+						addLogicGate(value ? "OR" : "AND", gated, false, List.of(new Term(input, false),
+								new Term(reset.name(), value == reset.invert())));
+						conn.gate().reconnect(conn.pin(), gated);
+					}
+		} finally {
+			partition = current;
+		}
+	}
+
+	/**
+	 * marks an IBUF, OBUF or OBUFT as eligible for absorbing an adjacent flipflop
+	 * into the IOB. see {@link #packIobRegisters()}.
+	 */
+	public void addIobRegisterCandidate(final XnfGate buffer) {
+		iobRegisterCandidates.add(buffer);
+	}
+
+	/**
+	 * replaces flipflops that sit directly next to an IO buffer by the IOB's own
+	 * flipflop. an input flipflop is packed if its D input is the IBUF's output; an
+	 * output flipflop is packed if its Q output drives nothing but the OBUF.
+	 *
+	 * @return outputs of the flipflops that were packed into an IOB
+	 */
+	public List<Name> packIobRegisters() {
+		final Connectivity nets = new Connectivity(gates);
+		final Set<XnfGate> removed = new HashSet<>();
+		final List<Name> packed = new ArrayList<>();
+		for (final XnfGate buffer : iobRegisterCandidates) {
+			if (buffer.getType().equals("IBUF")) {
+				final Name pad = buffer.getPin("I").getSignal();
+				final Name input = buffer.getPin("O").getSignal();
+				final List<Connection> consumers = new ArrayList<>(nets.getConsumers(input));
+				// there is only a single input flipflop per IOB, so if the input drives
+				// several flipflops, only the first one can be packed
+				for (final Connection conn : consumers) {
+					final XnfGate ff = conn.gate();
+					if (!conn.pin().getPin().equals("D") || !isPlainFlipFlop(ff))
+						continue;
+					final XnfGate inff = replaceFlipFlop(nets, ff, "INFF", buffer, pad);
+					inff.connect(PinDirection.DRIVER, "Q", false, ff.getPin("Q").getSignal(), null);
+					nets.add(inff);
+					packed.add(ff.getPin("Q").getSignal());
+					// if the flipflop was the only thing using the input, the IBUF is now
+					// unused. else it still needs to be there for the unregistered path.
+					if (consumers.size() == 1) {
+						nets.remove(buffer);
+						removed.add(buffer);
+					}
+					break;
+				}
+			} else {
+				final Name output = buffer.getPin("I").getSignal();
+				final XnfGate ff = nets.getDriver(output);
+				// the output flipflop cannot drive anything but the pad, so if the flipflop
+				// has other consumers, it has to stay in a CLB
+				if (ff == null || !isPlainFlipFlop(ff) || nets.getConsumers(output).size() != 1)
+					continue;
+				final XnfPin tristate = buffer.getPin("T");
+				final XnfGate outff = replaceFlipFlop(nets, ff, tristate != null ? "OUTFFT" : "OUTFF", buffer,
+						ff.getPin("D").getSignal());
+				if (tristate != null)
+					outff.connect(PinDirection.CONSUMER, "T", tristate.isInvert(), tristate.getSignal(), null);
+				outff.connect(PinDirection.DRIVER, "O", false, buffer.getPin("O").getSignal(), null);
+				nets.remove(buffer);
+				removed.add(buffer);
+				nets.add(outff);
+				packed.add(output);
+			}
+		}
+		gates.removeAll(removed);
+		return packed;
+	}
+
+	private boolean isPlainFlipFlop(final XnfGate gate) {
+		// only pack flipflops without any extras like clock enable. the IOB flipflops
+		// don't necessarily support them, and they are rare anyway.
+		if (!gate.getType().equals(LatchType.FLIPFLOP.getSymbol()) || gate.getPins().size() != 3)
+			return false;
+		final XnfPin d = gate.getPin("D");
+		final XnfPin q = gate.getPin("Q");
+		return d != null && !d.isInvert() && q != null && !q.isInvert()
+				&& gate.getPin(LatchType.FLIPFLOP.getClockPin()) != null;
+	}
+
+	private XnfGate replaceFlipFlop(final Connectivity nets, final XnfGate ff, final String type,
+			final XnfGate buffer, final Name data) {
+		// the IO buffer's parameters (levels, delay) apply to the IOB flipflop as well
+		final Map<String, String> params = new LinkedHashMap<>(ff.getParams());
+		params.putAll(buffer.getParams());
+		final XnfGate iobff = new XnfGate(type, params);
+		final XnfPin clock = ff.getPin(LatchType.FLIPFLOP.getClockPin());
+		iobff.connect(PinDirection.CONSUMER, clock.getPin(), clock.isInvert(), clock.getSignal(), null);
+		iobff.connect(PinDirection.CONSUMER, "D", false, data, null);
+		nets.remove(ff);
+		gates.set(gates.indexOf(ff), iobff);
+		return iobff;
+	}
+
+	/**
+	 * duplicates flipflops and latches that drive more than the given number of
+	 * loads, so that the loads can be spread across the chip instead of all
+	 * converging on a single CLB. the copies share clock, input and initial value
+	 * with the original. the loads are assigned to the copies in order, grouped by
+	 * the namespace of the consuming gate, so that each copy tends to serve a
+	 * single part of the design.
+	 *
+	 * @param maxFanout maximum number of loads per copy
+	 * @return number of copies, including the original, for each register that
+	 *         was duplicated
+	 */
+	public Map<Name, Integer> duplicateRegisters(final int maxFanout) {
+		final Connectivity nets = new Connectivity(gates);
+		final Set<String> storage = Set.of(LatchType.FLIPFLOP.getSymbol(), LatchType.LATCH.getSymbol());
+		final Map<Name, Integer> duplicated = new LinkedHashMap<>();
+		for (final XnfGate ff : new ArrayList<>(gates)) {
+			if (!storage.contains(ff.getType()))
+				continue;
+			final Name q = ff.getPin("Q").getSignal();
+			final List<Connection> loads = nets.getConsumers(q);
+			if (loads.size() <= maxFanout)
+				continue;
+
+			// namespaces don't have a usable hashCode before they're resolved, so they
+			// have to be compared by identity
+			final Map<Namespace, Integer> groups = new IdentityHashMap<>();
+			for (final Connection conn : loads)
+				groups.putIfAbsent(getLocality(conn.gate()), groups.size());
+			final List<Connection> ordered = new ArrayList<>(loads);
+			ordered.sort(Comparator.comparingInt(conn -> groups.get(getLocality(conn.gate()))));
+
+			// the original keeps the first batch of loads; every further batch gets a
+			// copy of its own
+			final int copies = (ordered.size() + maxFanout - 1) / maxFanout;
+			for (int i = 1; i < copies; i++) {
+				final Name copy = q.getAnonymous("DUP");
+				final XnfGate clone = new XnfGate(ff.getType(), ff.getParams());
+				clone.setPartition(ff.getPartition());
+				for (final XnfPin pin : ff.getPins())
+					clone.connect(pin.getDir(), pin.getPin(), pin.isInvert(),
+							pin.getDir() == PinDirection.DRIVER ? copy : pin.getSignal(), pin.getParams());
+				gates.add(gates.indexOf(ff) + i, clone);
+				nets.add(clone);
+				final int end = Math.min((i + 1) * maxFanout, ordered.size());
+				for (final Connection conn : ordered.subList(i * maxFanout, end)) {
+					nets.remove(conn.gate());
+					conn.gate().reconnect(conn.pin(), copy);
+					nets.add(conn.gate());
+				}
+			}
+			duplicated.put(q, copies);
+		}
+		return duplicated;
+	}
+
+	private static Namespace getLocality(final XnfGate gate) {
+		// gates are named after the net they drive, so that's where they belong. gates
+		// without outputs go with their first input.
+		for (final XnfPin pin : gate.getPins())
+			if (pin.getDir() == PinDirection.DRIVER)
+				return pin.getSignal().getNamespace();
+		return gate.getPins().get(0).getSignal().getNamespace();
+	}
+
+	/**
+	 * routes the clock and control nets with the highest fanout through global
+	 * buffers, as far as there are any global buffers left. nets that already have
+	 * an explicit buffer, or that feed one, are left alone, and so are special
+	 * nets like the implicit global clock.
+	 *
+	 * only the control pins are moved to the buffered net; data inputs stay on the
+	 * original net because not all global buffers can reach them.
+	 *
+	 * @param bufferTypes types of the global buffers, used for identifying
+	 *                    explicitly buffered nets
+	 * @param budget      number of global buffers available to the netlist,
+	 *                    including those already used by explicit buffers
+	 * @param minFanout   nets with fewer control loads than this aren't worth a
+	 *                    global buffer
+	 */
+	public BufferedNets insertGlobalBuffers(final Set<String> bufferTypes, final int budget, final int minFanout) {
+		final Connectivity nets = new Connectivity(gates);
+		int available = budget;
+		final Map<Name, List<Connection>> candidates = new LinkedHashMap<>();
+		final Set<Name> buffered = new HashSet<>();
+		for (final XnfGate gate : gates) {
+			if (bufferTypes.contains(gate.getType().toUpperCase(Locale.ROOT))) {
+				available--;
+				for (final XnfPin pin : gate.getPins())
+					buffered.add(pin.getSignal());
+			}
+			for (final XnfPin pin : gate.getPins())
+				if (pin.getDir() != PinDirection.DRIVER && CONTROL_PINS.contains(pin.getPin())) {
+					if (!candidates.containsKey(pin.getSignal()))
+						candidates.put(pin.getSignal(), new ArrayList<>());
+					candidates.get(pin.getSignal()).add(new Connection(gate, pin));
+				}
+		}
+		candidates.keySet().removeIf(net -> net instanceof SpecialName || buffered.contains(net)
+				|| nets.getDriver(net) == null || candidates.get(net).size() < minFanout);
+
+		final List<Name> order = new ArrayList<>(candidates.keySet());
+		order.sort((a, b) -> candidates.get(b).size() - candidates.get(a).size());
+		final Map<Name, Integer> inserted = new LinkedHashMap<>();
+		final Map<Name, Integer> skipped = new LinkedHashMap<>();
+		for (final Name net : order) {
+			final List<Connection> loads = candidates.get(net);
+			if (available <= 0) {
+				skipped.put(net, loads.size());
+				continue;
+			}
+			final Name global = net.getAnonymous("BUFG");
+			addBuffer("BUFG", global, net);
+			for (final Connection conn : loads)
+				conn.gate().reconnect(conn.pin(), global);
+			inserted.put(net, loads.size());
+			available--;
+		}
+		return new BufferedNets(inserted, skipped);
+	}
+
+	/**
+	 * covers the combinational logic with function generators and records that
+	 * mapping as FMAP and HMAP symbols, so that XACTstep doesn't have to come up
+	 * with its own (slow, and usually deeper) mapping.
+	 *
+	 * @param lutInputs number of inputs of the F and G function generators
+	 * @param hInputs   number of inputs of the H function generator, which
+	 *                  combines F and G plus additional inputs. 0 if the CLB
+	 *                  doesn't have one.
+	 */
+	public MappingStatistics mapFunctionGenerators(final int lutInputs, final int hInputs) {
+		final List<Lut> luts = new LutMapper(gates, lutInputs).map();
+		final Connectivity nets = new Connectivity(gates);
+		final Map<Name, Lut> outputs = new IdentityHashMap<>();
+		for (final Lut lut : luts)
+			outputs.put(lut.output(), lut);
+
+		// a small LUT that combines the outputs of two other LUTs can be put into the H
+		// function generator, but only if F and G don't have to drive anything else:
+		// H uses them internally, but that doesn't make them available outside the CLB
+		final Set<Name> fg = Collections.newSetFromMap(new IdentityHashMap<>());
+		int fmaps = 0, hmaps = 0;
+		for (int i = luts.size() - 1; i >= 0; i--) {
+			final Lut lut = luts.get(i);
+			if (lut.inputs().size() > hInputs)
+				continue;
+			final List<Name> inputs = new ArrayList<>();
+			for (final Name input : lut.inputs())
+				if (inputs.size() < 2 && outputs.containsKey(input) && !fg.contains(input)
+						&& outputs.get(input).inputs().size() > 1 && nets.getConsumers(input).size() == 1)
+					inputs.add(input);
+			if (inputs.size() < 2)
+				continue;
+			fg.addAll(inputs);
+			for (final Name input : lut.inputs())
+				if (!inputs.contains(input))
+					inputs.add(input);
+			addMappingSymbol("HMAP", lut.output(), inputs);
+			outputs.remove(lut.output());
+			hmaps++;
+		}
+
+		// logic depth in terms of function generators, for the statistics
+		final Map<Name, Integer> levels = new IdentityHashMap<>();
+		int depth = 0;
+		for (final Lut lut : luts) {
+			int level = 0;
+			for (final Name input : lut.inputs())
+				level = Math.max(level, levels.getOrDefault(input, 0));
+			levels.put(lut.output(), level + 1);
+			depth = Math.max(depth, level + 1);
+		}
+
+		// everything else goes into F or G. single-input LUTs are just buffers or
+		// inverters, which XACTstep absorbs into the pins anyway
+		for (final Lut lut : luts)
+			if (outputs.containsKey(lut.output()) && lut.inputs().size() > 1) {
+				addMappingSymbol("FMAP", lut.output(), lut.inputs());
+				fmaps++;
+			}
+		return new MappingStatistics(fmaps, hmaps, depth);
+	}
+
+	/**
+	 * groups the combinational logic with the flipflops it feeds and assigns each
+	 * group to a CLB by tagging its gates with BLKNM. must be called after names
+	 * have been resolved, because the CLBs are named after one of their outputs.
+	 *
+	 * @param clbInputs      number of logic inputs of a CLB
+	 * @param functionInputs number of inputs of each function if the CLB is used
+	 *                       for two separate functions
+	 * @param flipFlops      number of storage elements per CLB
+	 * @return number of CLBs used
+	 */
+	public int packClbs(final int clbInputs, final int functionInputs, final int flipFlops) {
+		return new ClbPacker(gates, clbInputs, functionInputs, flipFlops).pack();
+	}
+
+	private void addMappingSymbol(final String type, final Name output, final List<Name> inputs) {
+		// the mapping symbols don't actually drive anything; the output is driven by
+		// the logic that the symbol covers. they thus need an explicitly allocated
+		// name, which is derived from the output because that comes first.
+		final XnfGate map = addSymbol(type, null);
+		map.connect(PinDirection.CONSUMER, "O", false, output, null);
+		for (int i = 0; i < inputs.size(); i++)
+			map.connect(PinDirection.CONSUMER, "I" + (i + 1), false, inputs.get(i), null);
+		map.allocateName();
+	}
+
+	/**
+	 * splits the netlist into one partition for every model, according to the
+	 * model each gate was converted from. gates added by the passes that work on
+	 * the whole netlist, like global buffers and IOB flipflops, stay in the top
+	 * level along with the pads.
+	 *
+	 * a net becomes a port of every partition that uses it if it is used anywhere
+	 * else as well, either in another partition or in the top level. the power
+	 * and implicit clock nets always count as used in the top level, because
+	 * that's where they are defined.
+	 *
+	 * @return the partitions, in the order of their first gate
+	 */
+	public List<XnfPartition> partition() {
+		// namespaces don't have a usable hashCode before they're resolved, so they
+		// have to be compared by identity. nets as well, like in Connectivity
+		final Map<Namespace, XnfPartition> partitions = new IdentityHashMap<>();
+		final List<XnfPartition> ordered = new ArrayList<>();
+		final Map<Name, Set<Namespace>> users = new IdentityHashMap<>();
+		final Map<Name, Set<Namespace>> drivers = new IdentityHashMap<>();
+		for (final XnfGate gate : gates) {
+			if (gate.getPartition() != null && !partitions.containsKey(gate.getPartition())) {
+				final XnfPartition part = new XnfPartition(gate.getPartition());
+				partitions.put(gate.getPartition(), part);
+				ordered.add(part);
+			}
+			if (gate.getPartition() != null)
+				partitions.get(gate.getPartition()).gates.add(gate);
+			for (final XnfPin pin : gate.getPins()) {
+				addUser(users, pin.getSignal(), gate.getPartition());
+				if (pin.getDir() != PinDirection.CONSUMER)
+					addUser(drivers, pin.getSignal(), gate.getPartition());
+			}
+		}
+		for (final XnfPad pad : pads)
+			addUser(users, pad.getSignal(), null);
+
+		for (final XnfPartition part : ordered)
+			for (final XnfGate gate : part.gates)
+				for (final XnfPin pin : gate.getPins()) {
+					final Name net = pin.getSignal();
+					if (part.ports.containsKey(net)
+							|| users.get(net).size() == 1 && !(net instanceof SpecialName))
+						continue;
+					final Set<Namespace> driven = drivers.getOrDefault(net, Set.of());
+					if (!driven.contains(part.getNamespace()))
+						part.ports.put(net, PortDirection.INPUT);
+					else
+						part.ports.put(net, driven.size() > 1 ? PortDirection.BIDIRECTIONAL : PortDirection.OUTPUT);
+				}
+		return ordered;
+	}
+
+	private static void addUser(final Map<Name, Set<Namespace>> users, final Name net, final Namespace partition) {
+		if (!users.containsKey(net))
+			users.put(net, Collections.newSetFromMap(new IdentityHashMap<>()));
+		users.get(net).add(partition);
+	}
+
 	public List<XnfGate> getGates() {
 		return gates;
 	}
@@ -113,6 +582,21 @@ public class XnfNetlist {
 		return pads;
 	}
 
+	List<XnfGate> getIobRegisterCandidates() {
+		return iobRegisterCandidates;
+	}
+
 	public static record Term(Name name, boolean invert) {
 	}
+
+	public static record MappingStatistics(int fmaps, int hmaps, int depth) {
+	}
+
+	/**
+	 * result of {@link XnfNetlist#insertGlobalBuffers(Set, int, int)}: the nets
+	 * that were buffered, and those that would have needed a buffer but none was
+	 * left. both map the net to its number of control loads.
+	 */
+	public static record BufferedNets(Map<Name, Integer> buffered, Map<Name, Integer> unbuffered) {
+	}
 }
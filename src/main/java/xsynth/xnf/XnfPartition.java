@@ -0,0 +1,95 @@
+package xsynth.xnf;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import xsynth.naming.Name;
+import xsynth.naming.Namespace;
+
+/**
+ * The gates converted from a single model, written to an XNF file of their own
+ * and instantiated by the top-level file. Created by
+ * {@link XnfNetlist#partition()}, after names have been resolved.
+ *
+ * Within the file, names in the model's namespace drop the namespace prefix,
+ * because XNFMERGE puts it back when it flattens the design: with the partition
+ * instantiated under the namespace's name, they come out the same as in the
+ * flat XNF file. Only if that would make a local name collide with another one
+ * does the file keep the full names.
+ */
+public class XnfPartition {
+	final List<XnfGate> gates = new ArrayList<>();
+	final Map<Name, PortDirection> ports = new LinkedHashMap<>();
+	private final Namespace ns;
+	private Boolean stripPrefix;
+
+	XnfPartition(final Namespace ns) {
+		this.ns = ns;
+	}
+
+	public Namespace getNamespace() {
+		return ns;
+	}
+
+	/**
+	 * @return the name of both the partition's instance in the top-level file, and
+	 *         the symbol type it instantiates. the partition's file is named after
+	 *         it, too.
+	 */
+	public String getName() {
+		return ns.getXnf();
+	}
+
+	public List<XnfGate> getGates() {
+		return gates;
+	}
+
+	/** @return the nets that connect the partition to the rest of the design */
+	public Map<Name, PortDirection> getPorts() {
+		return ports;
+	}
+
+	/** @return the name of a net or gate within the partition's file */
+	public String getLocalName(final Name name) {
+		final String prefix = ns.getXnf() + "/";
+		if (stripPrefix == null) {
+			final Set<String> local = new HashSet<>(), other = new HashSet<>();
+			for (final XnfGate gate : gates) {
+				addName(local, other, prefix, gate.getName());
+				for (final XnfPin pin : gate.getPins())
+					addName(local, other, prefix, pin.getSignal());
+			}
+			local.retainAll(other);
+			stripPrefix = local.isEmpty();
+		}
+		if (stripPrefix && name.getXnf().startsWith(prefix))
+			return name.getXnf().substring(prefix.length());
+		return name.getXnf();
+	}
+
+	private static void addName(final Set<String> local, final Set<String> other, final String prefix,
+			final Name name) {
+		if (name.getXnf().startsWith(prefix))
+			local.add(name.getXnf().substring(prefix.length()));
+		else
+			other.add(name.getXnf());
+	}
+
+	public enum PortDirection {
+		INPUT("I"), OUTPUT("O"), BIDIRECTIONAL("B");
+
+		private final String code;
+
+		private PortDirection(final String code) {
+			this.code = code;
+		}
+
+		public String getCode() {
+			return code;
+		}
+	}
+}
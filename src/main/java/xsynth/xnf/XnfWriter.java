@@ -3,51 +3,87 @@ package xsynth.xnf;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 import xsynth.XSynth;
+import xsynth.naming.Name;
 import xsynth.naming.Namespace;
 import xsynth.naming.SpecialName;
+import xsynth.xnf.XnfPartition.PortDirection;
 
 public class XnfWriter implements AutoCloseable {
+	private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
 	private final OutputStream xnf;
+	private final Function<Name, String> names;
 
 	public XnfWriter(final OutputStream xnf) {
+		this(xnf, Name::getXnf);
+	}
+
+	/**
+	 * @param names gives the name under which a net or symbol appears in the file
+	 */
+	public XnfWriter(final OutputStream xnf, final Function<Name, String> names) {
 		this.xnf = xnf;
+		this.names = names;
 	}
 
 	public void writeHeader(final Namespace ns, final String part, final List<String> cmdline) throws IOException {
+		writeHeader(ns, part, cmdline, LocalDateTime.now());
+	}
+
+	/**
+	 * writes the header, recording the given time in the PROG record. null leaves
+	 * the time out, so that the header only depends on the version and command
+	 * line.
+	 */
+	public void writeHeader(final Namespace ns, final String part, final List<String> cmdline,
+			final TemporalAccessor timestamp) throws IOException {
+		writeHeader(part, cmdline, timestamp);
+		writePower(ns, "0", SpecialName.GND);
+		writePower(ns, "1", SpecialName.VCC);
+	}
+
+	/**
+	 * writes the header without any power nets, for a file whose power nets are
+	 * ports
+	 */
+	public void writeHeader(final String part, final List<String> cmdline, final TemporalAccessor timestamp)
+			throws IOException {
 		final StringBuilder comment = new StringBuilder("\"");
-		comment.append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()));
+		if (timestamp != null)
+			comment.append(TIMESTAMP.format(timestamp));
 		for (final String cmd : cmdline)
-			comment.append(' ').append(cmd);
+			comment.append(comment.length() > 1 ? " " : "").append(cmd);
 		comment.append('"');
 		writeRecord(RecordType.LCANET, Map.of(), "6");
 		writeRecord(RecordType.PROG, Map.of(), "XSynth", XSynth.getVersion(), comment.toString());
 		if (part != null)
 			writeRecord(RecordType.PART, Map.of(), part);
-		writePower(ns, "0", SpecialName.GND);
-		writePower(ns, "1", SpecialName.VCC);
 	}
 
 	private void writePower(final Namespace ns, final String power, final String special) throws IOException {
 		if (ns.hasSpecial(special))
-			writeRecord(RecordType.PWR, Map.of(), power, ns.getSpecial(special).getXnf());
+			writeRecord(RecordType.PWR, Map.of(), power, names.apply(ns.getSpecial(special)));
 	}
 
 	public void writeSymbol(final XnfGate gate) throws IOException {
 		final Map<String, String> params = new LinkedHashMap<>(gate.getParams());
 		params.put("LIBVER", "2.0.0");
-		writeRecord(RecordType.SYM, params, gate.getName().getXnf(), gate.getType());
+		writeRecord(RecordType.SYM, params, names.apply(gate.getName()), gate.getType());
 		for (final XnfPin pin : gate.getPins()) {
 			final Map<String, String> params1 = pin.getParams();
 			if (pin.isInvert())
 				params1.put("INV", null);
-			writeRecord(RecordType.PIN, params1, pin.getPin(), pin.getDir().getCode(), pin.getSignal().getXnf(), "");
+			writeRecord(RecordType.PIN, params1, pin.getPin(), pin.getDir().getCode(), names.apply(pin.getSignal()),
+					"");
 		}
 		writeRecord(RecordType.END, Map.of());
 	}
@@ -57,7 +93,30 @@ public class XnfWriter implements AutoCloseable {
 		for (final String flag : pad.getFlags())
 			params.put(flag, null);
 		params.put("LOC", pad.getLoc());
-		writeRecord(RecordType.EXT, params, pad.getSignal().getXnf(), pad.getType().getCode(), "");
+		writeRecord(RecordType.EXT, params, names.apply(pad.getSignal()), pad.getType().getCode(), "");
+	}
+
+	/**
+	 * writes the symbol that instantiates a partition in the top-level file. its
+	 * pins are named after the ports in the partition's file.
+	 */
+	public void writeInstance(final XnfPartition partition) throws IOException {
+		writeRecord(RecordType.SYM, Map.of(), partition.getName(), partition.getName());
+		for (final Map.Entry<Name, PortDirection> port : partition.getPorts().entrySet())
+			writeRecord(RecordType.PIN, Map.of(), partition.getLocalName(port.getKey()), port.getValue().getCode(),
+					names.apply(port.getKey()), "");
+		writeRecord(RecordType.END, Map.of());
+	}
+
+	/**
+	 * writes the gates of a partition, and its ports as EXT records without a
+	 * location. the writer has to use {@link XnfPartition#getLocalName(Name)}.
+	 */
+	public void writePartition(final XnfPartition partition) throws IOException {
+		for (final XnfGate gate : partition.getGates())
+			writeSymbol(gate);
+		for (final Map.Entry<Name, PortDirection> port : partition.getPorts().entrySet())
+			writeRecord(RecordType.EXT, Map.of(), names.apply(port.getKey()), port.getValue().getCode(), "");
 	}
 
 	public void writeNetlist(final XnfNetlist netlist) throws IOException {
@@ -67,6 +126,20 @@ public class XnfWriter implements AutoCloseable {
 			writePad(pad);
 	}
 
+	/**
+	 * writes the top level of a partitioned netlist: the gates that aren't part
+	 * of any partition, an instance of each partition, and the pads
+	 */
+	public void writeTopLevel(final XnfNetlist netlist, final List<XnfPartition> partitions) throws IOException {
+		for (final XnfGate gate : netlist.getGates())
+			if (gate.getPartition() == null)
+				writeSymbol(gate);
+		for (final XnfPartition partition : partitions)
+			writeInstance(partition);
+		for (final XnfPad pad : netlist.getPads())
+			writePad(pad);
+	}
+
 	private void writeRecord(final RecordType record, final Map<String, String> params, final String... fields)
 			throws IOException {
 		final StringBuilder buffer = new StringBuilder(record.name());
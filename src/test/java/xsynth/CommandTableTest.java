@@ -0,0 +1,49 @@
+package xsynth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import xsynth.Diagnostics.AbortedException;
+import xsynth.convert.BatchCommand;
+import xsynth.convert.ConvertCommand;
+import xsynth.serve.ClientCommand;
+import xsynth.serve.ServeCommand;
+
+public class CommandTableTest {
+	@Test
+	public void testReflectiveMatchesGenerated() {
+		for (final Class<? extends Command> clazz : List.of(ConvertCommand.class, BatchCommand.class,
+				ServeCommand.class, ClientCommand.class)) {
+			final CommandTable generated = CommandTable.forClass(clazz);
+			final CommandTable reflective = new CommandTable.Reflective(clazz);
+			// the build runs the annotation processor
+			assertNotEquals(CommandTable.Reflective.class, generated.getClass());
+			assertEquals(generated.name, reflective.name);
+			assertEquals(generated.options.size(), reflective.options.size());
+			for (int i = 0; i < generated.options.size(); i++) {
+				assertEquals(generated.options.get(i).getDescription(), reflective.options.get(i).getDescription());
+				assertEquals(generated.options.get(i).help, reflective.options.get(i).help);
+				assertEquals(generated.options.get(i).required, reflective.options.get(i).required);
+			}
+		}
+	}
+
+	@Test
+	public void testReflectiveSetsFields() throws AbortedException {
+		final CommandTable reflective = new CommandTable.Reflective(ConvertCommand.class);
+		final ConvertCommand convert = (ConvertCommand) reflective.newInstance(new DiagnosticsShim(), List.of(
+				"convert", "-qm", "--watch", "-p", "4003epq100-5", "-o", "4k.xnf", "-p", "5202pc84-5", "-o", "5k.xnf",
+				"foo.blif"));
+		assertTrue(convert.quiet);
+		assertTrue(convert.mergeToplevelNamespaces);
+		assertTrue(convert.watch);
+		assertEquals(List.of("4003epq100-5", "5202pc84-5"), convert.parts);
+		assertNull(convert.family);
+	}
+}
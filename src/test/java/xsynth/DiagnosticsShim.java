@@ -38,6 +38,10 @@ public class DiagnosticsShim extends Diagnostics {
 		assertEquals(infos, nInfo);
 	}
 
+	public List<String> getMessages() {
+		return messages;
+	}
+
 	public void assertNoMessages() {
 		assertNumMessages(0, 0, 0);
 	}
@@ -0,0 +1,49 @@
+package xsynth.blif;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class SumOfProductsTest {
+	@Test
+	public void testCofactor() {
+		// o = a & !b | c
+		final SumOfProducts sop = new SumOfProducts("o", List.of("a", "b", "c"));
+		sop.addProductTerm('1', '1', '0', '-');
+		sop.addProductTerm('1', '-', '-', '1');
+		assertCofactors(sop);
+	}
+
+	@Test
+	public void testCofactorInvertedOutput() {
+		// o = !(a & b), which is 1 for a=0 regardless of b
+		final SumOfProducts sop = new SumOfProducts("o", List.of("a", "b"));
+		sop.addProductTerm('0', '1', '1');
+		assertCofactors(sop);
+		final SumOfProducts one = sop.getCofactor("a", false);
+		assertEquals(1, one.getTerms().size());
+		assertEquals(List.of(), one.getTerms().get(0).getTerms());
+		assertFalse(one.getTerms().get(0).isInvertOutput());
+	}
+
+	/**
+	 * checks that each cofactor agrees with the original cover for every
+	 * combination of the remaining inputs
+	 */
+	private static void assertCofactors(final SumOfProducts sop) {
+		final List<String> inputs = sop.getInputs();
+		for (int i = 0; i < inputs.size(); i++)
+			for (final boolean value : new boolean[] { false, true }) {
+				final SumOfProducts cofactor = sop.getCofactor(inputs.get(i), value);
+				for (int row = 0; row < 1 << inputs.size(); row++) {
+					if ((row >> i & 1) != (value ? 1 : 0))
+						continue;
+					assertEquals(sop.evaluate(inputs, row), cofactor.evaluate(inputs, row),
+							inputs.get(i) + "=" + value + ", row " + row);
+				}
+			}
+	}
+}
@@ -1,5 +1,6 @@
 package xsynth.chips;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -24,6 +25,14 @@ public class ChipFamilyTest {
 		assertInstanceOf(XC4000Family.class, ChipFamily.forPart("4003PQ100-5"));
 	}
 
+	@Test
+	public void testGetDevice() {
+		assertEquals(new Device("4010", 20, 20), ChipFamily.forPart("4010pq160-5").getDevice("4010pq160-5"));
+		assertEquals("3164", ChipFamily.forPart("3164APC84-2").getDevice("3164APC84-2").name());
+		// the smallest device if the part doesn't name one
+		assertEquals("4002", ChipFamily.forPart("4000").getDevice("4000").name());
+	}
+
 	private void assertInstanceOf(final Class<? extends ChipFamily> clazz, final ChipFamily family) {
 		assertTrue(clazz.isAssignableFrom(family.getClass()));
 	}
@@ -36,6 +45,6 @@ public class ChipFamilyTest {
 	}
 
 	public static List<ChipFamily> getFamilies() {
-		return ChipFamily.FAMILIES;
+		return ChipFamily.getFamilies();
 	}
 }
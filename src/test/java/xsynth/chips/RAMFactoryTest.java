@@ -3,6 +3,7 @@ package xsynth.chips;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -17,10 +18,14 @@ public class RAMFactoryTest {
 
 	@Test
 	public void testInputOutputs() {
-		assertInputsOutputs("RAM", List.of("A0", "A1", "A2", "A3", "A4"), false, "O");
-		assertInputsOutputs("RAMS", List.of("A0", "A1", "A2", "A3", "A4"), true, "O");
-		assertInputsOutputs("RAMD", List.of("A0", "A1", "A2", "A3", "DPRA0", "DPRA1", "DPRA2", "DPRA3"), true, "SPO",
-				"DPO");
+		// address pins beyond the primitive's depth create several banks
+		final List<String> a = List.of("A0", "A1", "A2", "A3", "A4", "A5", "A6", "A7");
+		final List<String> dpra = List.of("DPRA0", "DPRA1", "DPRA2", "DPRA3", "DPRA4", "DPRA5", "DPRA6", "DPRA7");
+		assertInputsOutputs("RAM", a, false, "O");
+		assertInputsOutputs("RAMS", a, true, "O");
+		final List<String> both = new ArrayList<>(a);
+		both.addAll(dpra);
+		assertInputsOutputs("RAMD", both, true, "SPO", "DPO");
 	}
 
 	private void assertInputsOutputs(final String gateName, final List<String> addresses, final boolean hasWCLK,
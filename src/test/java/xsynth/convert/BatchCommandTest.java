@@ -0,0 +1,82 @@
+package xsynth.convert;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import xsynth.Command;
+import xsynth.Diagnostics.AbortedException;
+import xsynth.DiagnosticsShim;
+import xsynth.xnf.XnfWriterTest;
+
+public class BatchCommandTest {
+	@TempDir
+	Path temp;
+
+	@Test
+	public void testBatch() throws IOException, URISyntaxException, AbortedException {
+		final Path blif = Path.of(getClass().getResource("fsm4k.blif").toURI());
+		Files.write(temp.resolve("jobs"), List.of( //
+				"# one design, two encodings", //
+				"-p 4003epq100-5 --fsm=onehot -o onehot.xnf " + blif, //
+				"", //
+				"-p 4003epq100-5 --fsm=gray -o gray.xnf " + blif + " # fewer flipflops", //
+				"-p 4003epq100-5 -o missing.xnf missing.blif"));
+
+		final DiagnosticsShim diag = new DiagnosticsShim();
+		final BatchCommand batch = Command.newInstance(BatchCommand.class, diag,
+				List.of("batch", "-j", "2", temp.resolve("jobs").toString()));
+		assertThrows(AbortedException.class, () -> batch.execute());
+		assertIdenticalXnf("onehot.xnf", "fsm4k.xnf");
+		assertIdenticalXnf("gray.xnf", "fsm4kgray.xnf");
+		assertFalse(Files.exists(temp.resolve("missing.xnf")));
+		// each state machine: 3 warnings about undriven inputs, 1 info about
+		// re-encoding it, and 1 about unused outputs
+		// 1 error about the missing input file, plus 1 because a job failed
+		// 3 infos summarizing the jobs
+		diag.assertNumMessages(2, 6, 7);
+	}
+
+	@Test
+	public void testQuoting() throws IOException, URISyntaxException, AbortedException {
+		Files.copy(Path.of(getClass().getResource("fsm4k.blif").toURI()), temp.resolve("my #1 fsm.blif"));
+		Files.write(temp.resolve("jobs"), List.of( //
+				"-p 4003epq100-5 --fsm=onehot -o 'one hot.xnf' \"my #1 fsm.blif\" # quoted", //
+				"-p 4003epq100-5 --watch -o watched.xnf \"my #1 fsm.blif\""));
+
+		final DiagnosticsShim diag = new DiagnosticsShim();
+		final BatchCommand batch = Command.newInstance(BatchCommand.class, diag,
+				List.of("batch", temp.resolve("jobs").toString()));
+		assertThrows(AbortedException.class, () -> batch.execute());
+		assertIdenticalXnf("one hot.xnf", "fsm4k.xnf");
+		assertFalse(Files.exists(temp.resolve("watched.xnf")));
+		// the state machine: 3 warnings about undriven inputs, 1 info about
+		// re-encoding it, and 1 about unused outputs
+		// 1 error about --watch, plus 1 because a job failed
+		// 2 infos summarizing the jobs
+		diag.assertNumMessages(2, 3, 4);
+
+		Files.write(temp.resolve("jobs"), List.of("-p 4003epq100-5 -o x.xnf \"my #1 fsm.blif"));
+		final DiagnosticsShim unterminated = new DiagnosticsShim();
+		assertThrows(AbortedException.class, () -> Command
+				.newInstance(BatchCommand.class, unterminated, List.of("batch", temp.resolve("jobs").toString()))
+				.execute());
+		unterminated.assertNumMessages(1, 0, 0);
+	}
+
+	private void assertIdenticalXnf(final String outfile, final String expected) throws IOException {
+		try (final ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
+			buffer.write(Files.readAllBytes(temp.resolve(outfile)));
+			XnfWriterTest.assertIdenticalXnf(getClass(), expected, buffer);
+		}
+	}
+}
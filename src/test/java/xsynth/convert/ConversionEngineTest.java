@@ -0,0 +1,74 @@
+package xsynth.convert;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import xsynth.Message.Level;
+import xsynth.blif.FsmRecognizer.Encoding;
+import xsynth.xnf.XnfWriterTest;
+
+public class ConversionEngineTest {
+	@Test
+	public void testConvert() throws IOException {
+		final ConversionResult result = new ConversionEngine().convert(getRequest(Encoding.ONE_HOT));
+		assertTrue(result.isSuccessful());
+		assertIdenticalXnf("fsm4k.xnf", result);
+		// 3 warnings about undriven inputs, 1 info about re-encoding the state
+		// machine, and 1 about unused outputs
+		assertEquals(3, result.getMessages(Level.WARNING).size());
+		assertEquals(2, result.getMessages(Level.INFO).size());
+	}
+
+	@Test
+	public void testConcurrentConversions() throws IOException, InterruptedException, ExecutionException {
+		// the same engine, with different requests in parallel
+		final ConversionEngine engine = new ConversionEngine();
+		final ConversionRequest onehot = getRequest(Encoding.ONE_HOT), gray = getRequest(Encoding.GRAY);
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<ConversionResult>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				final ConversionRequest request = i % 2 == 0 ? onehot : gray;
+				results.add(executor.submit(() -> engine.convert(request)));
+			}
+			for (int i = 0; i < results.size(); i++)
+				assertIdenticalXnf(i % 2 == 0 ? "fsm4k.xnf" : "fsm4kgray.xnf", results.get(i).get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testMissingInput() {
+		final ConversionResult result = new ConversionEngine().convert(
+				ConversionRequest.builder().part("4003epq100-5").input(Path.of("missing.blif")).build());
+		assertFalse(result.isSuccessful());
+		assertEquals(1, result.messages().size());
+		assertEquals(Level.ERROR, result.messages().get(0).level());
+	}
+
+	private ConversionRequest getRequest(final Encoding encoding) throws IOException {
+		return ConversionRequest.builder().part("4003epq100-5").fsmEncoding(encoding)
+				.input("fsm4k.blif", getClass().getResourceAsStream("fsm4k.blif")).build();
+	}
+
+	private void assertIdenticalXnf(final String expected, final ConversionResult result) throws IOException {
+		try (final ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
+			buffer.write(result.xnf());
+			XnfWriterTest.assertIdenticalXnf(getClass(), expected, buffer);
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package xsynth.convert;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import xsynth.Command;
+import xsynth.Diagnostics.AbortedException;
+import xsynth.DiagnosticsShim;
+import xsynth.xnf.XnfWriterTest;
+
+public class ConvertCommandTest {
+	@TempDir
+	Path temp;
+
+	@Test
+	public void testMultipleParts() throws IOException, URISyntaxException, AbortedException {
+		final String blif = Path.of(getClass().getResource("fsm4k.blif").toURI()).toString();
+		final DiagnosticsShim diag = convert("--fsm=onehot", "-p", "4003epq100-5", "-o", "4k.xnf", "-p",
+				"5202pc84-5", "-o", "5k.xnf", blif);
+		assertIdenticalXnf("4k.xnf", "fsm4k.xnf");
+		// each part: 3 warnings about undriven inputs, 1 info about re-encoding the
+		// state machine, and 1 about unused outputs
+		diag.assertNumMessages(0, 6, 4);
+
+		// the same as converting for each part separately
+		convert("--fsm=onehot", "-p", "5202pc84-5", "-o", "5k-single.xnf", blif);
+		assertEquals(withoutProg("5k-single.xnf"), withoutProg("5k.xnf"));
+	}
+
+	@Test
+	public void testMultiplePartsWithoutOutputs() throws AbortedException {
+		final DiagnosticsShim diag = new DiagnosticsShim();
+		final Command convert = Command.newInstance(ConvertCommand.class, diag,
+				List.of("convert", "-p", "4003epq100-5", "-p", "5202pc84-5", "-o", "4k.xnf", "fsm4k.blif"));
+		convert.setDirectory(temp);
+		// a usage error, before converting anything
+		assertThrows(AbortedException.class, () -> convert.execute());
+		assertFalse(Files.exists(temp.resolve("4k.xnf")));
+	}
+
+	@Test
+	public void testFixedTimestamp() throws IOException, URISyntaxException, AbortedException {
+		final String blif = Path.of(getClass().getResource("fsm4k.blif").toURI()).toString();
+		convert("--fsm=onehot", "--timestamp=0", "-p", "4003epq100-5", "-o", "4k.xnf", blif);
+		assertIdenticalXnf("4k.xnf", "fsm4k.xnf");
+		assertTrue(getProg("4k.xnf").endsWith(
+				"\"1970-01-01 00:00:00 convert --fsm=onehot --timestamp=0 -p 4003epq100-5 -o 4k.xnf " + blif + "\""));
+
+		// converting again gives identical output, so the file is left alone
+		final FileTime modified = FileTime.fromMillis(1000);
+		Files.setLastModifiedTime(temp.resolve("4k.xnf"), modified);
+		final DiagnosticsShim diag = convert("--fsm=onehot", "--timestamp=0", "-p", "4003epq100-5", "-o", "4k.xnf",
+				blif);
+		// the usual 3 warnings and 2 infos, and 1 info about not writing the file
+		diag.assertNumMessages(0, 3, 3);
+		assertEquals(modified, Files.getLastModifiedTime(temp.resolve("4k.xnf")));
+
+		convert("--fsm=onehot", "--timestamp=none", "-p", "4003epq100-5", "-o", "4k.xnf", blif);
+		assertTrue(getProg("4k.xnf")
+				.endsWith("\"convert --fsm=onehot --timestamp=none -p 4003epq100-5 -o 4k.xnf " + blif + "\""));
+	}
+
+	@Test
+	public void testDepfile() throws IOException, URISyntaxException, AbortedException {
+		Files.copy(Path.of(getClass().getResource("fsm4k.blif").toURI()), temp.resolve("my fsm.blif"));
+		convert("--fsm=onehot", "--depfile=fsm.d", "-p", "4003epq100-5", "-o", "4k.xnf", "-p", "5202pc84-5", "-o",
+				"5k.xnf", "my fsm.blif");
+		assertEquals("4k.xnf 5k.xnf: \\\n my\\ fsm.blif\n\nmy\\ fsm.blif:\n", Files.readString(temp.resolve("fsm.d")));
+		// no temporary files left behind
+		try (final Stream<Path> files = Files.list(temp)) {
+			assertEquals(4, files.count());
+		}
+	}
+
+	@Test
+	public void testPartitionsNotRewritten() throws IOException, URISyntaxException, AbortedException {
+		for (final String blif : List.of("blinker.blif", "blinkerio.blif"))
+			Files.copy(Path.of(getClass().getResource(blif).toURI()), temp.resolve(blif));
+		convert("--partition", "-p", "2064pd48-50", "-o", "top.xnf", "blinker.blif", "blinkerio.blif");
+		final FileTime modified = FileTime.fromMillis(1000);
+		for (final String partition : List.of("top.xnf", "blinker.xnf", "blinkerio.xnf"))
+			Files.setLastModifiedTime(temp.resolve(partition), modified);
+
+		// moving a pad only changes the top level, which holds the pads
+		final Path io = temp.resolve("blinkerio.blif");
+		Files.writeString(io, Files.readString(io).replace(".pad P10 ", ".pad P11 "));
+		convert("--partition", "-p", "2064pd48-50", "-o", "top.xnf", "blinker.blif", "blinkerio.blif");
+		assertTrue(Files.readString(temp.resolve("top.xnf")).contains("LOC=P11"));
+		assertEquals(modified, Files.getLastModifiedTime(temp.resolve("blinker.xnf")));
+		assertEquals(modified, Files.getLastModifiedTime(temp.resolve("blinkerio.xnf")));
+	}
+
+	@Test
+	public void testDepfilePartitions() throws IOException, URISyntaxException, AbortedException {
+		Files.createDirectory(temp.resolve("out"));
+		for (final String blif : List.of("blinker.blif", "blinkerio.blif"))
+			Files.copy(Path.of(getClass().getResource(blif).toURI()), temp.resolve(blif));
+		convert("--partition", "--depfile=top.d", "-p", "2064pd48-50", "-o", "out/top.xnf", "blinker.blif",
+				"blinkerio.blif");
+		assertEquals("out/top.xnf out/blinker.xnf out/blinkerio.xnf: \\\n blinker.blif \\\n blinkerio.blif\n"
+				+ "\nblinker.blif:\n\nblinkerio.blif:\n", Files.readString(temp.resolve("top.d")));
+	}
+
+	private DiagnosticsShim convert(final String... args) throws AbortedException {
+		final List<String> cmdline = new ArrayList<>();
+		cmdline.add("convert");
+		cmdline.addAll(List.of(args));
+		final DiagnosticsShim diag = new DiagnosticsShim();
+		final Command convert = Command.newInstance(ConvertCommand.class, diag, cmdline);
+		convert.setDirectory(temp);
+		convert.execute();
+		return diag;
+	}
+
+	private String getProg(final String outfile) throws IOException {
+		return Files.readAllLines(temp.resolve(outfile)).stream().filter(line -> line.startsWith("PROG")).findFirst()
+				.orElseThrow();
+	}
+
+	private List<String> withoutProg(final String outfile) throws IOException {
+		return Files.readAllLines(temp.resolve(outfile)).stream().filter(line -> !line.startsWith("PROG")).toList();
+	}
+
+	private void assertIdenticalXnf(final String outfile, final String expected) throws IOException {
+		try (final ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
+			buffer.write(Files.readAllBytes(temp.resolve(outfile)));
+			XnfWriterTest.assertIdenticalXnf(getClass(), expected, buffer);
+		}
+	}
+}
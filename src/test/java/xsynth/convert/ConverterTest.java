@@ -1,17 +1,27 @@
 package xsynth.convert;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 
 import xsynth.Diagnostics.AbortedException;
 import xsynth.DiagnosticsShim;
+import xsynth.blif.FsmRecognizer.Encoding;
+import xsynth.blif.Retimer.DelayModel;
 import xsynth.chips.ChipFamily;
 import xsynth.xnf.XnfWriterTest;
 
@@ -89,10 +99,236 @@ public class ConverterTest {
 				{ "3195apc84-2", "gates3k2", "gates3k2" }, //
 				{ "4003hpq208-5", "gates4k", "gates4k" }, //
 				{ "4003epq100-5", "ram4k", "ram4k" }, //
+				{ "4003epq100-5", "ramdeep4k", "ramdeep4k" }, //
 				{ "5202pq100-5", "gates5k2", "gates5k2" }, //
 				{ "5202pq100-5", "gates5k2rdclk", "gates5k2rdclk" } };
 	}
 
+	@Test
+	public void testIobRegisters() throws IOException, AbortedException {
+		final DiagnosticsShim diag = convert("4003epq100-5", "iobregs4k");
+		// one info listing the registers that were packed into IOBs
+		diag.assertNumMessages(0, 0, 1);
+	}
+
+	@Test
+	public void testWideDecoders() throws IOException, AbortedException {
+		final DiagnosticsShim diag = convert("4003epq100-5", "decode4k");
+		// 16 warnings regarding undriven global inputs
+		// one info listing all the unused global outputs
+		diag.assertNumMessages(0, 16, 1);
+	}
+
+	@Test
+	public void testWideDecoderTooWide() throws IOException, AbortedException {
+		// 24 inputs are more than the 20 IOBs along an edge of an XC4003, but fewer
+		// than the 40 of an XC4010
+		assertEquals(0, countSymbols(convertFlat("4003epq100-5", "decodewide4k"), "WAND1"));
+		assertEquals(24, countSymbols(convertFlat("4010pq160-5", "decodewide4k"), "WAND1"));
+	}
+
+	@Test
+	public void testTristateMux() throws IOException, AbortedException {
+		final DiagnosticsShim diag = convert("3020pc68-70", "mux3k", "mux3k",
+				converter -> converter.setTristateMux(true));
+		// 23 warnings regarding undriven global inputs
+		// one info listing all the unused global outputs
+		diag.assertNumMessages(0, 23, 1);
+	}
+
+	@Test
+	public void testTristateMuxFallback() throws IOException, AbortedException {
+		assertEquals(0, countSymbols(convertFlat("3020pc68-70", converter -> {
+		}, "mux3k"), "TBUF"));
+		// an XC3020 has 8 TBUFs on each long line, an XC3090 has 20
+		assertEquals(0, countSymbols(convertFlat("3020pc68-70", converter -> converter.setTristateMux(true),
+				"muxwide3k"), "TBUF"));
+		assertEquals(16, countSymbols(convertFlat("3090pq160-70", converter -> converter.setTristateMux(true),
+				"muxwide3k"), "TBUF"));
+	}
+
+	@Test
+	public void testMapFunctionGenerators() throws IOException, AbortedException {
+		final DiagnosticsShim diag = convert("4003epq100-5", "map4k", "map4k",
+				converter -> converter.setMapLogic(true));
+		// 10 warnings regarding undriven global inputs
+		// one info listing all the unused global outputs
+		// one info with the mapping statistics
+		diag.assertNumMessages(0, 10, 2);
+	}
+
+	@Test
+	public void testMapFunctionGeneratorsSameNames() throws IOException, AbortedException {
+		final DiagnosticsShim diag = convert("4003epq100-5", List.of("mapcollide1", "mapcollide2"), "mapcollide",
+				converter -> converter.setMapLogic(true));
+		// 5 warnings regarding undriven global inputs
+		// two infos listing the unused global outputs, one per model
+		// one info with the mapping statistics
+		diag.assertNumMessages(0, 5, 3);
+	}
+
+	@Test
+	public void testPackClbs() throws IOException, AbortedException {
+		final DiagnosticsShim diag = convert("3020pc68-70", "pack3k", "pack3k",
+				converter -> converter.setMapLogic(true));
+		// 8 warnings regarding undriven global inputs
+		// one info listing all the unused global outputs
+		// one info with the CLB count
+		diag.assertNumMessages(0, 8, 2);
+	}
+
+	@Test
+	public void testPackClbsSameNames() throws IOException, AbortedException {
+		final DiagnosticsShim diag = convert("3020pc68-70", List.of("mapcollide1", "mapcollide2"), "packcollide",
+				converter -> converter.setMapLogic(true));
+		// 5 warnings regarding undriven global inputs
+		// two infos listing the unused global outputs, one per model
+		// one info with the CLB count
+		diag.assertNumMessages(0, 5, 3);
+	}
+
+	@Test
+	public void testAutoBuffer() throws IOException, AbortedException {
+		final DiagnosticsShim diag = convert("3020pc68-70", "autobuf3k", "autobuf3k",
+				converter -> converter.setAutoBuffer(true));
+		// 1 warning regarding the undriven global input
+		// 1 warning about the net that didn't get a buffer
+		// one info listing all the unused global outputs
+		// one info listing the buffered nets
+		diag.assertNumMessages(0, 2, 2);
+	}
+
+	@Test
+	public void testDuplicateRegisters() throws IOException, AbortedException {
+		final DiagnosticsShim diag = convert("4003epq100-5", List.of("dupregs1", "dupregs2"), "dupregs",
+				converter -> converter.setMaxFanout(4));
+		// 6 warnings regarding undriven global inputs
+		// two infos listing the unused global outputs, one per model
+		// one info listing the duplicated registers
+		diag.assertNumMessages(0, 6, 3);
+	}
+
+	@Test
+	public void testDuplicateRegistersSameNames() throws IOException, AbortedException {
+		final DiagnosticsShim diag = convert("4003epq100-5", List.of("collide1", "collide2"), "collide",
+				converter -> converter.setMaxFanout(1));
+		// 7 warnings regarding undriven global inputs
+		// two infos listing the unused global outputs, one per model
+		// one info listing the duplicated registers, one for each model's x
+		diag.assertNumMessages(0, 7, 3);
+		assertEquals(List.of("duplicated high-fanout registers: collide1/x (2 copies) collide2/x (2 copies)"),
+				diag.getMessages().stream().filter(msg -> msg.startsWith("duplicated")).toList());
+	}
+
+	@Test
+	public void testCarryChains() throws IOException, AbortedException {
+		final DiagnosticsShim diag = convert("4003epq100-5", "carry4k", "carry4k",
+				converter -> converter.setCarryChains(true));
+		// 9 warnings regarding undriven global inputs
+		// one info for each of the two carry chains
+		// one info listing all the unused global outputs
+		diag.assertNumMessages(0, 9, 3);
+	}
+
+	@Test
+	public void testInferRam() throws IOException, AbortedException {
+		final DiagnosticsShim diag = convert("4003epq100-5", "regfile4k", "regfile4k",
+				converter -> converter.setInferRam(true));
+		// 10 warnings regarding undriven global inputs
+		// one info for each of the two register files
+		// one info listing all the unused global outputs
+		diag.assertNumMessages(0, 10, 3);
+	}
+
+	@Test
+	public void testInferRom() throws IOException, AbortedException {
+		final DiagnosticsShim diag = convert("4003epq100-5", "rom4k", "rom4k",
+				converter -> converter.setInferRom(true));
+		// 10 warnings regarding undriven global inputs
+		// one info for each of the two tables
+		// one info listing all the unused global outputs
+		diag.assertNumMessages(0, 10, 3);
+	}
+
+	@Test
+	public void testGlobalReset() throws IOException, AbortedException {
+		final DiagnosticsShim diag = convert("4003epq100-5", "reset4k", "reset4k", converter -> {
+			converter.setGlobalReset(true);
+			converter.setAsyncReset(true);
+		});
+		// 5 warnings regarding undriven global inputs
+		// one info listing the registers using GSR
+		// one info listing all the unused global outputs
+		diag.assertNumMessages(0, 5, 2);
+	}
+
+	@Test
+	public void testGlobalResetPartial() throws IOException, AbortedException {
+		final DiagnosticsShim diag = convert("4003epq100-5", "resetpartial4k", "resetpartial4k", converter -> {
+			converter.setGlobalReset(true);
+			converter.setAsyncReset(true);
+		});
+		// 5 warnings regarding undriven global inputs
+		// one info listing the registers that GSR would reset unexpectedly
+		// one info listing all the unused global outputs
+		diag.assertNumMessages(0, 5, 2);
+	}
+
+	@Test
+	public void testGlobalResetSynchronous() throws IOException, AbortedException {
+		// without the opt-in, the synchronous reset must not become asynchronous
+		assertEquals(0, countSymbols(convertFlat("4003epq100-5", converter -> converter.setGlobalReset(true),
+				"reset4k"), "STARTUP"));
+		assertEquals(1, countSymbols(convertFlat("4003epq100-5", converter -> {
+			converter.setGlobalReset(true);
+			converter.setAsyncReset(true);
+		}, "reset4k"), "STARTUP"));
+	}
+
+	@Test
+	public void testFsmOneHot() throws IOException, AbortedException {
+		final DiagnosticsShim diag = convert("4003epq100-5", "fsm4k", "fsm4k",
+				converter -> converter.setFsmEncoding(Encoding.ONE_HOT));
+		// 3 warnings regarding undriven global inputs
+		// one info about the state machine
+		// one info listing all the unused global outputs
+		diag.assertNumMessages(0, 3, 2);
+	}
+
+	@Test
+	public void testFsmGray() throws IOException, AbortedException {
+		final DiagnosticsShim diag = convert("4003epq100-5", "fsm4k", "fsm4kgray",
+				converter -> converter.setFsmEncoding(Encoding.GRAY));
+		// 3 warnings regarding undriven global inputs
+		// one info about the state machine
+		// one info listing all the unused global outputs
+		diag.assertNumMessages(0, 3, 2);
+	}
+
+	@Test
+	public void testGatedClocks() throws IOException, AbortedException {
+		// clock enables on XC4000, feedback multiplexers on XC2000
+		for (final String[] pair : new String[][] { { "4003epq100-5", "gatedclk4k" },
+				{ "2064pd48-50", "gatedclk2k" } }) {
+			final DiagnosticsShim diag = convert(pair[0], "gatedclk", pair[1]);
+			// 6 warnings regarding undriven global inputs
+			// one warning about the clock that cannot be converted
+			// 3 infos about the converted clocks
+			// one info listing all the unused global outputs
+			diag.assertNumMessages(0, 7, 4);
+		}
+	}
+
+	@Test
+	public void testRetiming() throws IOException, AbortedException {
+		final DiagnosticsShim diag = convert("4003epq100-5", "retime4k", "retime4k",
+				converter -> converter.setRetiming(DelayModel.UNIT));
+		// 5 warnings regarding undriven global inputs
+		// one info about the depths before and after retiming
+		// one info listing all the unused global outputs
+		diag.assertNumMessages(0, 5, 2);
+	}
+
 	@Test
 	public void testXC5200ConflictingDividers() throws IOException, AbortedException {
 		final DiagnosticsShim diag = assertThrowsAbortedException("5202pq100-5", "gates5k2div.blif");
@@ -130,6 +366,64 @@ public class ConverterTest {
 		diag.assertNumMessages(0, 1, 3);
 	}
 
+	@Test
+	public void testPartitioned() throws IOException, AbortedException {
+		final DiagnosticsShim diag = new DiagnosticsShim();
+		final Converter converter = new Converter(diag, ChipFamily.forPart("2064pd48-50"), false, false);
+		converter.read(getClass().getResourceAsStream("blinker.blif"), "blinker.blif");
+		converter.read(getClass().getResourceAsStream("blinkerio.blif"), "blinkerio.blif");
+		try (final ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
+			final Map<String, byte[]> partitions = converter.writePartitionedTo(buffer, "2064pd48-50",
+					List.of("--testcase", "partitioned"));
+			XnfWriterTest.assertIdenticalXnf(getClass(), "blinker-partitioned.xnf", buffer);
+			assertEquals(List.of("blinker.xnf", "blinkerio.xnf"), List.copyOf(partitions.keySet()));
+			// the partitions put back together must be the same as the merged netlist
+			XnfGraph.assertFlattensTo(convertFlat("2064pd48-50", "blinker", "blinkerio"), buffer.toByteArray(),
+					partitions);
+		}
+		// same messages as testMerge
+		diag.assertNumMessages(0, 1, 3);
+	}
+
+	@Test
+	public void testPartitionedSameNames() throws IOException, AbortedException {
+		final DiagnosticsShim diag = new DiagnosticsShim();
+		final Converter converter = new Converter(diag, ChipFamily.forPart("4003epq100-5"), false, false);
+		converter.read(getClass().getResourceAsStream("mapcollide1.blif"), "mapcollide1.blif");
+		converter.read(getClass().getResourceAsStream("mapcollide2.blif"), "mapcollide2.blif");
+		try (final ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
+			final Map<String, byte[]> partitions = converter.writePartitionedTo(buffer, "4003epq100-5",
+					List.of("--testcase", "partitioned"));
+			// each model's x stays internal to its partition
+			XnfWriterTest.assertIdenticalXnf(getClass(), "mapcollide-partitioned.xnf", buffer);
+			assertEquals(List.of("mapcollide1.xnf", "mapcollide2.xnf"), List.copyOf(partitions.keySet()));
+			for (final String partition : partitions.keySet())
+				try (final ByteArrayOutputStream part = new ByteArrayOutputStream()) {
+					part.write(partitions.get(partition));
+					XnfWriterTest.assertIdenticalXnf(getClass(), "mapcollide-partition-" + partition, part);
+				}
+			XnfGraph.assertFlattensTo(convertFlat("4003epq100-5", "mapcollide1", "mapcollide2"),
+					buffer.toByteArray(), partitions);
+		}
+		// 5 warnings regarding undriven global inputs
+		// two infos listing the unused global outputs, one per model
+		diag.assertNumMessages(0, 5, 2);
+	}
+
+	@Test
+	public void testCache(@TempDir final Path cache) throws IOException, AbortedException {
+		for (int i = 0; i < 2; i++) {
+			// the first conversion stores both files, the second one loads them
+			final DiagnosticsShim diag = convert("2064pd48-50", List.of("blinker", "blinkerio"), "blinker",
+					converter -> converter.setCache(new FragmentCache(cache)));
+			// same messages as testMerge, whether the files were converted or loaded
+			diag.assertNumMessages(0, 1, 3);
+			try (final Stream<Path> entries = Files.list(cache)) {
+				assertEquals(2, entries.count());
+			}
+		}
+	}
+
 	@Test
 	public void testMergeToplevelNamespaces() throws IOException, AbortedException {
 		final DiagnosticsShim diag = new DiagnosticsShim();
@@ -192,13 +486,65 @@ public class ConverterTest {
 
 	private DiagnosticsShim convert(final String part, final String infile, final String outfile)
 			throws IOException, AbortedException {
+		return convert(part, infile, outfile, converter -> {
+		});
+	}
+
+	private DiagnosticsShim convert(final String part, final String infile, final String outfile,
+			final Consumer<Converter> setup) throws IOException, AbortedException {
+		return convert(part, List.of(infile), infile, outfile, setup);
+	}
+
+	private DiagnosticsShim convert(final String part, final List<String> infiles, final String outfile,
+			final Consumer<Converter> setup) throws IOException, AbortedException {
+		return convert(part, infiles, outfile, outfile, setup);
+	}
+
+	/**
+	 * converts the input files, in order, with a converter configured by
+	 * {@code setup}, and compares the result to the expected output
+	 */
+	private DiagnosticsShim convert(final String part, final List<String> infiles, final String testcase,
+			final String outfile, final Consumer<Converter> setup) throws IOException, AbortedException {
 		final DiagnosticsShim diag = new DiagnosticsShim();
-		final Converter converter = new Converter(diag, ChipFamily.forPart(part), false, false);
-		converter.read(getClass().getResourceAsStream(infile + ".blif"), infile + ".blif");
+		final ChipFamily family = ChipFamily.forPart(part);
+		final Converter converter = new Converter(diag, family, false, false);
+		converter.setDevice(family.getDevice(part));
+		setup.accept(converter);
+		for (final String infile : infiles)
+			converter.read(getClass().getResourceAsStream(infile + ".blif"), infile + ".blif");
 		try (final ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
-			converter.writeTo(buffer, part, List.of("--testcase", infile));
+			converter.writeTo(buffer, part, List.of("--testcase", testcase));
 			XnfWriterTest.assertIdenticalXnf(getClass(), outfile + ".xnf", buffer);
 		}
 		return diag;
 	}
+
+	/**
+	 * @return the files converted into a single netlist, without checking it
+	 *         against a reference
+	 */
+	private byte[] convertFlat(final String part, final String... infiles) throws IOException, AbortedException {
+		return convertFlat(part, converter -> {
+		}, infiles);
+	}
+
+	private byte[] convertFlat(final String part, final Consumer<Converter> setup, final String... infiles)
+			throws IOException, AbortedException {
+		final ChipFamily family = ChipFamily.forPart(part);
+		final Converter converter = new Converter(new DiagnosticsShim(), family, false, false);
+		converter.setDevice(family.getDevice(part));
+		setup.accept(converter);
+		for (final String infile : infiles)
+			converter.read(getClass().getResourceAsStream(infile + ".blif"), infile + ".blif");
+		try (final ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
+			converter.writeTo(buffer, part, List.of());
+			return buffer.toByteArray();
+		}
+	}
+
+	private static long countSymbols(final byte[] xnf, final String type) {
+		return new String(xnf, StandardCharsets.US_ASCII).lines()
+				.filter(line -> line.matches("SYM,[^,]*," + type + ",.*")).count();
+	}
 }
@@ -0,0 +1,150 @@
+package xsynth.convert;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An XNF netlist as a graph of symbols and nets, for comparing netlists that
+ * only differ in the names of their internal nets. Only external and power nets
+ * keep their names.
+ */
+class XnfGraph {
+	private static final int ROUNDS = 6;
+
+	private record Pin(String name, String direction, String net, List<String> flags) {
+	}
+
+	private record Symbol(String name, String type, List<String> params, List<Pin> pins) {
+	}
+
+	private final List<Symbol> symbols = new ArrayList<>();
+	private final Set<String> pads = new TreeSet<>();
+	private final Set<String> power = new TreeSet<>();
+
+	private XnfGraph(final byte[] xnf) {
+		Symbol symbol = null;
+		for (final String line : new String(xnf, StandardCharsets.US_ASCII).split("\r\n")) {
+			final List<String> fields = Arrays.asList(line.replaceAll("\\s+,\\s+", ",").split(","));
+			switch (fields.get(0)) {
+			case "SYM" -> {
+				symbol = new Symbol(fields.get(1), fields.get(2), fields.subList(3, fields.size()), new ArrayList<>());
+				symbols.add(symbol);
+			}
+			case "PIN" -> symbol.pins().add(new Pin(fields.get(1), fields.get(2), fields.get(3),
+					fields.subList(Math.min(4, fields.size()), fields.size())));
+			case "END" -> symbol = null;
+			case "EXT" -> pads.add(String.join(",", fields));
+			case "PWR" -> power.add(fields.get(2));
+			}
+		}
+	}
+
+	/**
+	 * checks that putting the partitions in place of their symbols in the
+	 * toplevel netlist gives the same netlist as converting without partitions.
+	 * because the internal nets are named differently, the netlists are compared
+	 * by Weisfeiler-Lehman refinement: each round labels every symbol with its
+	 * neighboring nets' labels and every net with its neighboring symbols'
+	 * labels, so after a few rounds, the labels describe the neighborhood of each
+	 * symbol.
+	 */
+	static void assertFlattensTo(final byte[] flat, final byte[] toplevel, final Map<String, byte[]> partitions) {
+		final XnfGraph expected = new XnfGraph(flat);
+		final XnfGraph actual = new XnfGraph(toplevel).inline(partitions);
+		assertEquals(expected.pads, actual.pads);
+		assertEquals(expected.power, actual.power);
+		assertEquals(expected.symbols.size(), actual.symbols.size());
+		final Map<String, Integer> labels = new HashMap<>();
+		// the label lists are too long to be useful in a failure message
+		assertTrue(expected.refine(labels).equals(actual.refine(labels)), "partitions connected differently");
+	}
+
+	/**
+	 * @return the graph with every symbol that instantiates a partition replaced
+	 *         by the partition's contents
+	 */
+	private XnfGraph inline(final Map<String, byte[]> partitions) {
+		final List<Symbol> toplevel = List.copyOf(symbols);
+		symbols.clear();
+		for (final Symbol symbol : toplevel) {
+			final byte[] xnf = partitions.get(symbol.type() + ".xnf");
+			if (xnf == null) {
+				symbols.add(symbol);
+				continue;
+			}
+			final XnfGraph partition = new XnfGraph(xnf);
+			assertEquals(Set.of(), partition.power, "power nets in partition " + symbol.type());
+			final Map<String, String> ports = new HashMap<>();
+			for (final Pin pin : symbol.pins())
+				assertNull(ports.put(pin.name(), pin.net()), "duplicate port " + pin.name());
+			final Set<String> declared = new TreeSet<>();
+			for (final String pad : partition.pads)
+				declared.add(pad.split(",")[1]);
+			assertEquals(new TreeSet<>(ports.keySet()), declared, "ports of partition " + symbol.type());
+			for (final Symbol inner : partition.symbols) {
+				final List<Pin> pins = new ArrayList<>();
+				for (final Pin pin : inner.pins())
+					pins.add(new Pin(pin.name(), pin.direction(),
+							ports.getOrDefault(pin.net(), symbol.name() + "//" + pin.net()), pin.flags()));
+				symbols.add(new Symbol(inner.name(), inner.type(), inner.params(), pins));
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * @param labels numbers the label strings, shared between the graphs so that
+	 *               their labels can be compared
+	 * @return the sorted labels of all symbols after refinement
+	 */
+	private List<Integer> refine(final Map<String, Integer> labels) {
+		final Map<String, Integer> nets = new LinkedHashMap<>();
+		for (final Symbol symbol : symbols)
+			for (final Pin pin : symbol.pins())
+				nets.put(pin.net(), label(labels,
+						pads.stream().anyMatch(pad -> pad.split(",")[1].equals(pin.net())) || power.contains(pin.net())
+								? "net " + pin.net()
+								: "net"));
+		List<Integer> current = new ArrayList<>();
+		for (final Symbol symbol : symbols)
+			current.add(label(labels, "sym " + symbol.type() + " " + symbol.params()));
+
+		for (int round = 0; round < ROUNDS; round++) {
+			final List<Integer> next = new ArrayList<>();
+			final Map<String, List<String>> neighbors = new HashMap<>();
+			for (int i = 0; i < symbols.size(); i++) {
+				final List<String> pins = new ArrayList<>();
+				for (final Pin pin : symbols.get(i).pins()) {
+					pins.add(pin.name() + " " + pin.direction() + " " + pin.flags() + " " + nets.get(pin.net()));
+					neighbors.computeIfAbsent(pin.net(), k -> new ArrayList<>())
+							.add(pin.name() + " " + pin.direction() + " " + current.get(i));
+				}
+				pins.sort(null);
+				next.add(label(labels, current.get(i) + " " + pins));
+			}
+			for (final Map.Entry<String, Integer> net : nets.entrySet()) {
+				final List<String> adjacent = neighbors.get(net.getKey());
+				adjacent.sort(null);
+				net.setValue(label(labels, net.getValue() + " " + adjacent));
+			}
+			current = next;
+		}
+		current.sort(null);
+		return current;
+	}
+
+	private static int label(final Map<String, Integer> labels, final String label) {
+		return labels.computeIfAbsent(label, k -> labels.size());
+	}
+}
@@ -0,0 +1,100 @@
+package xsynth.serve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.URISyntaxException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import xsynth.Command;
+import xsynth.DiagnosticsShim;
+import xsynth.convert.ConverterTest;
+import xsynth.xnf.XnfWriterTest;
+
+public class ServeCommandTest {
+	@TempDir
+	Path temp;
+
+	@Test
+	public void testConcurrentCommands() throws Exception {
+		final DiagnosticsShim diag = new DiagnosticsShim();
+		final ServeCommand serve = Command.newInstance(ServeCommand.class, diag, List.of("serve", "-s", "sock"));
+		final UnixDomainSocketAddress address = UnixDomainSocketAddress.of(temp.resolve("sock"));
+		final ExecutorService clients = Executors.newFixedThreadPool(4);
+		try (final ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+			server.bind(address);
+			final Thread thread = new Thread(() -> {
+				try {
+					serve.serve(server, 2);
+				} catch (final IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			thread.start();
+
+			final List<Future<Result>> results = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				final String outfile = temp.resolve("fsm" + i + ".xnf").toString();
+				results.add(clients.submit(() -> run(address, "convert", "-p", "4003epq100-5", "--fsm=onehot",
+						"-o", outfile, "fsm4k.blif")));
+			}
+			// errors are passed through, and so is the exit status
+			final Result missing = run(address, "convert", "-p", "4003epq100-5", "-o", "x.xnf", "missing.blif");
+			assertEquals(1, missing.status());
+			assertTrue(missing.output().startsWith("ERROR failed to read missing.blif"), missing.output());
+			// the client cannot be used to start another server
+			assertEquals(1, run(address, "serve", "-s", "sock2").status());
+			// nor to run a conversion that would never finish
+			final Result watch = run(address, "convert", "-w", "-p", "4003epq100-5", "-o", "x.xnf", "fsm4k.blif");
+			assertEquals(1, watch.status());
+			assertTrue(watch.output().startsWith("ERROR --watch cannot be used"), watch.output());
+
+			for (int i = 0; i < 4; i++) {
+				final Result result = results.get(i).get();
+				assertEquals(0, result.status(), result.output());
+				assertTrue(result.output().contains("INFO re-encoding 4-state machine"), result.output());
+				try (final ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
+					buffer.write(Files.readAllBytes(temp.resolve("fsm" + i + ".xnf")));
+					XnfWriterTest.assertIdenticalXnf(ConverterTest.class, "fsm4k.xnf", buffer);
+				}
+			}
+
+			server.close();
+			thread.join();
+		} finally {
+			clients.shutdown();
+		}
+		diag.assertNoMessages();
+	}
+
+	private Result run(final UnixDomainSocketAddress address, final String... cmdline)
+			throws IOException, URISyntaxException {
+		final Path directory = Path.of(ConverterTest.class.getResource("fsm4k.blif").toURI()).getParent();
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (final SocketChannel channel = SocketChannel.open(address);
+				final PrintStream err = new PrintStream(buffer, true, StandardCharsets.UTF_8)) {
+			final int status = ClientCommand.forward(channel, directory, List.of(cmdline), err);
+			return new Result(status, buffer.toString(StandardCharsets.UTF_8));
+		}
+	}
+
+	private static record Result(int status, String output) {
+	}
+}